@@ -763,31 +763,7 @@ public class AppController implements Initializable {
                     return;
                 }
 
-                SecureString password = optionalPassword.get();
-                Storage.LoadWalletService loadWalletService = new Storage.LoadWalletService(storage, password);
-                loadWalletService.setOnSucceeded(workerStateEvent -> {
-                    EventManager.get().post(new StorageEvent(storage.getWalletFile(), TimedEvent.Action.END, "Done"));
-                    WalletBackupAndKey walletBackupAndKey = loadWalletService.getValue();
-                    openWallet(storage, walletBackupAndKey, this, forceSameWindow);
-                });
-                loadWalletService.setOnFailed(workerStateEvent -> {
-                    EventManager.get().post(new StorageEvent(storage.getWalletFile(), TimedEvent.Action.END, "Failed"));
-                    Throwable exception = loadWalletService.getException();
-                    if(exception instanceof InvalidPasswordException) {
-                        Optional<ButtonType> optResponse = showErrorDialog("Invalid Password", "The wallet password was invalid. Try again?", ButtonType.CANCEL, ButtonType.OK);
-                        if(optResponse.isPresent() && optResponse.get().equals(ButtonType.OK)) {
-                            Platform.runLater(() -> openWalletFile(file, forceSameWindow));
-                        }
-                    } else {
-                        if(!attemptImportWallet(file, password)) {
-                            log.error("Error Opening Wallet", exception);
-                            showErrorDialog("Error Opening Wallet", exception.getMessage() == null ? "Unsupported file format" : exception.getMessage());
-                        }
-                        password.clear();
-                    }
-                });
-                EventManager.get().post(new StorageEvent(storage.getWalletFile(), TimedEvent.Action.START, "Decrypting wallet..."));
-                loadWalletService.start();
+                loadEncryptedWallet(storage, optionalPassword.get(), forceSameWindow);
             } else {
                 throw new IOException("Unsupported file type");
             }
@@ -799,6 +775,55 @@ public class AppController implements Initializable {
         }
     }
 
+    /**
+     * Opens several wallet files together, as on startup. Passwords for all encrypted wallets are requested first,
+     * and the wallets are then decrypted concurrently, each opening in its own tab as soon as it is ready.
+     */
+    public void openWalletFiles(List<File> files) {
+        Map<File, SecureString> walletPasswords = new LinkedHashMap<>();
+        for(File file : files) {
+            if(FileType.BINARY.equals(IOUtils.getFileType(file))) {
+                WalletPasswordDialog dlg = new WalletPasswordDialog(file.getName(), WalletPasswordDialog.PasswordRequirement.LOAD);
+                Optional<SecureString> optionalPassword = dlg.showAndWait();
+                optionalPassword.ifPresent(password -> walletPasswords.put(file, password));
+            } else {
+                openWalletFile(file, false);
+            }
+        }
+
+        for(Map.Entry<File, SecureString> entry : walletPasswords.entrySet()) {
+            loadEncryptedWallet(new Storage(entry.getKey()), entry.getValue(), false);
+        }
+    }
+
+    private void loadEncryptedWallet(Storage storage, SecureString password, boolean forceSameWindow) {
+        File file = storage.getWalletFile();
+        Storage.LoadWalletService loadWalletService = new Storage.LoadWalletService(storage, password);
+        loadWalletService.setOnSucceeded(workerStateEvent -> {
+            EventManager.get().post(new StorageEvent(storage.getWalletFile(), TimedEvent.Action.END, "Done"));
+            WalletBackupAndKey walletBackupAndKey = loadWalletService.getValue();
+            openWallet(storage, walletBackupAndKey, this, forceSameWindow);
+        });
+        loadWalletService.setOnFailed(workerStateEvent -> {
+            EventManager.get().post(new StorageEvent(storage.getWalletFile(), TimedEvent.Action.END, "Failed"));
+            Throwable exception = loadWalletService.getException();
+            if(exception instanceof InvalidPasswordException) {
+                Optional<ButtonType> optResponse = showErrorDialog("Invalid Password", "The wallet password was invalid. Try again?", ButtonType.CANCEL, ButtonType.OK);
+                if(optResponse.isPresent() && optResponse.get().equals(ButtonType.OK)) {
+                    Platform.runLater(() -> openWalletFile(file, forceSameWindow));
+                }
+            } else {
+                if(!attemptImportWallet(file, password)) {
+                    log.error("Error Opening Wallet", exception);
+                    showErrorDialog("Error Opening Wallet", exception.getMessage() == null ? "Unsupported file format" : exception.getMessage());
+                }
+                password.clear();
+            }
+        });
+        EventManager.get().post(new StorageEvent(storage.getWalletFile(), TimedEvent.Action.START, "Decrypting wallet..."));
+        loadWalletService.start();
+    }
+
     private void openWallet(Storage storage, WalletBackupAndKey walletBackupAndKey, AppController appController, boolean forceSameWindow) {
         try {
             checkWalletNetwork(walletBackupAndKey.getWallet());
@@ -810,14 +835,38 @@ public class AppController implements Initializable {
             for(Map.Entry<Storage, WalletBackupAndKey> entry : walletBackupAndKey.getChildWallets().entrySet()) {
                 openWallet(entry.getKey(), entry.getValue(), walletAppController, true);
             }
+            if(storage.isTransactionsDeferred()) {
+                loadDeferredTransactions(storage, walletBackupAndKey.getWallet());
+            }
             Platform.runLater(() -> selectTab(walletBackupAndKey.getWallet()));
         } catch(Exception e) {
+            if(storage.isTransactionsDeferred()) {
+                //The deferred transactions will not be loaded, so release the retained key and end the loading state of any tab already added
+                storage.clearDeferredTransactions();
+                EventManager.get().post(new WalletTransactionsLoadedEvent(walletBackupAndKey.getWallet(), Collections.emptyMap(), true));
+            }
             showErrorDialog("Error Opening Wallet", e.getMessage());
         } finally {
             walletBackupAndKey.clear();
         }
     }
 
+    private void loadDeferredTransactions(Storage storage, Wallet wallet) {
+        Storage.LoadTransactionsService loadTransactionsService = new Storage.LoadTransactionsService(storage, transactions -> {
+            wallet.updateTransactions(transactions);
+            EventManager.get().post(new WalletTransactionsLoadedEvent(wallet, transactions, false));
+        });
+        loadTransactionsService.setOnSucceeded(workerStateEvent -> {
+            EventManager.get().post(new WalletTransactionsLoadedEvent(wallet, Collections.emptyMap(), true));
+        });
+        loadTransactionsService.setOnFailed(workerStateEvent -> {
+            //Any transactions that could not be loaded will be retrieved from the server by the history refresh that follows
+            log.error("Error loading wallet transactions", workerStateEvent.getSource().getException());
+            EventManager.get().post(new WalletTransactionsLoadedEvent(wallet, Collections.emptyMap(), true));
+        });
+        loadTransactionsService.start();
+    }
+
     private void checkWalletNetwork(Wallet wallet) {
         if(wallet.getNetwork() != null && wallet.getNetwork() != Network.get()) {
             throw new IllegalStateException("Provided " + wallet.getNetwork() + " wallet is invalid on a " + Network.get() + " network. Use a " + wallet.getNetwork() + " configuration to load this wallet.");
@@ -1688,7 +1737,7 @@ public class AppController implements Initializable {
     @Subscribe
     public void walletHistoryStarted(WalletHistoryStartedEvent event) {
         if(AppServices.isConnected() && getOpenWallets().containsKey(event.getWallet())) {
-            if(event.getWalletNode() == null && event.getWallet().getTransactions().isEmpty()) {
+            if(event.getWalletNodes() == null && event.getWallet().getTransactions().isEmpty()) {
                 statusUpdated(new StatusEvent(LOADING_TRANSACTIONS_MESSAGE, 120));
                 if(statusTimeline == null || statusTimeline.getStatus() != Animation.Status.RUNNING) {
                     statusBar.setProgress(-1);
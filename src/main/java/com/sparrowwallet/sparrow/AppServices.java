@@ -186,6 +186,8 @@ public class AppServices {
     }
 
     public void stop() {
+        WalletSaveScheduler.closeAll();
+
         if(connectionService != null) {
             connectionService.cancel();
         }
@@ -106,11 +106,8 @@ public class MainApp extends Application {
             sortedWalletFiles.removeAll(encryptedWalletFiles);
             sortedWalletFiles.addAll(encryptedWalletFiles);
 
-            for(File walletFile : sortedWalletFiles) {
-                if(walletFile.exists()) {
-                    appController.openWalletFile(walletFile, false);
-                }
-            }
+            sortedWalletFiles.removeIf(walletFile -> !walletFile.exists());
+            appController.openWalletFiles(sortedWalletFiles);
         }
 
         AppServices.openFileUriArguments(stage);
@@ -1,13 +1,30 @@
 package com.sparrowwallet.sparrow.event;
 
 import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+
+import java.util.List;
 
 /**
  * Indicates that the internal data (non-settings) of the wallet has changed, either from a blockchain update or entry label change etc.
  * Used to trigger a background save of the wallet
  */
 public class WalletDataChangedEvent extends WalletChangedEvent {
+    private final List<WalletNode> historyChangedNodes;
+
     public WalletDataChangedEvent(Wallet wallet) {
+        this(wallet, null);
+    }
+
+    public WalletDataChangedEvent(Wallet wallet, List<WalletNode> historyChangedNodes) {
         super(wallet);
+        this.historyChangedNodes = historyChangedNodes;
+    }
+
+    /**
+     * Returns the nodes whose history has changed, if only those nodes and the block height have changed, or otherwise null
+     */
+    public List<WalletNode> getHistoryChangedNodes() {
+        return historyChangedNodes;
     }
 }
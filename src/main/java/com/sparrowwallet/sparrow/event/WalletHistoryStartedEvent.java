@@ -3,15 +3,20 @@ package com.sparrowwallet.sparrow.event;
 import com.sparrowwallet.drongo.wallet.Wallet;
 import com.sparrowwallet.drongo.wallet.WalletNode;
 
+import java.util.Set;
+
 public class WalletHistoryStartedEvent extends WalletHistoryStatusEvent {
-    private final WalletNode walletNode;
+    private final Set<WalletNode> walletNodes;
 
-    public WalletHistoryStartedEvent(Wallet wallet, WalletNode walletNode) {
+    public WalletHistoryStartedEvent(Wallet wallet, Set<WalletNode> walletNodes) {
         super(wallet, true);
-        this.walletNode = walletNode;
+        this.walletNodes = walletNodes;
     }
 
-    public WalletNode getWalletNode() {
-        return walletNode;
+    /**
+     * The nodes whose history is being refreshed, or null if the history of the whole wallet is being refreshed
+     */
+    public Set<WalletNode> getWalletNodes() {
+        return walletNodes;
     }
 }
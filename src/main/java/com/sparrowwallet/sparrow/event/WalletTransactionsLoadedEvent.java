@@ -0,0 +1,29 @@
+package com.sparrowwallet.sparrow.event;
+
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.BlockTransaction;
+import com.sparrowwallet.drongo.wallet.Wallet;
+
+import java.util.Map;
+
+/**
+ * This event is posted as each batch of historical transactions deferred when opening a wallet is added to the wallet, and once more when all batches have been added
+ */
+public class WalletTransactionsLoadedEvent extends WalletChangedEvent {
+    private final Map<Sha256Hash, BlockTransaction> transactions;
+    private final boolean complete;
+
+    public WalletTransactionsLoadedEvent(Wallet wallet, Map<Sha256Hash, BlockTransaction> transactions, boolean complete) {
+        super(wallet);
+        this.transactions = transactions;
+        this.complete = complete;
+    }
+
+    public Map<Sha256Hash, BlockTransaction> getTransactions() {
+        return transactions;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+}
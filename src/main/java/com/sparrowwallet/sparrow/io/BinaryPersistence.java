@@ -0,0 +1,55 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.wallet.Wallet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stores encrypted wallets in a compact binary encoding of the same structure written by JsonPersistence.
+ * Hashes, scripts and transactions are stored as raw bytes rather than hex, repeated hashes and member names are written once and referred to by index, and numbers are stored as varints.
+ * Member names are retained so that the format tolerates fields being added or removed in the same way as JSON does, with the format version reserved for changes to the encoding itself.
+ * Either format can be loaded by both persistence types, so wallets are migrated to the configured type when they are next saved. Unencrypted wallets remain in JSON.
+ */
+public class BinaryPersistence extends JsonPersistence {
+    static final int FORMAT_VERSION = 1;
+    static final int HASH_LENGTH = 32;
+
+    static final int TAG_NULL = 0;
+    static final int TAG_TRUE = 1;
+    static final int TAG_FALSE = 2;
+    static final int TAG_INTEGER = 3;
+    static final int TAG_DOUBLE = 4;
+    static final int TAG_STRING = 5;
+    static final int TAG_BYTES = 6;
+    static final int TAG_HASH = 7;
+    static final int TAG_HASH_REF = 8;
+    static final int TAG_BEGIN_OBJECT = 9;
+    static final int TAG_END_OBJECT = 10;
+    static final int TAG_BEGIN_ARRAY = 11;
+    static final int TAG_END_ARRAY = 12;
+    static final int TAG_NAME = 13;
+    static final int TAG_NAME_REF = 14;
+
+    @Override
+    protected String getHeaderMagic() {
+        return HEADER_MAGIC_3;
+    }
+
+    @Override
+    protected void writeWallet(Wallet wallet, OutputStream outputStream) throws IOException {
+        BinaryWalletWriter writer = new BinaryWalletWriter(outputStream);
+        getGson().toJson(wallet, Wallet.class, writer);
+        writer.flush();
+    }
+
+    static Wallet readWallet(InputStream inputStream) throws IOException {
+        return getGson().fromJson(new BinaryWalletReader(inputStream), Wallet.class);
+    }
+
+    @Override
+    public PersistenceType getType() {
+        return PersistenceType.BINARY;
+    }
+}
@@ -0,0 +1,359 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.sparrowwallet.sparrow.io.BinaryPersistence.*;
+
+/**
+ * Reads a wallet written by BinaryWalletWriter, presenting it to the wallet type adapters as a token stream.
+ * Byte arrays and hashes are returned as hex strings to adapters that are not aware of the binary format.
+ */
+class BinaryWalletReader extends JsonReader {
+    private static final int NO_TAG = -2;
+    private static final int END_OF_STREAM = -1;
+
+    private final InputStream inputStream;
+    private final List<String> names = new ArrayList<>();
+    private final List<Sha256Hash> hashes = new ArrayList<>();
+    private int peeked = NO_TAG;
+
+    public BinaryWalletReader(InputStream inputStream) throws IOException {
+        super(Reader.nullReader());
+        this.inputStream = new BufferedInputStream(inputStream);
+
+        int version = this.inputStream.read();
+        if(version < 1 || version > FORMAT_VERSION) {
+            throw new IOException("Unsupported binary wallet format version " + version);
+        }
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(TAG_BEGIN_ARRAY, JsonToken.BEGIN_ARRAY);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        expect(TAG_END_ARRAY, JsonToken.END_ARRAY);
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(TAG_BEGIN_OBJECT, JsonToken.BEGIN_OBJECT);
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        expect(TAG_END_OBJECT, JsonToken.END_OBJECT);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        int tag = peekTag();
+        return tag != TAG_END_OBJECT && tag != TAG_END_ARRAY && tag != END_OF_STREAM;
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        switch(peekTag()) {
+            case END_OF_STREAM:
+                return JsonToken.END_DOCUMENT;
+            case TAG_NULL:
+                return JsonToken.NULL;
+            case TAG_TRUE:
+            case TAG_FALSE:
+                return JsonToken.BOOLEAN;
+            case TAG_INTEGER:
+            case TAG_DOUBLE:
+                return JsonToken.NUMBER;
+            case TAG_STRING:
+            case TAG_BYTES:
+            case TAG_HASH:
+            case TAG_HASH_REF:
+                return JsonToken.STRING;
+            case TAG_BEGIN_OBJECT:
+                return JsonToken.BEGIN_OBJECT;
+            case TAG_END_OBJECT:
+                return JsonToken.END_OBJECT;
+            case TAG_BEGIN_ARRAY:
+                return JsonToken.BEGIN_ARRAY;
+            case TAG_END_ARRAY:
+                return JsonToken.END_ARRAY;
+            case TAG_NAME:
+            case TAG_NAME_REF:
+                return JsonToken.NAME;
+            default:
+                throw new JsonSyntaxException("Invalid binary wallet tag " + peeked);
+        }
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        int tag = consumeTag();
+        if(tag == TAG_NAME) {
+            String name = readString();
+            names.add(name);
+            return name;
+        } else if(tag == TAG_NAME_REF) {
+            return names.get(readIndex(names.size()));
+        }
+
+        throw unexpected(JsonToken.NAME, tag);
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        int tag = peekTag();
+        switch(tag) {
+            case TAG_STRING:
+                consumeTag();
+                return readString();
+            case TAG_BYTES:
+            case TAG_HASH:
+            case TAG_HASH_REF:
+                return Utils.bytesToHex(nextBytes());
+            case TAG_INTEGER:
+            case TAG_DOUBLE:
+                return readNumber().toString();
+            default:
+                throw unexpected(JsonToken.STRING, tag);
+        }
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        int tag = consumeTag();
+        if(tag == TAG_TRUE || tag == TAG_FALSE) {
+            return tag == TAG_TRUE;
+        }
+
+        throw unexpected(JsonToken.BOOLEAN, tag);
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(TAG_NULL, JsonToken.NULL);
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        if(peekTag() == TAG_STRING) {
+            return Double.parseDouble(nextString());
+        }
+
+        return readNumber().doubleValue();
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        if(peekTag() == TAG_STRING) {
+            return Long.parseLong(nextString());
+        }
+
+        Number number = readNumber();
+        if(number instanceof Double && number.doubleValue() != (long)number.doubleValue()) {
+            throw new NumberFormatException("Expected a long but was " + number);
+        }
+
+        return number.longValue();
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if(value != (int)value) {
+            throw new NumberFormatException("Expected an int but was " + value);
+        }
+
+        return (int)value;
+    }
+
+    public byte[] nextBytes() throws IOException {
+        int tag = consumeTag();
+        switch(tag) {
+            case TAG_BYTES:
+                return readBytes((int)readVarInt());
+            case TAG_HASH:
+                Sha256Hash hash = Sha256Hash.wrap(readBytes(HASH_LENGTH));
+                hashes.add(hash);
+                return hash.getBytes();
+            case TAG_HASH_REF:
+                return hashes.get(readIndex(hashes.size())).getBytes();
+            case TAG_STRING:
+                return Utils.hexToBytes(readString());
+            default:
+                throw unexpected(JsonToken.STRING, tag);
+        }
+    }
+
+    public Sha256Hash nextHash() throws IOException {
+        int tag = peekTag();
+        if(tag == TAG_HASH_REF) {
+            consumeTag();
+            return hashes.get(readIndex(hashes.size()));
+        }
+
+        //Hashes are only added to the table when first read in full, so a new hash is wrapped from the table entry
+        byte[] bytes = nextBytes();
+        return tag == TAG_HASH ? hashes.get(hashes.size() - 1) : Sha256Hash.wrap(bytes);
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            int tag = peekTag();
+            switch(tag) {
+                case TAG_BEGIN_OBJECT:
+                case TAG_BEGIN_ARRAY:
+                    consumeTag();
+                    depth++;
+                    break;
+                case TAG_END_OBJECT:
+                case TAG_END_ARRAY:
+                    consumeTag();
+                    depth--;
+                    break;
+                case TAG_NAME:
+                case TAG_NAME_REF:
+                    //Names must still be read, as later references to them are by index
+                    nextName();
+                    break;
+                case TAG_NULL:
+                case TAG_TRUE:
+                case TAG_FALSE:
+                    consumeTag();
+                    break;
+                case TAG_INTEGER:
+                case TAG_DOUBLE:
+                    readNumber();
+                    break;
+                case TAG_STRING:
+                    nextString();
+                    break;
+                case TAG_BYTES:
+                case TAG_HASH:
+                case TAG_HASH_REF:
+                    nextBytes();
+                    break;
+                default:
+                    throw new JsonSyntaxException("Invalid binary wallet tag " + tag);
+            }
+        } while(depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    @Override
+    public String getPath() {
+        return "$";
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+
+    private int peekTag() throws IOException {
+        if(peeked == NO_TAG) {
+            peeked = inputStream.read();
+        }
+
+        return peeked;
+    }
+
+    private int consumeTag() throws IOException {
+        int tag = peekTag();
+        if(tag == END_OF_STREAM) {
+            throw new EOFException("End of binary wallet");
+        }
+
+        peeked = NO_TAG;
+        return tag;
+    }
+
+    private void expect(int expectedTag, JsonToken token) throws IOException {
+        int tag = peekTag();
+        if(tag != expectedTag) {
+            throw unexpected(token, tag);
+        }
+
+        consumeTag();
+    }
+
+    private IllegalStateException unexpected(JsonToken expected, int tag) {
+        return new IllegalStateException("Expected " + expected + " but was binary wallet tag " + tag);
+    }
+
+    private Number readNumber() throws IOException {
+        int tag = consumeTag();
+        if(tag == TAG_INTEGER) {
+            long zigzag = readVarInt();
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        } else if(tag == TAG_DOUBLE) {
+            long bits = 0;
+            for(int i = 0; i < 8; i++) {
+                bits = (bits << 8) | readByte();
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        throw unexpected(JsonToken.NUMBER, tag);
+    }
+
+    private String readString() throws IOException {
+        return new String(readBytes((int)readVarInt()), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        if(inputStream.readNBytes(bytes, 0, length) != length) {
+            throw new EOFException("End of binary wallet");
+        }
+
+        return bytes;
+    }
+
+    private int readIndex(int size) throws IOException {
+        long index = readVarInt();
+        if(index >= size) {
+            throw new JsonSyntaxException("Invalid binary wallet reference " + index);
+        }
+
+        return (int)index;
+    }
+
+    private long readVarInt() throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new JsonSyntaxException("Invalid binary wallet varint");
+    }
+
+    private int readByte() throws IOException {
+        int b = inputStream.read();
+        if(b == END_OF_STREAM) {
+            throw new EOFException("End of binary wallet");
+        }
+
+        return b;
+    }
+}
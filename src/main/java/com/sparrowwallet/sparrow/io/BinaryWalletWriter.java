@@ -0,0 +1,225 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.google.gson.stream.JsonWriter;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.sparrowwallet.sparrow.io.BinaryPersistence.*;
+
+/**
+ * Writes the token stream produced by the wallet type adapters in the binary wallet format.
+ * Member names and hashes are written in full the first time they occur and by index thereafter, numbers are written as varints, and byte arrays are written raw.
+ */
+class BinaryWalletWriter extends JsonWriter {
+    private final OutputStream outputStream;
+    private final Map<String, Integer> names = new HashMap<>();
+    private final Map<Sha256Hash, Integer> hashes = new HashMap<>();
+    private String pendingName;
+
+    public BinaryWalletWriter(OutputStream outputStream) throws IOException {
+        super(Writer.nullWriter());
+        this.outputStream = new BufferedOutputStream(outputStream);
+        this.outputStream.write(FORMAT_VERSION);
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        writeTag(TAG_BEGIN_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        outputStream.write(TAG_END_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        writeTag(TAG_BEGIN_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        if(pendingName != null) {
+            throw new IllegalStateException("Name " + pendingName + " has no value");
+        }
+
+        outputStream.write(TAG_END_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        if(name == null) {
+            throw new NullPointerException("name == null");
+        }
+        if(pendingName != null) {
+            throw new IllegalStateException("Name " + pendingName + " has no value");
+        }
+
+        pendingName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if(value == null) {
+            return nullValue();
+        }
+
+        writeTag(TAG_STRING);
+        writeString(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter jsonValue(String value) throws IOException {
+        return value(value);
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        if(pendingName != null && !getSerializeNulls()) {
+            //Omit the member entirely, as the JSON format does
+            pendingName = null;
+            return this;
+        }
+
+        writeTag(TAG_NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        writeTag(value ? TAG_TRUE : TAG_FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Boolean value) throws IOException {
+        if(value == null) {
+            return nullValue();
+        }
+
+        return value(value.booleanValue());
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        writeTag(TAG_DOUBLE);
+        long bits = Double.doubleToLongBits(value);
+        for(int i = 56; i >= 0; i -= 8) {
+            outputStream.write((int)(bits >>> i));
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        writeTag(TAG_INTEGER);
+        writeVarInt((value << 1) ^ (value >> 63));
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if(value == null) {
+            return nullValue();
+        }
+
+        if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return value(value.longValue());
+        }
+        if(value instanceof Double || value instanceof Float) {
+            return value(value.doubleValue());
+        }
+        if(value instanceof BigInteger || value instanceof BigDecimal) {
+            return value(value.toString());
+        }
+
+        //Lazily parsed numbers and other implementations keep their exact representation where they are integral
+        String string = value.toString();
+        try {
+            return value(Long.parseLong(string));
+        } catch(NumberFormatException e) {
+            return value(Double.parseDouble(string));
+        }
+    }
+
+    public JsonWriter value(byte[] value) throws IOException {
+        if(value == null) {
+            return nullValue();
+        }
+
+        writeTag(TAG_BYTES);
+        writeVarInt(value.length);
+        outputStream.write(value);
+        return this;
+    }
+
+    public JsonWriter value(Sha256Hash hash) throws IOException {
+        if(hash == null) {
+            return nullValue();
+        }
+
+        Integer index = hashes.get(hash);
+        if(index != null) {
+            writeTag(TAG_HASH_REF);
+            writeVarInt(index);
+        } else {
+            writeTag(TAG_HASH);
+            outputStream.write(hash.getBytes());
+            hashes.put(hash, hashes.size());
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        outputStream.flush();
+    }
+
+    private void writeTag(int tag) throws IOException {
+        if(pendingName != null) {
+            Integer index = names.get(pendingName);
+            if(index != null) {
+                outputStream.write(TAG_NAME_REF);
+                writeVarInt(index);
+            } else {
+                outputStream.write(TAG_NAME);
+                writeString(pendingName);
+                names.put(pendingName, names.size());
+            }
+            pendingName = null;
+        }
+
+        outputStream.write(tag);
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    private void writeVarInt(long value) throws IOException {
+        while((value & ~0x7FL) != 0) {
+            outputStream.write((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        outputStream.write((int)value);
+    }
+}
@@ -0,0 +1,199 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Local store of raw confirmed transactions keyed by txid, and block headers keyed by height.
+ * Entries are evicted least recently used first once the total size exceeds MAX_CACHE_SIZE.
+ */
+public class BlockchainCache {
+    private static final Logger log = LoggerFactory.getLogger(BlockchainCache.class);
+
+    public static final String CACHE_DIR = "cache";
+    public static final String TRANSACTIONS_DIR = "txs";
+    public static final String HEADERS_DIR = "headers";
+    public static final long MAX_CACHE_SIZE = 256 * 1024 * 1024;
+    public static final int BLOCK_HEADER_LENGTH = 80;
+
+    private static BlockchainCache INSTANCE;
+
+    private final File cacheDir;
+    private final Map<File, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    private BlockchainCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+        loadEntries();
+    }
+
+    public static synchronized BlockchainCache get() {
+        if(INSTANCE == null) {
+            INSTANCE = new BlockchainCache(getCacheDir());
+        }
+
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return Config.get().isCacheTransactions();
+    }
+
+    public byte[] getTransaction(Sha256Hash txid) {
+        return read(getTransactionFile(txid));
+    }
+
+    public void putTransaction(Sha256Hash txid, byte[] rawTx) {
+        write(getTransactionFile(txid), rawTx);
+    }
+
+    public void removeTransaction(Sha256Hash txid) {
+        remove(getTransactionFile(txid));
+    }
+
+    public byte[] getBlockHeader(int height) {
+        byte[] header = read(getBlockHeaderFile(height));
+        if(header != null && header.length != BLOCK_HEADER_LENGTH) {
+            removeBlockHeader(height);
+            return null;
+        }
+
+        return header;
+    }
+
+    public void putBlockHeader(int height, byte[] header) {
+        if(header.length == BLOCK_HEADER_LENGTH) {
+            write(getBlockHeaderFile(height), header);
+        }
+    }
+
+    public void removeBlockHeader(int height) {
+        remove(getBlockHeaderFile(height));
+    }
+
+    private File getTransactionFile(Sha256Hash txid) {
+        String hex = txid.toString();
+        return new File(new File(new File(cacheDir, TRANSACTIONS_DIR), hex.substring(0, 2)), hex);
+    }
+
+    private File getBlockHeaderFile(int height) {
+        return new File(new File(cacheDir, HEADERS_DIR), Integer.toString(height));
+    }
+
+    private byte[] read(File file) {
+        synchronized(this) {
+            if(entries.get(file) == null) {
+                return null;
+            }
+        }
+
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch(IOException e) {
+            log.debug("Could not read cached file " + file.getName(), e);
+            remove(file);
+            return null;
+        }
+    }
+
+    private void write(File file, byte[] data) {
+        synchronized(this) {
+            if(entries.containsKey(file)) {
+                return;
+            }
+        }
+
+        try {
+            File parent = file.getParentFile();
+            if(!parent.exists()) {
+                Storage.createOwnerOnlyDirectory(parent);
+            }
+
+            File tempFile = File.createTempFile(file.getName(), ".tmp", parent);
+            Files.write(tempFile.toPath(), data);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            log.debug("Could not write cached file " + file.getName(), e);
+            return;
+        }
+
+        synchronized(this) {
+            Long previous = entries.put(file, (long)data.length);
+            totalSize += data.length - (previous == null ? 0 : previous);
+            evict();
+        }
+    }
+
+    private void remove(File file) {
+        synchronized(this) {
+            Long size = entries.remove(file);
+            if(size != null) {
+                totalSize -= size;
+            }
+        }
+
+        file.delete();
+    }
+
+    private void evict() {
+        for(Iterator<Map.Entry<File, Long>> iter = entries.entrySet().iterator(); iter.hasNext() && totalSize > MAX_CACHE_SIZE; ) {
+            Map.Entry<File, Long> eldest = iter.next();
+            iter.remove();
+            totalSize -= eldest.getValue();
+            eldest.getKey().delete();
+        }
+    }
+
+    private synchronized void loadEntries() {
+        List<File> files = new ArrayList<>();
+        collectFiles(new File(cacheDir, TRANSACTIONS_DIR), files);
+        collectFiles(new File(cacheDir, HEADERS_DIR), files);
+
+        Map<File, Long> lastModified = new HashMap<>(files.size());
+        for(File file : files) {
+            lastModified.put(file, file.lastModified());
+        }
+        files.sort(Comparator.comparing(lastModified::get));
+
+        for(File file : files) {
+            if(file.getName().endsWith(".tmp")) {
+                file.delete();
+            } else {
+                entries.put(file, file.length());
+                totalSize += file.length();
+            }
+        }
+
+        evict();
+    }
+
+    private static void collectFiles(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                if(child.isDirectory()) {
+                    collectFiles(child, files);
+                } else {
+                    files.add(child);
+                }
+            }
+        }
+    }
+
+    private static File getCacheDir() {
+        File cacheDir = new File(Storage.getSparrowDir(), CACHE_DIR);
+        if(!cacheDir.exists()) {
+            Storage.createOwnerOnlyDirectory(cacheDir);
+        }
+
+        return cacheDir;
+    }
+}
@@ -0,0 +1,150 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.crypto.ECIESKeyCrypter;
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.drongo.crypto.EncryptedData;
+
+import javax.crypto.Cipher;
+import java.io.*;
+import java.security.GeneralSecurityException;
+
+import static com.sparrowwallet.sparrow.io.ChunkedECIESOutputStream.*;
+
+/**
+ * Decrypts a stream written by ChunkedECIESOutputStream one chunk at a time, so only a single chunk is held in memory.
+ * Each chunk is authenticated before any of its plaintext is returned.
+ */
+public class ChunkedECIESInputStream extends FilterInputStream {
+    private final ECKey decryptionKey;
+    private final byte[] encryptionMagic;
+    private final byte[] ciphertext = new byte[CHUNK_SIZE + TAG_LENGTH];
+
+    private byte[] contentKey;
+    private byte[] encryptedContentKey;
+    private byte[] chunk = new byte[0];
+    private int position;
+    private long chunkIndex;
+    private int lookahead = -1;
+    private boolean finished;
+
+    public ChunkedECIESInputStream(InputStream in, ECKey decryptionKey, byte[] encryptionMagic) {
+        super(in);
+
+        if(in == null || decryptionKey == null || encryptionMagic == null) {
+            throw new NullPointerException();
+        }
+
+        this.decryptionKey = decryptionKey;
+        this.encryptionMagic = encryptionMagic;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!ensureChunk()) {
+            return -1;
+        }
+
+        return chunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+
+        if(!ensureChunk()) {
+            return -1;
+        }
+
+        int copied = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, copied);
+        position += copied;
+        return copied;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while(skipped < n && ensureChunk()) {
+            int skippable = (int)Math.min(n - skipped, chunk.length - position);
+            position += skippable;
+            skipped += skippable;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private boolean ensureChunk() throws IOException {
+        if(contentKey == null) {
+            readContentKey();
+        }
+
+        while(position == chunk.length) {
+            if(finished) {
+                return false;
+            }
+
+            readChunk();
+        }
+
+        return true;
+    }
+
+    private void readContentKey() throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(in);
+        encryptedContentKey = new byte[dataInputStream.readUnsignedShort()];
+        dataInputStream.readFully(encryptedContentKey);
+
+        ECIESKeyCrypter keyCrypter = new ECIESKeyCrypter();
+        contentKey = keyCrypter.decrypt(new EncryptedData(encryptionMagic, encryptedContentKey, null, null), decryptionKey);
+        if(contentKey.length != CONTENT_KEY_LENGTH) {
+            throw new IOException("Invalid content key length");
+        }
+    }
+
+    private void readChunk() throws IOException {
+        int length = 0;
+        if(lookahead >= 0) {
+            ciphertext[length++] = (byte)lookahead;
+            lookahead = -1;
+        }
+
+        int read;
+        while(length < ciphertext.length && (read = in.read(ciphertext, length, ciphertext.length - length)) >= 0) {
+            length += read;
+        }
+
+        //A full chunk is only the final chunk if nothing follows it
+        boolean last = true;
+        if(length == ciphertext.length) {
+            lookahead = in.read();
+            last = (lookahead < 0);
+        }
+
+        if(length < TAG_LENGTH) {
+            throw new EOFException("Encrypted wallet data is truncated");
+        }
+
+        try {
+            Cipher cipher = getCipher(Cipher.DECRYPT_MODE, contentKey, encryptedContentKey, chunkIndex, last);
+            chunk = cipher.doFinal(ciphertext, 0, length);
+        } catch(GeneralSecurityException e) {
+            throw new IOException("Could not authenticate encrypted wallet data", e);
+        }
+
+        position = 0;
+        chunkIndex++;
+        finished = last;
+    }
+}
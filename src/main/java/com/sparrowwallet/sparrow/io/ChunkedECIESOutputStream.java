@@ -0,0 +1,116 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.crypto.ECIESKeyCrypter;
+import com.sparrowwallet.drongo.crypto.ECKey;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Encrypts a stream in fixed size chunks, so that the plaintext is never held in memory as a whole.
+ * A random content key is encrypted to the ECIES public key and written first, followed by each chunk encrypted with AES-GCM under the content key.
+ * Each chunk nonce holds the chunk index and a flag marking the final chunk, so reordered, dropped or truncated chunks fail authentication.
+ */
+public class ChunkedECIESOutputStream extends FilterOutputStream {
+    public static final int CHUNK_SIZE = 64 * 1024;
+    static final int CONTENT_KEY_LENGTH = 32;
+    static final int TAG_LENGTH = 16;
+    static final int NONCE_LENGTH = 12;
+
+    private final byte[] contentKey;
+    private final byte[] encryptedContentKey;
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private int position;
+    private long chunkIndex;
+    private boolean closed;
+
+    public ChunkedECIESOutputStream(OutputStream out, ECKey encryptionKey, byte[] encryptionMagic) throws IOException {
+        super(out);
+
+        if(encryptionKey == null || encryptionMagic == null) {
+            throw new NullPointerException();
+        }
+
+        contentKey = new byte[CONTENT_KEY_LENGTH];
+        new SecureRandom().nextBytes(contentKey);
+        ECIESKeyCrypter keyCrypter = new ECIESKeyCrypter();
+        encryptedContentKey = keyCrypter.encrypt(contentKey, encryptionMagic, encryptionKey).getEncryptedBytes();
+
+        DataOutputStream dataOutputStream = new DataOutputStream(out);
+        dataOutputStream.writeShort(encryptedContentKey.length);
+        dataOutputStream.write(encryptedContentKey);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if(position == buffer.length) {
+            writeChunk(false);
+        }
+
+        buffer[position++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while(len > 0) {
+            //Only write a full chunk once more data arrives, as the final chunk must be written with the final flag set
+            if(position == buffer.length) {
+                writeChunk(false);
+            }
+
+            int copied = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, copied);
+            position += copied;
+            off += copied;
+            len -= copied;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(!closed) {
+            writeChunk(true);
+            closed = true;
+            out.flush();
+            out.close();
+        }
+    }
+
+    private void writeChunk(boolean last) throws IOException {
+        try {
+            Cipher cipher = getCipher(Cipher.ENCRYPT_MODE, contentKey, encryptedContentKey, chunkIndex, last);
+            out.write(cipher.doFinal(buffer, 0, position));
+        } catch(GeneralSecurityException e) {
+            throw new IOException("Could not encrypt wallet data", e);
+        }
+
+        position = 0;
+        chunkIndex++;
+    }
+
+    private void ensureOpen() throws IOException {
+        if(closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    static Cipher getCipher(int mode, byte[] contentKey, byte[] encryptedContentKey, long chunkIndex, boolean last) throws GeneralSecurityException {
+        ByteBuffer nonce = ByteBuffer.allocate(NONCE_LENGTH);
+        nonce.position(NONCE_LENGTH - Long.BYTES - 1);
+        nonce.putLong(chunkIndex);
+        nonce.put((byte)(last ? 1 : 0));
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(mode, new SecretKeySpec(contentKey, "AES"), new GCMParameterSpec(TAG_LENGTH * 8, nonce.array()));
+        //Bind every chunk to the encrypted content key in the header
+        cipher.updateAAD(encryptedContentKey);
+        return cipher;
+    }
+}
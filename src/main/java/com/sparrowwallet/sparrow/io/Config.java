@@ -14,6 +14,7 @@ import java.lang.reflect.Type;
 import java.nio.file.Files;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Currency;
 import java.util.List;
 import java.util.Random;
@@ -48,6 +49,7 @@ public class Config {
     private Boolean hdCapture;
     private ServerType serverType;
     private String publicElectrumServer;
+    private boolean rankPublicServers = false;
     private String coreServer;
     private CoreAuthType coreAuthType;
     private File coreDataDir;
@@ -56,8 +58,14 @@ public class Config {
     private String coreWallet;
     private String electrumServer;
     private File electrumServerCert;
+    private List<String> electrumServerPool;
+    private Integer electrumServerConnections;
+    private Integer utxoSelectionDeadline;
     private boolean useProxy;
     private String proxyServer;
+    private boolean cacheTransactions = false;
+    private PersistenceType persistenceType;
+    private boolean upgradeWalletEncryption = false;
 
     private static Config INSTANCE;
 
@@ -354,7 +362,29 @@ public class Config {
         flush();
     }
 
+    /**
+     * Whether to probe all the public servers to rank them, and to hedge reads to a standby connection to another public server.
+     * This is off by default, as it connects to every public server and discloses fetched transaction ids to a second server operator.
+     */
+    public boolean isRankPublicServers() {
+        return rankPublicServers;
+    }
+
+    public void setRankPublicServers(boolean rankPublicServers) {
+        this.rankPublicServers = rankPublicServers;
+        flush();
+    }
+
     public void changePublicServer() {
+        //Follow the order of this session's ranking if it has completed, moving to the next fastest server after the current one
+        List<PublicElectrumServer> ranking = ElectrumServer.getRankedPublicServers();
+        List<String> rankedServers = ranking.stream().map(PublicElectrumServer::getUrl).filter(url -> !url.equals(getPublicElectrumServer())).collect(Collectors.toList());
+        if(!rankedServers.isEmpty()) {
+            int index = ranking.indexOf(PublicElectrumServer.fromUrl(getPublicElectrumServer()));
+            setPublicElectrumServer(rankedServers.get(Math.max(index, 0) % rankedServers.size()));
+            return;
+        }
+
         List<String> otherServers = Arrays.stream(PublicElectrumServer.values()).map(PublicElectrumServer::getUrl).filter(url -> !url.equals(getPublicElectrumServer())).collect(Collectors.toList());
         setPublicElectrumServer(otherServers.get(new Random().nextInt(otherServers.size())));
     }
@@ -431,6 +461,42 @@ public class Config {
         flush();
     }
 
+    /**
+     * Additional servers, running the same server implementation as the configured Electrum server, across which wallet synchronization may be sharded
+     */
+    public List<String> getElectrumServerPool() {
+        return electrumServerPool == null ? Collections.emptyList() : electrumServerPool;
+    }
+
+    public void setElectrumServerPool(List<String> electrumServerPool) {
+        this.electrumServerPool = electrumServerPool;
+        flush();
+    }
+
+    /**
+     * The total number of connections to open to the configured Electrum server and server pool, with one connection when not set
+     */
+    public int getElectrumServerConnections() {
+        return electrumServerConnections == null ? 1 : Math.max(1, electrumServerConnections);
+    }
+
+    public void setElectrumServerConnections(Integer electrumServerConnections) {
+        this.electrumServerConnections = electrumServerConnections;
+        flush();
+    }
+
+    /**
+     * The time in milliseconds to wait for all UTXO selectors to complete before using the best selection found, with one second when not set
+     */
+    public int getUtxoSelectionDeadline() {
+        return utxoSelectionDeadline == null ? 1000 : Math.max(0, utxoSelectionDeadline);
+    }
+
+    public void setUtxoSelectionDeadline(Integer utxoSelectionDeadline) {
+        this.utxoSelectionDeadline = utxoSelectionDeadline;
+        flush();
+    }
+
     public boolean isUseProxy() {
         return useProxy;
     }
@@ -449,6 +515,33 @@ public class Config {
         flush();
     }
 
+    public boolean isCacheTransactions() {
+        return cacheTransactions;
+    }
+
+    public void setCacheTransactions(boolean cacheTransactions) {
+        this.cacheTransactions = cacheTransactions;
+        flush();
+    }
+
+    public PersistenceType getPersistenceType() {
+        return persistenceType == null ? PersistenceType.JSON : persistenceType;
+    }
+
+    public void setPersistenceType(PersistenceType persistenceType) {
+        this.persistenceType = persistenceType;
+        flush();
+    }
+
+    public boolean isUpgradeWalletEncryption() {
+        return upgradeWalletEncryption;
+    }
+
+    public void setUpgradeWalletEncryption(boolean upgradeWalletEncryption) {
+        this.upgradeWalletEncryption = upgradeWalletEncryption;
+        flush();
+    }
+
     private synchronized void flush() {
         Gson gson = getGson();
         try {
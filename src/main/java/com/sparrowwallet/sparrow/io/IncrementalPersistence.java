@@ -0,0 +1,631 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.crypto.AsymmetricKeyDeriver;
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.BlockTransaction;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stores a wallet as a base snapshot written by JsonPersistence, followed by an append-only log of the changes made since.
+ * Each log record holds the address nodes and transactions that changed, along with the stored block height and birth date.
+ * Only the nodes and transactions named in the WalletChanges passed to storeWalletChanges are examined, while storing the whole wallet writes a new snapshot.
+ * The log starts with the hash of the base snapshot it applies to, and is folded back into a new snapshot in the background once it grows large.
+ */
+public class IncrementalPersistence implements Persistence {
+    private static final Logger log = LoggerFactory.getLogger(IncrementalPersistence.class);
+
+    public static final String DELTA_LOG_EXTENSION = "delta";
+    public static final String DELTA_LOG_MAGIC = "SPRD1";
+    private static final int BASE_HASH_LENGTH = 32;
+    private static final int MAX_LOG_RECORDS = 1000;
+    private static final long MIN_COMPACTION_LOG_SIZE = 64 * 1024;
+    private static final List<KeyPurpose> LOGGED_PURPOSES = List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE);
+
+    private static final ExecutorService sharedCompactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("IncrementalPersistence-%d").build());
+
+    private final Executor compactionExecutor;
+    private final JsonPersistence basePersistence = new JsonPersistence();
+    private final Gson gson = JsonPersistence.getGson();
+
+    //State of the wallet as last written to disk, used to determine which of the named nodes and transactions have changed on the next store
+    private File persistedFile;
+    private ECKey persistedKey;
+    private List<Object> persistedSettings;
+    private Integer persistedBlockHeight;
+    private Date persistedBirthDate;
+    private final Map<KeyPurpose, Integer> persistedNodeCounts = new HashMap<>();
+    private final Map<String, List<Object>> persistedNodes = new HashMap<>();
+    private final Map<Sha256Hash, List<Object>> persistedTransactions = new HashMap<>();
+    private final Map<String, Set<Sha256Hash>> persistedNodeReferences = new HashMap<>();
+    private final Map<Sha256Hash, Set<String>> persistedTransactionNodes = new HashMap<>();
+
+    private long baseLength;
+    private long logLength;
+    private int logRecords;
+    private int generation;
+    private boolean compactionScheduled;
+
+    public IncrementalPersistence() {
+        this(sharedCompactionExecutor);
+    }
+
+    IncrementalPersistence(Executor compactionExecutor) {
+        this.compactionExecutor = compactionExecutor;
+    }
+
+    @Override
+    public Wallet loadWallet(File walletFile) throws IOException {
+        Wallet wallet = basePersistence.loadWallet(walletFile);
+        int records = replayDeltaLog(walletFile, wallet, null);
+        track(walletFile, wallet, null, records);
+        return wallet;
+    }
+
+    @Override
+    public WalletBackupAndKey loadWallet(File walletFile, CharSequence password) throws IOException, StorageException {
+        WalletBackupAndKey walletBackupAndKey = basePersistence.loadWallet(walletFile, password);
+        ECKey encryptionKey = getLogKey(walletBackupAndKey.getEncryptionKey());
+        int records = replayDeltaLog(walletFile, walletBackupAndKey.getWallet(), encryptionKey);
+        track(walletFile, walletBackupAndKey.getWallet(), encryptionKey == null ? null : ECKey.fromPublicOnly(encryptionKey), records);
+        return walletBackupAndKey;
+    }
+
+    @Override
+    public Map<File, Wallet> loadWallets(File[] walletFiles, ECKey encryptionKey) throws IOException, StorageException {
+        Map<File, Wallet> walletsMap = basePersistence.loadWallets(walletFiles, encryptionKey);
+        for(Map.Entry<File, Wallet> entry : walletsMap.entrySet()) {
+            replayDeltaLog(entry.getKey(), entry.getValue(), getLogKey(encryptionKey));
+        }
+
+        return walletsMap;
+    }
+
+    @Override
+    public Map<Storage, WalletBackupAndKey> loadChildWallets(File walletFile, Wallet masterWallet, ECKey encryptionKey) throws IOException, StorageException {
+        Map<Storage, WalletBackupAndKey> childWallets = basePersistence.loadChildWallets(walletFile, masterWallet, encryptionKey);
+        for(Map.Entry<Storage, WalletBackupAndKey> entry : childWallets.entrySet()) {
+            replayDeltaLog(entry.getKey().getWalletFile(), entry.getValue().getWallet(), getLogKey(encryptionKey));
+        }
+
+        return childWallets;
+    }
+
+    @Override
+    public File storeWallet(File walletFile, Wallet wallet) throws IOException {
+        return store(walletFile, wallet, null);
+    }
+
+    @Override
+    public File storeWallet(File walletFile, Wallet wallet, ECKey encryptionPubKey) throws IOException {
+        return store(walletFile, wallet, encryptionPubKey);
+    }
+
+    private synchronized File store(File walletFile, Wallet wallet, ECKey encryptionPubKey) throws IOException {
+        if(!isIncremental()) {
+            //Incremental persistence has been switched off, so write out a complete wallet file that can be read without the log
+            File storedFile = storeBase(walletFile, wallet, encryptionPubKey);
+            getDeltaLogFile(walletFile).delete();
+            getDeltaLogFile(storedFile).delete();
+            persistedFile = null;
+            generation++;
+            return storedFile;
+        }
+
+        //Any part of the wallet may have changed, so write a new snapshot rather than compare the whole wallet against the last store
+        return storeSnapshot(walletFile, wallet, encryptionPubKey);
+    }
+
+    /**
+     * Appends the named changes to the wallet to the delta log, examining only the changed nodes and transactions.
+     * Returns false without writing anything if the changes cannot be logged, in which case the whole wallet must be stored instead.
+     */
+    public synchronized boolean storeWalletChanges(File walletFile, Wallet wallet, ECKey encryptionPubKey, WalletChanges changes) throws IOException {
+        if(!isIncremental() || changes.isAll() || !isTracking(walletFile, wallet, encryptionPubKey)) {
+            return false;
+        }
+
+        Delta delta = getDelta(wallet, changes);
+        if(delta == null) {
+            return false;
+        }
+
+        if(!delta.isEmpty()) {
+            appendDelta(walletFile, delta, encryptionPubKey);
+            persistedBlockHeight = delta.storedBlockHeight;
+            persistedBirthDate = delta.birthDate;
+            persistedNodes.putAll(delta.nodeStates);
+            delta.nodeReferences.forEach(this::setNodeReferences);
+            persistedTransactions.putAll(delta.transactionStates);
+            delta.removedTransactions.forEach(persistedTransactions::remove);
+            for(KeyPurpose keyPurpose : LOGGED_PURPOSES) {
+                persistedNodeCounts.put(keyPurpose, wallet.getNode(keyPurpose).getChildren().size());
+            }
+
+            if(isCompactionDue()) {
+                scheduleCompaction(walletFile, wallet.copy(), encryptionPubKey);
+            }
+        }
+
+        return true;
+    }
+
+    protected boolean isIncremental() {
+        return Config.get().getPersistenceType() == PersistenceType.INCREMENTAL;
+    }
+
+    private File storeSnapshot(File walletFile, Wallet wallet, ECKey encryptionPubKey) throws IOException {
+        File storedFile = storeBase(walletFile, wallet, encryptionPubKey);
+        if(!storedFile.equals(walletFile)) {
+            getDeltaLogFile(walletFile).delete();
+        }
+
+        startDeltaLog(storedFile, new byte[0]);
+        logRecords = 0;
+        generation++;
+        track(storedFile, wallet, encryptionPubKey, 0);
+
+        return storedFile;
+    }
+
+    private File storeBase(File walletFile, Wallet wallet, ECKey encryptionPubKey) throws IOException {
+        return encryptionPubKey == null ? basePersistence.storeWallet(walletFile, wallet) : basePersistence.storeWallet(walletFile, wallet, encryptionPubKey);
+    }
+
+    private boolean isTracking(File walletFile, Wallet wallet, ECKey encryptionPubKey) {
+        return walletFile.equals(persistedFile) && Objects.equals(encryptionPubKey, persistedKey) && getSettingsState(wallet).equals(persistedSettings);
+    }
+
+    private synchronized void track(File walletFile, Wallet wallet, ECKey encryptionPubKey, int records) {
+        persistedNodeCounts.clear();
+        persistedNodes.clear();
+        persistedTransactions.clear();
+        persistedNodeReferences.clear();
+        persistedTransactionNodes.clear();
+
+        if(records < 0) {
+            //The log is missing, stale or truncated, so the next store must write a new snapshot
+            persistedFile = null;
+            return;
+        }
+
+        persistedFile = walletFile;
+        persistedKey = encryptionPubKey;
+        persistedSettings = getSettingsState(wallet);
+        persistedBlockHeight = wallet.getStoredBlockHeight();
+        persistedBirthDate = wallet.getBirthDate();
+
+        for(KeyPurpose keyPurpose : LOGGED_PURPOSES) {
+            Set<WalletNode> children = wallet.getNode(keyPurpose).getChildren();
+            persistedNodeCounts.put(keyPurpose, children.size());
+            for(WalletNode node : children) {
+                persistedNodes.put(node.getDerivationPath(), getNodeState(node));
+                setNodeReferences(node.getDerivationPath(), getNodeReferences(node));
+            }
+        }
+
+        for(Map.Entry<Sha256Hash, BlockTransaction> entry : wallet.getTransactions().entrySet()) {
+            persistedTransactions.put(entry.getKey(), getTransactionState(entry.getValue()));
+        }
+
+        File logFile = getDeltaLogFile(walletFile);
+        baseLength = walletFile.length();
+        logLength = logFile.length();
+        logRecords = records;
+    }
+
+    private Delta getDelta(Wallet wallet, WalletChanges changes) {
+        Delta delta = new Delta();
+        delta.storedBlockHeight = wallet.getStoredBlockHeight();
+        delta.birthDate = wallet.getBirthDate();
+
+        //Nodes added since the last store, such as by extending the gap limit, are logged even if they have not otherwise changed
+        Map<String, WalletNode> changedNodes = new LinkedHashMap<>();
+        for(KeyPurpose keyPurpose : LOGGED_PURPOSES) {
+            Set<WalletNode> children = wallet.getNode(keyPurpose).getChildren();
+            int persistedCount = persistedNodeCounts.getOrDefault(keyPurpose, 0);
+            if(children.size() < persistedCount) {
+                //Nodes have been removed, which the log does not record
+                return null;
+            }
+
+            if(children.size() > persistedCount) {
+                for(WalletNode node : children) {
+                    if(!persistedNodes.containsKey(node.getDerivationPath())) {
+                        changedNodes.put(node.getDerivationPath(), node);
+                    }
+                }
+            }
+        }
+
+        for(WalletNode node : changes.getNodes()) {
+            if(!persistedNodes.containsKey(node.getDerivationPath()) && !changedNodes.containsKey(node.getDerivationPath())) {
+                //Not an address node, such as an account label, so not recorded by the log
+                return null;
+            }
+
+            changedNodes.put(node.getDerivationPath(), node);
+        }
+
+        //Labels and statuses of outputs are held by the nodes that reference the changed transactions
+        Set<String> referencingPaths = new LinkedHashSet<>();
+        for(Sha256Hash txid : changes.getTransactions()) {
+            referencingPaths.addAll(persistedTransactionNodes.getOrDefault(txid, Collections.emptySet()));
+        }
+        referencingPaths.removeAll(changedNodes.keySet());
+        if(!referencingPaths.isEmpty()) {
+            Map<String, WalletNode> walletNodes = getWalletNodes(wallet);
+            for(String path : referencingPaths) {
+                WalletNode node = walletNodes.get(path);
+                if(node == null) {
+                    return null;
+                }
+
+                changedNodes.put(path, node);
+            }
+        }
+
+        Set<Sha256Hash> changedTransactions = new LinkedHashSet<>(changes.getTransactions());
+        for(Map.Entry<String, WalletNode> entry : changedNodes.entrySet()) {
+            WalletNode node = entry.getValue();
+            Set<Sha256Hash> references = getNodeReferences(node);
+            changedTransactions.addAll(references);
+            changedTransactions.addAll(persistedNodeReferences.getOrDefault(entry.getKey(), Collections.emptySet()));
+
+            List<Object> state = getNodeState(node);
+            if(!state.equals(persistedNodes.get(entry.getKey()))) {
+                delta.nodes.add(new NodeDelta(node.getKeyPurpose(), node));
+                delta.nodeStates.put(entry.getKey(), state);
+                delta.nodeReferences.put(entry.getKey(), references);
+            }
+        }
+
+        Map<Sha256Hash, BlockTransaction> transactions = wallet.getTransactions();
+        for(Sha256Hash txid : changedTransactions) {
+            BlockTransaction blockTransaction = transactions.get(txid);
+            if(blockTransaction == null) {
+                if(persistedTransactions.containsKey(txid)) {
+                    delta.removedTransactions.add(txid);
+                }
+            } else {
+                List<Object> state = getTransactionState(blockTransaction);
+                if(!state.equals(persistedTransactions.get(txid))) {
+                    delta.transactions.add(blockTransaction);
+                    delta.transactionStates.put(txid, state);
+                }
+            }
+        }
+
+        delta.empty = delta.nodes.isEmpty() && delta.transactions.isEmpty() && delta.removedTransactions.isEmpty()
+                && Objects.equals(delta.storedBlockHeight, persistedBlockHeight) && Objects.equals(delta.birthDate, persistedBirthDate);
+
+        return delta;
+    }
+
+    private static Map<String, WalletNode> getWalletNodes(Wallet wallet) {
+        Map<String, WalletNode> walletNodes = new HashMap<>();
+        for(KeyPurpose keyPurpose : LOGGED_PURPOSES) {
+            for(WalletNode node : wallet.getNode(keyPurpose).getChildren()) {
+                walletNodes.put(node.getDerivationPath(), node);
+            }
+        }
+
+        return walletNodes;
+    }
+
+    private void setNodeReferences(String path, Set<Sha256Hash> references) {
+        Set<Sha256Hash> previousReferences = persistedNodeReferences.put(path, references);
+        if(previousReferences != null) {
+            for(Sha256Hash txid : previousReferences) {
+                Set<String> paths = persistedTransactionNodes.get(txid);
+                if(paths != null && paths.remove(path) && paths.isEmpty()) {
+                    persistedTransactionNodes.remove(txid);
+                }
+            }
+        }
+
+        for(Sha256Hash txid : references) {
+            persistedTransactionNodes.computeIfAbsent(txid, k -> new HashSet<>()).add(path);
+        }
+    }
+
+    private static Set<Sha256Hash> getNodeReferences(WalletNode node) {
+        Set<Sha256Hash> references = new HashSet<>();
+        for(BlockTransactionHashIndex txo : node.getTransactionOutputs()) {
+            references.add(txo.getHash());
+            if(txo.isSpent()) {
+                references.add(txo.getSpentBy().getHash());
+            }
+        }
+
+        return references;
+    }
+
+    private List<Object> getSettingsState(Wallet wallet) {
+        //Settings may have been changed on a copy of the wallet since the last store, so compare everything the log does not record
+        return Arrays.asList(wallet.getName(), wallet.getPolicyType(), wallet.getScriptType(), wallet.getGapLimit(),
+                gson.toJson(wallet.getDefaultPolicy()), gson.toJson(wallet.getKeystores()));
+    }
+
+    private static List<Object> getNodeState(WalletNode node) {
+        List<Object> state = new ArrayList<>();
+        state.add(node.getLabel());
+        for(BlockTransactionHashIndex txo : node.getTransactionOutputs()) {
+            addReferenceState(state, txo);
+            addReferenceState(state, txo.getSpentBy());
+        }
+
+        return state;
+    }
+
+    private static void addReferenceState(List<Object> state, BlockTransactionHashIndex reference) {
+        if(reference == null) {
+            state.add(null);
+        } else {
+            Collections.addAll(state, reference.getHash(), reference.getHeight(), reference.getDate(), reference.getFee(), reference.getIndex(), reference.getValue(), reference.getLabel(), reference.getStatus());
+        }
+    }
+
+    private static List<Object> getTransactionState(BlockTransaction blockTransaction) {
+        return Arrays.asList(blockTransaction.getHeight(), blockTransaction.getDate(), blockTransaction.getFee(), blockTransaction.getLabel());
+    }
+
+    private void appendDelta(File walletFile, Delta delta, ECKey encryptionPubKey) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OutputStream outputStream = encryptionPubKey == null ? baos : new ECIESOutputStream(baos, encryptionPubKey);
+        try(Writer writer = new OutputStreamWriter(new DeflaterOutputStream(outputStream), StandardCharsets.UTF_8)) {
+            gson.toJson(delta, writer);
+        }
+
+        byte[] payload = baos.toByteArray();
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + payload.length);
+        record.putInt(payload.length);
+        record.put(payload);
+
+        try(OutputStream logStream = new FileOutputStream(getDeltaLogFile(walletFile), true)) {
+            logStream.write(record.array());
+        }
+
+        logLength += record.capacity();
+        logRecords++;
+    }
+
+    private int replayDeltaLog(File walletFile, Wallet wallet, ECKey encryptionKey) throws IOException {
+        File logFile = getDeltaLogFile(walletFile);
+        if(!logFile.exists()) {
+            return -1;
+        }
+
+        try(DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            byte[] magic = new byte[DELTA_LOG_MAGIC.length()];
+            byte[] baseHash = new byte[BASE_HASH_LENGTH];
+            inputStream.readFully(magic);
+            inputStream.readFully(baseHash);
+            if(!DELTA_LOG_MAGIC.equals(new String(magic, StandardCharsets.UTF_8)) || !Arrays.equals(baseHash, getBaseHash(walletFile))) {
+                log.warn("Ignoring delta log for " + walletFile.getName() + " as it was not written for the current wallet file");
+                return -1;
+            }
+
+            long remaining = logFile.length() - magic.length - baseHash.length;
+            int records = 0;
+            while(remaining > 0) {
+                int length = remaining < Integer.BYTES ? -1 : inputStream.readInt();
+                if(length < 0 || length > remaining - Integer.BYTES) {
+                    log.warn("Delta log for " + walletFile.getName() + " ends with an incomplete record, ignoring it");
+                    return -1;
+                }
+
+                byte[] payload = new byte[length];
+                inputStream.readFully(payload);
+
+                Delta delta;
+                try {
+                    delta = readDelta(payload, encryptionKey);
+                    if(delta == null) {
+                        throw new IOException("Empty delta record");
+                    }
+                } catch(IOException | RuntimeException e) {
+                    //A record that cannot be read is treated as the end of the log, as for an incomplete record
+                    log.warn("Delta log for " + walletFile.getName() + " has an unreadable record, ignoring it", e);
+                    return -1;
+                }
+
+                applyDelta(wallet, delta);
+                remaining -= Integer.BYTES + length;
+                records++;
+            }
+
+            return records;
+        } catch(EOFException e) {
+            log.warn("Delta log for " + walletFile.getName() + " is truncated, ignoring it");
+            return -1;
+        }
+    }
+
+    private Delta readDelta(byte[] payload, ECKey encryptionKey) throws IOException {
+        InputStream inputStream = new ByteArrayInputStream(payload);
+        if(encryptionKey != null) {
+            inputStream = new ECIESInputStream(inputStream, encryptionKey);
+        }
+
+        try(Reader reader = new InputStreamReader(new InflaterInputStream(inputStream), StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, Delta.class);
+        }
+    }
+
+    private static void applyDelta(Wallet wallet, Delta delta) {
+        wallet.setStoredBlockHeight(delta.storedBlockHeight);
+        wallet.setBirthDate(delta.birthDate);
+
+        Map<KeyPurpose, Map<Integer, WalletNode>> childIndexes = new HashMap<>();
+        for(NodeDelta nodeDelta : delta.nodes) {
+            WalletNode purposeNode = wallet.getNode(nodeDelta.keyPurpose);
+            WalletNode node = childIndexes.computeIfAbsent(nodeDelta.keyPurpose, keyPurpose -> getChildIndex(purposeNode)).get(nodeDelta.index);
+            if(node == null) {
+                purposeNode.fillToIndex(nodeDelta.index);
+                childIndexes.put(nodeDelta.keyPurpose, getChildIndex(purposeNode));
+                node = childIndexes.get(nodeDelta.keyPurpose).get(nodeDelta.index);
+            }
+
+            node.setLabel(nodeDelta.label);
+            node.setTransactionOutputs(nodeDelta.transactionOutputs == null ? new TreeSet<>() : nodeDelta.transactionOutputs);
+        }
+
+        Map<Sha256Hash, BlockTransaction> transactions = wallet.getTransactions();
+        transactions.keySet().removeAll(delta.removedTransactions);
+        for(BlockTransaction blockTransaction : delta.transactions) {
+            transactions.put(blockTransaction.getHash(), blockTransaction);
+        }
+    }
+
+    private static Map<Integer, WalletNode> getChildIndex(WalletNode purposeNode) {
+        Map<Integer, WalletNode> childIndex = new HashMap<>();
+        for(WalletNode childNode : purposeNode.getChildren()) {
+            childIndex.put(childNode.getIndex(), childNode);
+        }
+
+        return childIndex;
+    }
+
+    private boolean isCompactionDue() {
+        return !compactionScheduled && (logRecords > MAX_LOG_RECORDS || (logLength > MIN_COMPACTION_LOG_SIZE && logLength > baseLength / 2));
+    }
+
+    private void scheduleCompaction(File walletFile, Wallet snapshot, ECKey encryptionPubKey) {
+        compactionScheduled = true;
+        int snapshotGeneration = generation;
+        long snapshotLogLength = logLength;
+        int snapshotLogRecords = logRecords;
+        compactionExecutor.execute(() -> compact(walletFile, snapshot, encryptionPubKey, snapshotGeneration, snapshotLogLength, snapshotLogRecords));
+    }
+
+    private synchronized void compact(File walletFile, Wallet snapshot, ECKey encryptionPubKey, int snapshotGeneration, long snapshotLogLength, int snapshotLogRecords) {
+        compactionScheduled = false;
+        if(generation != snapshotGeneration) {
+            //A full snapshot has been written since this compaction was scheduled
+            return;
+        }
+
+        try {
+            //Records appended after the snapshot was taken are carried over to the new log
+            byte[] logTail;
+            try(InputStream logStream = new FileInputStream(getDeltaLogFile(walletFile))) {
+                logStream.skipNBytes(snapshotLogLength);
+                logTail = logStream.readAllBytes();
+            }
+
+            storeBase(walletFile, snapshot, encryptionPubKey);
+            startDeltaLog(walletFile, logTail);
+            logRecords -= snapshotLogRecords;
+            generation++;
+            log.debug("Compacted delta log for " + walletFile.getName());
+        } catch(IOException e) {
+            log.error("Error compacting delta log for " + walletFile.getName(), e);
+        }
+    }
+
+    private void startDeltaLog(File walletFile, byte[] records) throws IOException {
+        File logFile = getDeltaLogFile(walletFile);
+        File tempFile = new File(logFile.getParentFile(), logFile.getName() + ".tmp");
+        if(!tempFile.exists()) {
+            Storage.createOwnerOnlyFile(tempFile);
+        }
+
+        try(OutputStream outputStream = new FileOutputStream(tempFile)) {
+            outputStream.write(DELTA_LOG_MAGIC.getBytes(StandardCharsets.UTF_8));
+            outputStream.write(getBaseHash(walletFile));
+            outputStream.write(records);
+        }
+
+        Files.move(tempFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        baseLength = walletFile.length();
+        logLength = logFile.length();
+    }
+
+    private static byte[] getBaseHash(File walletFile) throws IOException {
+        return com.google.common.io.Files.asByteSource(walletFile).hash(Hashing.sha256()).asBytes();
+    }
+
+    private static ECKey getLogKey(ECKey encryptionKey) {
+        return encryptionKey == null || Storage.NO_PASSWORD_KEY.equals(encryptionKey) ? null : encryptionKey;
+    }
+
+    public static File getDeltaLogFile(File walletFile) {
+        return new File(walletFile.getParentFile(), "." + walletFile.getName() + "." + DELTA_LOG_EXTENSION);
+    }
+
+    public static boolean hasDeltaLog(File walletFile) {
+        return getDeltaLogFile(walletFile).exists();
+    }
+
+    @Override
+    public ECKey getEncryptionKey(CharSequence password) throws IOException, StorageException {
+        return basePersistence.getEncryptionKey(password);
+    }
+
+    @Override
+    public AsymmetricKeyDeriver getKeyDeriver() {
+        return basePersistence.getKeyDeriver();
+    }
+
+    @Override
+    public void setKeyDeriver(AsymmetricKeyDeriver keyDeriver) {
+        basePersistence.setKeyDeriver(keyDeriver);
+    }
+
+    @Override
+    public PersistenceType getType() {
+        return PersistenceType.INCREMENTAL;
+    }
+
+    private static class Delta {
+        private Integer storedBlockHeight;
+        private Date birthDate;
+        private final List<NodeDelta> nodes = new ArrayList<>();
+        private final List<BlockTransaction> transactions = new ArrayList<>();
+        private final List<Sha256Hash> removedTransactions = new ArrayList<>();
+
+        private transient final Map<String, List<Object>> nodeStates = new HashMap<>();
+        private transient final Map<String, Set<Sha256Hash>> nodeReferences = new HashMap<>();
+        private transient final Map<Sha256Hash, List<Object>> transactionStates = new HashMap<>();
+        private transient boolean empty;
+
+        public boolean isEmpty() {
+            return empty;
+        }
+    }
+
+    private static class NodeDelta {
+        private final KeyPurpose keyPurpose;
+        private final int index;
+        private final String label;
+        private final TreeSet<BlockTransactionHashIndex> transactionOutputs;
+
+        public NodeDelta(KeyPurpose keyPurpose, WalletNode node) {
+            this.keyPurpose = keyPurpose;
+            this.index = node.getIndex();
+            this.label = node.getLabel();
+            this.transactionOutputs = new TreeSet<>(node.getTransactionOutputs());
+        }
+    }
+}
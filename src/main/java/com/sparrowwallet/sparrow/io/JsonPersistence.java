@@ -1,6 +1,11 @@
 package com.sparrowwallet.sparrow.io;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.sparrowwallet.drongo.ExtendedKey;
 import com.sparrowwallet.drongo.Utils;
 import com.sparrowwallet.drongo.crypto.Argon2KeyDeriver;
@@ -8,16 +13,27 @@ import com.sparrowwallet.drongo.crypto.AsymmetricKeyDeriver;
 import com.sparrowwallet.drongo.crypto.ECKey;
 import com.sparrowwallet.drongo.protocol.Sha256Hash;
 import com.sparrowwallet.drongo.protocol.Transaction;
+import com.sparrowwallet.drongo.wallet.BlockTransaction;
 import com.sparrowwallet.drongo.wallet.Keystore;
 import com.sparrowwallet.drongo.wallet.Wallet;
 import com.sparrowwallet.drongo.wallet.WalletNode;
 
 import java.io.*;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
 
@@ -25,8 +41,21 @@ import static com.sparrowwallet.drongo.crypto.Argon2KeyDeriver.SPRW1_PARAMETERS;
 
 public class JsonPersistence implements Persistence {
     public static final String HEADER_MAGIC_1 = "SPRW1";
+    public static final String HEADER_MAGIC_2 = "SPRW2";
+    public static final String HEADER_MAGIC_3 = "SPRW3";
     public static final int BINARY_HEADER_LENGTH = 28;
 
+    private static final Gson GSON = createGson();
+
+    private static final String WALLET_TRANSACTIONS_MEMBER = "transactions";
+
+    //Selects the wallet transactions that are read on this thread, with the others skipped without being parsed
+    private static final ThreadLocal<Predicate<Sha256Hash>> walletTransactionFilter = new ThreadLocal<>();
+
+    //Decrypting, inflating and parsing wallet files with an already derived key is CPU bound, so related wallets are loaded in parallel up to the number of processors
+    private static final ExecutorService walletParseExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("WalletParse-%d").build());
+
     private final Gson gson;
     private AsymmetricKeyDeriver keyDeriver;
 
@@ -45,9 +74,9 @@ public class JsonPersistence implements Persistence {
         ECKey encryptionKey;
 
         try(InputStream fileStream = new FileInputStream(walletFile)) {
-            encryptionKey = getEncryptionKey(password, fileStream, null);
-            Reader reader = new InputStreamReader(new InflaterInputStream(new ECIESInputStream(fileStream, encryptionKey, getEncryptionMagic())), StandardCharsets.UTF_8);
-            wallet = gson.fromJson(reader, Wallet.class);
+            byte[] header = readBinaryHeader(fileStream);
+            encryptionKey = getEncryptionKey(password, header, null);
+            wallet = readWallet(header, fileStream, encryptionKey);
         }
 
         return new WalletBackupAndKey(wallet, null, encryptionKey, keyDeriver, null);
@@ -55,21 +84,135 @@ public class JsonPersistence implements Persistence {
 
     public Map<File, Wallet> loadWallets(File[] walletFiles, ECKey encryptionKey) throws IOException, StorageException {
         Map<File, Wallet> walletsMap = new LinkedHashMap<>();
+        if(walletFiles.length == 1) {
+            walletsMap.put(walletFiles[0], loadWallet(walletFiles[0], encryptionKey));
+            return walletsMap;
+        }
+
+        Map<File, Future<Wallet>> walletFutures = new LinkedHashMap<>();
         for(File file : walletFiles) {
-            if(encryptionKey != null) {
-                try(InputStream fileStream = new FileInputStream(file)) {
-                    encryptionKey = getEncryptionKey(null, fileStream, encryptionKey);
-                    Reader reader = new InputStreamReader(new InflaterInputStream(new ECIESInputStream(fileStream, encryptionKey, getEncryptionMagic())), StandardCharsets.UTF_8);
-                    walletsMap.put(file, gson.fromJson(reader, Wallet.class));
-                }
-            } else {
-                walletsMap.put(file, loadWallet(file));
+            walletFutures.put(file, walletParseExecutor.submit(() -> loadWallet(file, encryptionKey)));
+        }
+
+        try {
+            for(Map.Entry<File, Future<Wallet>> entry : walletFutures.entrySet()) {
+                walletsMap.put(entry.getKey(), entry.getValue().get());
+            }
+        } catch(ExecutionException e) {
+            walletFutures.values().forEach(future -> future.cancel(true));
+            if(e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            } else if(e.getCause() instanceof StorageException) {
+                throw (StorageException)e.getCause();
+            } else if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
             }
+
+            throw new StorageException("Error loading wallets", e.getCause());
+        } catch(InterruptedException e) {
+            walletFutures.values().forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted loading wallets", e);
         }
 
         return walletsMap;
     }
 
+    /**
+     * Loads the wallet, including only those of its transactions accepted by the filter
+     */
+    public WalletBackupAndKey loadWallet(File walletFile, CharSequence password, Predicate<Sha256Hash> transactionFilter) throws IOException, StorageException {
+        walletTransactionFilter.set(transactionFilter);
+        try {
+            return loadWallet(walletFile, password);
+        } finally {
+            walletTransactionFilter.remove();
+        }
+    }
+
+    /**
+     * Reads the transactions accepted by the filter from an encrypted wallet file without reading the rest of the wallet, passing them to the consumer in batches as they are parsed
+     */
+    public void loadTransactions(File walletFile, ECKey encryptionKey, Predicate<Sha256Hash> transactionFilter, int batchSize, Consumer<Map<Sha256Hash, BlockTransaction>> batchConsumer) throws IOException, StorageException {
+        try(InputStream fileStream = new FileInputStream(walletFile)) {
+            byte[] header = readBinaryHeader(fileStream);
+            InputStream inputStream = new InflaterInputStream(getDecryptionStream(header, fileStream, getEncryptionKey(null, header, encryptionKey)));
+            JsonReader reader = HEADER_MAGIC_3.equals(getHeaderMagic(header)) ? new BinaryWalletReader(inputStream) : new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+
+            Map<Sha256Hash, BlockTransaction> batch = new LinkedHashMap<>();
+            reader.beginObject();
+            while(reader.hasNext()) {
+                if(WALLET_TRANSACTIONS_MEMBER.equals(reader.nextName()) && reader.peek() != JsonToken.NULL) {
+                    readTransactions(reader, GSON.getAdapter(Sha256Hash.class), GSON.getAdapter(BlockTransaction.class), transactionFilter, (txid, blockTransaction) -> {
+                        batch.put(txid, blockTransaction);
+                        if(batch.size() >= batchSize) {
+                            batchConsumer.accept(new LinkedHashMap<>(batch));
+                            batch.clear();
+                        }
+                    });
+                } else {
+                    reader.skipValue();
+                }
+            }
+
+            if(!batch.isEmpty()) {
+                batchConsumer.accept(batch);
+            }
+        } catch(JsonParseException | IllegalStateException e) {
+            throw new StorageException("Error reading wallet transactions", e);
+        }
+    }
+
+    private static void readTransactions(JsonReader in, TypeAdapter<Sha256Hash> keyAdapter, TypeAdapter<BlockTransaction> valueAdapter, Predicate<Sha256Hash> transactionFilter, BiConsumer<Sha256Hash, BlockTransaction> consumer) throws IOException {
+        if(in.peek() == JsonToken.BEGIN_ARRAY) {
+            //Binary wallets store maps as arrays of key and value pairs
+            in.beginArray();
+            while(in.hasNext()) {
+                in.beginArray();
+                readTransaction(in, keyAdapter.read(in), valueAdapter, transactionFilter, consumer);
+                in.endArray();
+            }
+            in.endArray();
+        } else {
+            in.beginObject();
+            while(in.hasNext()) {
+                readTransaction(in, Sha256Hash.wrap(in.nextName()), valueAdapter, transactionFilter, consumer);
+            }
+            in.endObject();
+        }
+    }
+
+    private static void readTransaction(JsonReader in, Sha256Hash txid, TypeAdapter<BlockTransaction> valueAdapter, Predicate<Sha256Hash> transactionFilter, BiConsumer<Sha256Hash, BlockTransaction> consumer) throws IOException {
+        if(transactionFilter.test(txid)) {
+            consumer.accept(txid, valueAdapter.read(in));
+        } else {
+            in.skipValue();
+        }
+    }
+
+    private Wallet loadWallet(File file, ECKey encryptionKey) throws IOException, StorageException {
+        if(encryptionKey == null) {
+            return loadWallet(file);
+        }
+
+        try(InputStream fileStream = new FileInputStream(file)) {
+            byte[] header = readBinaryHeader(fileStream);
+            ECKey fileEncryptionKey = getEncryptionKey(null, header, encryptionKey);
+            return readWallet(header, fileStream, fileEncryptionKey);
+        }
+    }
+
+    private Wallet readWallet(byte[] header, InputStream fileStream, ECKey encryptionKey) throws IOException {
+        InputStream inputStream = new InflaterInputStream(getDecryptionStream(header, fileStream, encryptionKey));
+        //Wallets are read in whichever format they were written, so they can be migrated between persistence types
+        if(HEADER_MAGIC_3.equals(getHeaderMagic(header))) {
+            return BinaryPersistence.readWallet(inputStream);
+        }
+
+        Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+        return gson.fromJson(reader, Wallet.class);
+    }
+
     public Map<Storage, WalletBackupAndKey> loadChildWallets(File walletFile, Wallet masterWallet, ECKey encryptionKey) throws IOException, StorageException {
         File[] walletFiles = getChildWalletFiles(walletFile, masterWallet);
         Map<Storage, WalletBackupAndKey> childWallets = new LinkedHashMap<>();
@@ -116,13 +259,11 @@ public class JsonPersistence implements Persistence {
             walletFile = jsonFile;
         }
 
-        if(!walletFile.exists()) {
-            Storage.createOwnerOnlyFile(walletFile);
-        }
-
-        try(Writer writer = new FileWriter(walletFile)) {
+        File tempFile = getTempFile(walletFile);
+        try(Writer writer = new FileWriter(tempFile)) {
             gson.toJson(wallet, writer);
         }
+        replaceWithTempFile(tempFile, walletFile);
 
         return walletFile;
     }
@@ -143,24 +284,70 @@ public class JsonPersistence implements Persistence {
             walletFile = noJsonFile;
         }
 
+        String headerMagic = getHeaderMagic(walletFile);
+        File tempFile = getTempFile(walletFile);
+        try(OutputStream outputStream = new FileOutputStream(tempFile)) {
+            writeBinaryHeader(outputStream, headerMagic);
+            OutputStream encryptedStream = HEADER_MAGIC_1.equals(headerMagic) ? new ECIESOutputStream(outputStream, encryptionPubKey, getEncryptionMagic()) : new ChunkedECIESOutputStream(outputStream, encryptionPubKey, getEncryptionMagic());
+            OutputStream payloadStream = new DeflaterOutputStream(encryptedStream);
+            writeWallet(wallet, payloadStream);
+            //Close the payload stream explicitly as the try-resources block will not do so
+            payloadStream.close();
+        }
+        replaceWithTempFile(tempFile, walletFile);
+
+        return walletFile;
+    }
+
+    protected void writeWallet(Wallet wallet, OutputStream outputStream) throws IOException {
+        Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        gson.toJson(wallet, writer);
+        writer.flush();
+    }
+
+    protected String getHeaderMagic() {
+        return HEADER_MAGIC_2;
+    }
+
+    private String getHeaderMagic(File walletFile) {
+        //Upgrading an SPRW1 wallet is one way, as earlier releases cannot read the chunked format, so an existing SPRW1 file is only upgraded when configured
+        if(HEADER_MAGIC_2.equals(getHeaderMagic()) && HEADER_MAGIC_1.equals(readHeaderMagic(walletFile)) && !Config.get().isUpgradeWalletEncryption()) {
+            return HEADER_MAGIC_1;
+        }
+
+        return getHeaderMagic();
+    }
+
+    private String readHeaderMagic(File walletFile) {
         if(!walletFile.exists()) {
-            Storage.createOwnerOnlyFile(walletFile);
+            return null;
         }
 
-        try(OutputStream outputStream = new FileOutputStream(walletFile)) {
-            writeBinaryHeader(outputStream);
-            OutputStreamWriter writer = new OutputStreamWriter(new DeflaterOutputStream(new ECIESOutputStream(outputStream, encryptionPubKey, getEncryptionMagic())), StandardCharsets.UTF_8);
-            gson.toJson(wallet, writer);
-            //Close the writer explicitly as the try-resources block will not do so
-            writer.close();
+        try(InputStream fileStream = new FileInputStream(walletFile)) {
+            return getHeaderMagic(readBinaryHeader(fileStream));
+        } catch(IOException | StorageException e) {
+            //Not an encrypted wallet file, such as an unencrypted wallet being encrypted for the first time
+            return null;
         }
+    }
 
-        return walletFile;
+    private File getTempFile(File walletFile) {
+        //Write to a hidden file alongside the wallet, so a failed or interrupted save never leaves a partially written wallet file
+        File tempFile = new File(walletFile.getParentFile(), "." + walletFile.getName() + ".saving");
+        if(!tempFile.exists()) {
+            Storage.createOwnerOnlyFile(tempFile);
+        }
+
+        return tempFile;
+    }
+
+    private void replaceWithTempFile(File tempFile, File walletFile) throws IOException {
+        Files.move(tempFile.toPath(), walletFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
-    private void writeBinaryHeader(OutputStream outputStream) throws IOException {
+    private void writeBinaryHeader(OutputStream outputStream, String headerMagic) throws IOException {
         ByteBuffer buf = ByteBuffer.allocate(21);
-        buf.put(HEADER_MAGIC_1.getBytes(StandardCharsets.UTF_8));
+        buf.put(headerMagic.getBytes(StandardCharsets.UTF_8));
         buf.put(keyDeriver.getSalt());
 
         byte[] encoded = Base64.getEncoder().encode(buf.array());
@@ -170,6 +357,19 @@ public class JsonPersistence implements Persistence {
         outputStream.write(encoded);
     }
 
+    private static InputStream getDecryptionStream(byte[] header, InputStream inputStream, ECKey encryptionKey) {
+        if(HEADER_MAGIC_1.equals(getHeaderMagic(header))) {
+            //Earlier wallet files encrypt the entire payload as a single ECIES message
+            return new ECIESInputStream(inputStream, encryptionKey, getEncryptionMagic());
+        }
+
+        return new ChunkedECIESInputStream(inputStream, encryptionKey, getEncryptionMagic());
+    }
+
+    private static String getHeaderMagic(byte[] header) {
+        return new String(header, 0, HEADER_MAGIC_1.length(), StandardCharsets.UTF_8);
+    }
+
     private static byte[] getEncryptionMagic() {
         return "BIE1".getBytes(StandardCharsets.UTF_8);
     }
@@ -178,12 +378,12 @@ public class JsonPersistence implements Persistence {
         return getEncryptionKey(password, null, null);
     }
 
-    private ECKey getEncryptionKey(CharSequence password, InputStream inputStream, ECKey alreadyDerivedKey) throws IOException, StorageException {
+    private ECKey getEncryptionKey(CharSequence password, byte[] header, ECKey alreadyDerivedKey) throws IOException, StorageException {
         if(password != null && password.equals("")) {
             return Storage.NO_PASSWORD_KEY;
         }
 
-        AsymmetricKeyDeriver keyDeriver = getKeyDeriver(inputStream);
+        AsymmetricKeyDeriver keyDeriver = getKeyDeriver(header);
         return alreadyDerivedKey == null ?  keyDeriver.deriveECKey(password) : alreadyDerivedKey;
     }
 
@@ -195,35 +395,19 @@ public class JsonPersistence implements Persistence {
         this.keyDeriver = keyDeriver;
     }
 
-    private AsymmetricKeyDeriver getKeyDeriver(InputStream inputStream) throws IOException, StorageException {
+    private synchronized AsymmetricKeyDeriver getKeyDeriver(byte[] header) {
         if(keyDeriver == null) {
-            keyDeriver = getWalletKeyDeriver(inputStream);
-        } else if(inputStream != null) {
-            inputStream.skip(BINARY_HEADER_LENGTH);
+            keyDeriver = getWalletKeyDeriver(header);
         }
 
         return keyDeriver;
     }
 
-    private AsymmetricKeyDeriver getWalletKeyDeriver(InputStream inputStream) throws IOException, StorageException {
+    private AsymmetricKeyDeriver getWalletKeyDeriver(byte[] header) {
         byte[] salt = new byte[SPRW1_PARAMETERS.saltLength];
 
-        if(inputStream != null) {
-            byte[] header = new byte[BINARY_HEADER_LENGTH];
-            int read = inputStream.read(header);
-            if(read != BINARY_HEADER_LENGTH) {
-                throw new StorageException("Not a Sparrow wallet - invalid header");
-            }
-            try {
-                byte[] decodedHeader = Base64.getDecoder().decode(header);
-                byte[] magic = Arrays.copyOfRange(decodedHeader, 0, HEADER_MAGIC_1.length());
-                if(!HEADER_MAGIC_1.equals(new String(magic, StandardCharsets.UTF_8))) {
-                    throw new StorageException("Not a Sparrow wallet - invalid magic");
-                }
-                salt = Arrays.copyOfRange(decodedHeader, HEADER_MAGIC_1.length(), decodedHeader.length);
-            } catch(IllegalArgumentException e) {
-                throw new StorageException("Not a Sparrow wallet - invalid header");
-            }
+        if(header != null) {
+            salt = Arrays.copyOfRange(header, HEADER_MAGIC_1.length(), header.length);
         } else {
             SecureRandom secureRandom = new SecureRandom();
             secureRandom.nextBytes(salt);
@@ -232,31 +416,46 @@ public class JsonPersistence implements Persistence {
         return new Argon2KeyDeriver(salt);
     }
 
+    private byte[] readBinaryHeader(InputStream inputStream) throws IOException, StorageException {
+        byte[] header = new byte[BINARY_HEADER_LENGTH];
+        int read = inputStream.readNBytes(header, 0, BINARY_HEADER_LENGTH);
+        if(read != BINARY_HEADER_LENGTH) {
+            throw new StorageException("Not a Sparrow wallet - invalid header");
+        }
+
+        try {
+            byte[] decodedHeader = Base64.getDecoder().decode(header);
+            String magic = getHeaderMagic(decodedHeader);
+            if(!HEADER_MAGIC_1.equals(magic) && !HEADER_MAGIC_2.equals(magic) && !HEADER_MAGIC_3.equals(magic)) {
+                throw new StorageException("Not a Sparrow wallet - invalid magic");
+            }
+
+            return decodedHeader;
+        } catch(IllegalArgumentException e) {
+            throw new StorageException("Not a Sparrow wallet - invalid header");
+        }
+    }
+
     public PersistenceType getType() {
         return PersistenceType.JSON;
     }
 
     public static Gson getGson() {
-        return getGson(true);
+        return GSON;
     }
 
-    private static Gson getGson(boolean includeWalletSerializers) {
+    private static Gson createGson() {
         GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(ExtendedKey.class, new ExtendedPublicKeySerializer());
-        gsonBuilder.registerTypeAdapter(ExtendedKey.class, new ExtendedPublicKeyDeserializer());
-        gsonBuilder.registerTypeAdapter(byte[].class, new ByteArraySerializer());
-        gsonBuilder.registerTypeAdapter(byte[].class, new ByteArrayDeserializer());
-        gsonBuilder.registerTypeAdapter(Sha256Hash.class, new Sha256HashSerializer());
-        gsonBuilder.registerTypeAdapter(Sha256Hash.class, new Sha256HashDeserializer());
-        gsonBuilder.registerTypeAdapter(Date.class, new DateSerializer());
-        gsonBuilder.registerTypeAdapter(Date.class, new DateDeserializer());
-        gsonBuilder.registerTypeAdapter(Transaction.class, new TransactionSerializer());
-        gsonBuilder.registerTypeAdapter(Transaction.class, new TransactionDeserializer());
-        if(includeWalletSerializers) {
-            gsonBuilder.registerTypeAdapter(Keystore.class, new KeystoreSerializer());
-            gsonBuilder.registerTypeAdapter(WalletNode.class, new NodeSerializer());
-            gsonBuilder.registerTypeAdapter(WalletNode.class, new NodeDeserializer());
-        }
+        gsonBuilder.registerTypeAdapter(ExtendedKey.class, new ExtendedPublicKeyTypeAdapter().nullSafe());
+        gsonBuilder.registerTypeAdapter(byte[].class, new ByteArrayTypeAdapter().nullSafe());
+        gsonBuilder.registerTypeAdapter(Sha256Hash.class, new Sha256HashTypeAdapter().nullSafe());
+        gsonBuilder.registerTypeAdapter(Date.class, new DateTypeAdapter().nullSafe());
+        gsonBuilder.registerTypeAdapter(Transaction.class, new TransactionTypeAdapter().nullSafe());
+        gsonBuilder.registerTypeAdapterFactory(new KeystoreTypeAdapterFactory());
+        gsonBuilder.registerTypeAdapterFactory(new NodeTypeAdapterFactory());
+        gsonBuilder.registerTypeAdapterFactory(new ChildNodeCollectionTypeAdapterFactory());
+        gsonBuilder.registerTypeAdapterFactory(new WalletTransactionsTypeAdapterFactory());
+        gsonBuilder.registerTypeAdapterFactory(new BinaryMapTypeAdapterFactory());
 
         gsonBuilder.addSerializationExclusionStrategy(new ExclusionStrategy() {
             @Override
@@ -270,143 +469,313 @@ public class JsonPersistence implements Persistence {
             }
         });
 
-        return gsonBuilder.setPrettyPrinting().disableHtmlEscaping().create();
+        return gsonBuilder.disableHtmlEscaping().create();
     }
 
-    private static class ExtendedPublicKeySerializer implements JsonSerializer<ExtendedKey> {
+    private static class ExtendedPublicKeyTypeAdapter extends TypeAdapter<ExtendedKey> {
         @Override
-        public JsonElement serialize(ExtendedKey src, Type typeOfSrc, JsonSerializationContext context) {
-            return new JsonPrimitive(src.toString());
+        public void write(JsonWriter out, ExtendedKey value) throws IOException {
+            out.value(value.toString());
         }
-    }
 
-    private static class ExtendedPublicKeyDeserializer implements JsonDeserializer<ExtendedKey> {
         @Override
-        public ExtendedKey deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-            return ExtendedKey.fromDescriptor(json.getAsJsonPrimitive().getAsString());
+        public ExtendedKey read(JsonReader in) throws IOException {
+            return ExtendedKey.fromDescriptor(in.nextString());
         }
     }
 
-    private static class ByteArraySerializer implements JsonSerializer<byte[]> {
+    private static class ByteArrayTypeAdapter extends TypeAdapter<byte[]> {
         @Override
-        public JsonElement serialize(byte[] src, Type typeOfSrc, JsonSerializationContext context) {
-            return new JsonPrimitive(Utils.bytesToHex(src));
+        public void write(JsonWriter out, byte[] value) throws IOException {
+            if(out instanceof BinaryWalletWriter) {
+                ((BinaryWalletWriter)out).value(value);
+            } else {
+                out.value(Utils.bytesToHex(value));
+            }
         }
-    }
 
-    private static class ByteArrayDeserializer implements JsonDeserializer<byte[]> {
         @Override
-        public byte[] deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-            return Utils.hexToBytes(json.getAsJsonPrimitive().getAsString());
+        public byte[] read(JsonReader in) throws IOException {
+            if(in instanceof BinaryWalletReader) {
+                return ((BinaryWalletReader)in).nextBytes();
+            }
+
+            return Utils.hexToBytes(in.nextString());
         }
     }
 
-    private static class Sha256HashSerializer implements JsonSerializer<Sha256Hash> {
+    private static class Sha256HashTypeAdapter extends TypeAdapter<Sha256Hash> {
         @Override
-        public JsonElement serialize(Sha256Hash src, Type typeOfSrc, JsonSerializationContext context) {
-            return new JsonPrimitive(src.toString());
+        public void write(JsonWriter out, Sha256Hash value) throws IOException {
+            if(out instanceof BinaryWalletWriter) {
+                ((BinaryWalletWriter)out).value(value);
+            } else {
+                out.value(value.toString());
+            }
         }
-    }
 
-    private static class Sha256HashDeserializer implements JsonDeserializer<Sha256Hash> {
         @Override
-        public Sha256Hash deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-            return Sha256Hash.wrap(json.getAsJsonPrimitive().getAsString());
+        public Sha256Hash read(JsonReader in) throws IOException {
+            if(in instanceof BinaryWalletReader) {
+                return ((BinaryWalletReader)in).nextHash();
+            }
+
+            return Sha256Hash.wrap(in.nextString());
         }
     }
 
-    private static class DateSerializer implements JsonSerializer<Date> {
+    private static class DateTypeAdapter extends TypeAdapter<Date> {
         @Override
-        public JsonElement serialize(Date src, Type typeOfSrc, JsonSerializationContext context) {
-            return new JsonPrimitive(src.getTime());
+        public void write(JsonWriter out, Date value) throws IOException {
+            out.value(value.getTime());
         }
-    }
 
-    private static class DateDeserializer implements JsonDeserializer<Date> {
         @Override
-        public Date deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-            return new Date(json.getAsJsonPrimitive().getAsLong());
+        public Date read(JsonReader in) throws IOException {
+            return new Date(in.nextLong());
         }
     }
 
-    private static class TransactionSerializer implements JsonSerializer<Transaction> {
+    private static class TransactionTypeAdapter extends TypeAdapter<Transaction> {
         @Override
-        public JsonElement serialize(Transaction src, Type typeOfSrc, JsonSerializationContext context) {
-            try {
+        public void write(JsonWriter out, Transaction value) throws IOException {
+            if(out instanceof BinaryWalletWriter) {
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                src.bitcoinSerializeToStream(baos);
-                return new JsonPrimitive(Utils.bytesToHex(baos.toByteArray()));
-            } catch (IOException e) {
-                throw new IllegalStateException(e);
+                value.bitcoinSerializeToStream(baos);
+                ((BinaryWalletWriter)out).value(baos.toByteArray());
+                return;
             }
+
+            //Serialize directly to hex, rather than to a byte array that is then converted
+            HexOutputStream hexOutputStream = new HexOutputStream();
+            value.bitcoinSerializeToStream(hexOutputStream);
+            out.value(hexOutputStream.toString());
         }
-    }
 
-    private static class TransactionDeserializer implements JsonDeserializer<Transaction> {
         @Override
-        public Transaction deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-            byte[] rawTx = Utils.hexToBytes(json.getAsJsonPrimitive().getAsString());
-            return new Transaction(rawTx);
+        public Transaction read(JsonReader in) throws IOException {
+            if(in instanceof BinaryWalletReader) {
+                return new Transaction(((BinaryWalletReader)in).nextBytes());
+            }
+
+            return new Transaction(Utils.hexToBytes(in.nextString()));
         }
     }
 
-    private static class KeystoreSerializer implements JsonSerializer<Keystore> {
+    private static class HexOutputStream extends OutputStream {
+        private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+        private final StringBuilder hex = new StringBuilder(512);
+
+        @Override
+        public void write(int b) {
+            hex.append(HEX_CHARS[(b >> 4) & 0xF]).append(HEX_CHARS[b & 0xF]);
+        }
+
         @Override
-        public JsonElement serialize(Keystore keystore, Type typeOfSrc, JsonSerializationContext context) {
-            JsonObject jsonObject = (JsonObject)getGson(false).toJsonTree(keystore);
-            if(keystore.hasPrivateKey()) {
-                jsonObject.remove("extendedPublicKey");
-                jsonObject.getAsJsonObject("keyDerivation").remove("masterFingerprint");
+        public void write(byte[] bytes, int offset, int length) {
+            for(int i = offset; i < offset + length; i++) {
+                write(bytes[i]);
             }
+        }
 
-            return jsonObject;
+        @Override
+        public String toString() {
+            return hex.toString();
         }
     }
 
-    private static class NodeSerializer implements JsonSerializer<WalletNode> {
+    private static class KeystoreTypeAdapterFactory implements TypeAdapterFactory {
         @Override
-        public JsonElement serialize(WalletNode node, Type typeOfSrc, JsonSerializationContext context) {
-            JsonObject jsonObject = (JsonObject)getGson(false).toJsonTree(node);
-
-            JsonArray children = jsonObject.getAsJsonArray("children");
-            Iterator<JsonElement> iter = children.iterator();
-            while(iter.hasNext()) {
-                JsonObject childObject = (JsonObject)iter.next();
-                removeEmptyCollection(childObject, "children");
-                removeEmptyCollection(childObject, "transactionOutputs");
-
-                if(childObject.get("label") == null && childObject.get("children") == null && childObject.get("transactionOutputs") == null) {
-                    iter.remove();
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if(type.getRawType() != Keystore.class) {
+                return null;
+            }
+
+            TypeAdapter<Keystore> delegate = gson.getDelegateAdapter(this, TypeToken.get(Keystore.class));
+            TypeAdapter<JsonElement> elementAdapter = gson.getAdapter(JsonElement.class);
+            return (TypeAdapter<T>)new TypeAdapter<Keystore>() {
+                @Override
+                public void write(JsonWriter out, Keystore keystore) throws IOException {
+                    if(keystore == null || !keystore.hasPrivateKey()) {
+                        delegate.write(out, keystore);
+                        return;
+                    }
+
+                    //A keystore with a private key omits its public key and fingerprint, which are restored from the seed on load. There are few keystores, so a tree is built here only.
+                    JsonObject jsonObject = (JsonObject)delegate.toJsonTree(keystore);
+                    jsonObject.remove("extendedPublicKey");
+                    jsonObject.getAsJsonObject("keyDerivation").remove("masterFingerprint");
+                    elementAdapter.write(out, jsonObject);
                 }
+
+                @Override
+                public Keystore read(JsonReader in) throws IOException {
+                    return delegate.read(in);
+                }
+            };
+        }
+    }
+
+    //Depth of the wallet node being written on this thread, so that the direct children of a node can be pruned as they are written
+    private static final ThreadLocal<int[]> nodeWriteDepth = ThreadLocal.withInitial(() -> new int[1]);
+
+    private static class NodeTypeAdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if(type.getRawType() != WalletNode.class) {
+                return null;
             }
 
-            return jsonObject;
+            TypeAdapter<WalletNode> delegate = gson.getDelegateAdapter(this, TypeToken.get(WalletNode.class));
+            return (TypeAdapter<T>)new TypeAdapter<WalletNode>() {
+                @Override
+                public void write(JsonWriter out, WalletNode node) throws IOException {
+                    int[] depth = nodeWriteDepth.get();
+                    //Child nodes without a label or history are not written at all, as they are derived again on load
+                    if(depth[0] == 1 && node != null && node.getLabel() == null && node.getChildren().isEmpty() && node.getTransactionOutputs().isEmpty()) {
+                        return;
+                    }
+
+                    depth[0]++;
+                    try {
+                        delegate.write(out, node);
+                    } finally {
+                        depth[0]--;
+                    }
+                }
+
+                @Override
+                public WalletNode read(JsonReader in) throws IOException {
+                    WalletNode node = delegate.read(in);
+                    if(node != null) {
+                        node.parseDerivation();
+                        if(node.getChildren() == null) {
+                            node.setChildren(new TreeSet<>());
+                        }
+                        if(node.getTransactionOutputs() == null) {
+                            node.setTransactionOutputs(new TreeSet<>());
+                        }
+                    }
+
+                    return node;
+                }
+            };
         }
+    }
 
-        private void removeEmptyCollection(JsonObject jsonObject, String memberName) {
-            if(jsonObject.get(memberName) != null && jsonObject.getAsJsonArray(memberName).size() == 0) {
-                jsonObject.remove(memberName);
+    private static class ChildNodeCollectionTypeAdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if(!Collection.class.isAssignableFrom(type.getRawType())) {
+                return null;
             }
+
+            TypeAdapter<Collection<?>> delegate = (TypeAdapter<Collection<?>>)gson.getDelegateAdapter(this, type);
+            return (TypeAdapter<T>)new TypeAdapter<Collection<?>>() {
+                @Override
+                public void write(JsonWriter out, Collection<?> collection) throws IOException {
+                    //Empty collections of child nodes are written as null, which omits the member entirely
+                    if(collection != null && collection.isEmpty() && nodeWriteDepth.get()[0] == 2) {
+                        out.nullValue();
+                        return;
+                    }
+
+                    delegate.write(out, collection);
+                }
+
+                @Override
+                public Collection<?> read(JsonReader in) throws IOException {
+                    return delegate.read(in);
+                }
+            };
         }
     }
 
-    private static class NodeDeserializer implements JsonDeserializer<WalletNode> {
+    private static class BinaryMapTypeAdapterFactory implements TypeAdapterFactory {
         @Override
-        public WalletNode deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-            WalletNode node = getGson(false).fromJson(json, typeOfT);
-            node.parseDerivation();
-
-            for(WalletNode childNode : node.getChildren()) {
-                childNode.parseDerivation();
-                if(childNode.getChildren() == null) {
-                    childNode.setChildren(new TreeSet<>());
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if(!Map.class.isAssignableFrom(type.getRawType())) {
+                return null;
+            }
+
+            Type keyType = Object.class;
+            Type valueType = Object.class;
+            if(type.getType() instanceof ParameterizedType) {
+                Type[] typeArguments = ((ParameterizedType)type.getType()).getActualTypeArguments();
+                keyType = typeArguments[0];
+                valueType = typeArguments[1];
+            }
+
+            TypeAdapter<Map<Object, Object>> delegate = (TypeAdapter<Map<Object, Object>>)gson.getDelegateAdapter(this, type);
+            TypeAdapter<Object> keyAdapter = (TypeAdapter<Object>)gson.getAdapter(TypeToken.get(keyType));
+            TypeAdapter<Object> valueAdapter = (TypeAdapter<Object>)gson.getAdapter(TypeToken.get(valueType));
+            return (TypeAdapter<T>)new TypeAdapter<Map<Object, Object>>() {
+                @Override
+                public void write(JsonWriter out, Map<Object, Object> map) throws IOException {
+                    if(map == null || !(out instanceof BinaryWalletWriter)) {
+                        delegate.write(out, map);
+                        return;
+                    }
+
+                    //Maps are written as arrays of key and value pairs, which keeps keys such as hashes in binary form and can be read by the default map adapter
+                    out.beginArray();
+                    for(Map.Entry<Object, Object> entry : map.entrySet()) {
+                        out.beginArray();
+                        keyAdapter.write(out, entry.getKey());
+                        valueAdapter.write(out, entry.getValue());
+                        out.endArray();
+                    }
+                    out.endArray();
                 }
-                if(childNode.getTransactionOutputs() == null) {
-                    childNode.setTransactionOutputs(new TreeSet<>());
+
+                @Override
+                public Map<Object, Object> read(JsonReader in) throws IOException {
+                    return delegate.read(in);
                 }
+            };
+        }
+    }
+
+    private static class WalletTransactionsTypeAdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if(!Map.class.isAssignableFrom(type.getRawType()) || !(type.getType() instanceof ParameterizedType)) {
+                return null;
+            }
+
+            Type[] typeArguments = ((ParameterizedType)type.getType()).getActualTypeArguments();
+            if(typeArguments[0] != Sha256Hash.class || typeArguments[1] != BlockTransaction.class) {
+                return null;
             }
 
-            return node;
+            TypeAdapter<Map<Sha256Hash, BlockTransaction>> delegate = (TypeAdapter<Map<Sha256Hash, BlockTransaction>>)gson.getDelegateAdapter(this, type);
+            TypeAdapter<Sha256Hash> keyAdapter = gson.getAdapter(Sha256Hash.class);
+            TypeAdapter<BlockTransaction> valueAdapter = gson.getAdapter(BlockTransaction.class);
+            return (TypeAdapter<T>)new TypeAdapter<Map<Sha256Hash, BlockTransaction>>() {
+                @Override
+                public void write(JsonWriter out, Map<Sha256Hash, BlockTransaction> transactions) throws IOException {
+                    delegate.write(out, transactions);
+                }
+
+                @Override
+                public Map<Sha256Hash, BlockTransaction> read(JsonReader in) throws IOException {
+                    Predicate<Sha256Hash> transactionFilter = walletTransactionFilter.get();
+                    if(transactionFilter == null || in.peek() == JsonToken.NULL) {
+                        return delegate.read(in);
+                    }
+
+                    //Create the map through the delegate so that it is of the type the field requires
+                    Map<Sha256Hash, BlockTransaction> transactions = delegate.fromJsonTree(new JsonObject());
+                    readTransactions(in, keyAdapter, valueAdapter, transactionFilter, transactions::put);
+                    return transactions;
+                }
+            };
         }
     }
 }
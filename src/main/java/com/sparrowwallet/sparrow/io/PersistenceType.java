@@ -1,12 +1,16 @@
 package com.sparrowwallet.sparrow.io;
 
 public enum PersistenceType {
-    JSON("json");
+    JSON("json", "json"),
+    INCREMENTAL("incremental", "json"),
+    BINARY("binary", "json");
 
     private final String name;
+    private final String extension;
 
-    private PersistenceType(String name) {
+    private PersistenceType(String name, String extension) {
         this.name = name;
+        this.extension = extension;
     }
 
     public String getName() {
@@ -14,6 +18,6 @@ public enum PersistenceType {
     }
 
     public String getExtension() {
-        return getName();
+        return extension;
     }
 }
@@ -1,10 +1,16 @@
 package com.sparrowwallet.sparrow.io;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sparrowwallet.drongo.KeyPurpose;
 import com.sparrowwallet.drongo.Network;
 import com.sparrowwallet.drongo.SecureString;
 import com.sparrowwallet.drongo.Utils;
 import com.sparrowwallet.drongo.crypto.*;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.BlockTransaction;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
 import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
 import com.sparrowwallet.sparrow.MainApp;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
@@ -21,6 +27,9 @@ import java.security.cert.CertificateEncodingException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,17 +45,37 @@ public class Storage {
     public static final String WALLETS_DIR = "wallets";
     public static final String WALLETS_BACKUP_DIR = "backup";
     public static final String CERTS_DIR = "certs";
+    public static final String TOR_DIR = "tor";
     public static final String TEMP_BACKUP_EXTENSION = "tmp";
 
+    //Wallets with fewer transactions than this are loaded in full, as deferring their history would not noticeably speed up opening them
+    private static final int MIN_DEFERRED_TRANSACTIONS = 1000;
+    private static final int DEFERRED_TRANSACTIONS_BATCH_SIZE = 2000;
+
     private final Persistence persistence;
     private File walletFile;
     private ECKey encryptionPubKey;
+    private volatile ECKey deferredTransactionsKey;
+    private volatile Set<Sha256Hash> loadedTransactions;
 
     public Storage(File walletFile) {
-        this.persistence = new JsonPersistence();
+        this.persistence = getPersistence(walletFile);
         this.walletFile = walletFile;
     }
 
+    private static Persistence getPersistence(File walletFile) {
+        //Wallets with a delta log must continue to be read incrementally, even if the configured persistence type has changed
+        if(Config.get().getPersistenceType() == PersistenceType.INCREMENTAL || IncrementalPersistence.hasDeltaLog(walletFile)) {
+            return new IncrementalPersistence();
+        }
+
+        if(Config.get().getPersistenceType() == PersistenceType.BINARY) {
+            return new BinaryPersistence();
+        }
+
+        return new JsonPersistence();
+    }
+
     public File getWalletFile() {
         return walletFile;
     }
@@ -61,14 +90,101 @@ public class Storage {
     }
 
     public WalletBackupAndKey loadEncryptedWallet(CharSequence password) throws IOException, StorageException {
-        WalletBackupAndKey masterWalletAndKey = persistence.loadWallet(walletFile, password);
-        Wallet backupWallet = loadBackupWallet(masterWalletAndKey.getEncryptionKey());
-        Map<Storage, WalletBackupAndKey> childWallets = persistence.loadChildWallets(walletFile, masterWalletAndKey.getWallet(), masterWalletAndKey.getEncryptionKey());
+        return loadEncryptedWallet(password, false);
+    }
+
+    /**
+     * Loads the wallet, optionally deferring the transactions that are not needed to display and spend from it, which must then be loaded with LoadTransactionsService.
+     * Transactions are only deferred for wallets with a long history stored as a complete wallet file.
+     */
+    public WalletBackupAndKey loadEncryptedWallet(CharSequence password, boolean deferTransactions) throws IOException, StorageException {
+        WalletBackupAndKey masterWalletAndKey = deferTransactions && persistence instanceof JsonPersistence ? loadWalletDeferringTransactions((JsonPersistence)persistence, password) : persistence.loadWallet(walletFile, password);
+        Wallet backupWallet;
+        Map<Storage, WalletBackupAndKey> childWallets;
+        try {
+            backupWallet = loadBackupWallet(masterWalletAndKey.getEncryptionKey());
+            childWallets = persistence.loadChildWallets(walletFile, masterWalletAndKey.getWallet(), masterWalletAndKey.getEncryptionKey());
+        } catch(IOException | StorageException | RuntimeException e) {
+            clearDeferredTransactions();
+            throw e;
+        }
 
         encryptionPubKey = ECKey.fromPublicOnly(masterWalletAndKey.getEncryptionKey());
         return new WalletBackupAndKey(masterWalletAndKey.getWallet(), backupWallet, masterWalletAndKey.getEncryptionKey(), persistence.getKeyDeriver(), childWallets);
     }
 
+    private WalletBackupAndKey loadWalletDeferringTransactions(JsonPersistence jsonPersistence, CharSequence password) throws IOException, StorageException {
+        //Parsing transactions dominates the time taken to load a wallet with a long history, so only the first transactions are parsed while the rest are counted.
+        //A wallet with a short history is then read in this single pass.
+        int[] transactionCount = new int[1];
+        WalletBackupAndKey walletAndKey = jsonPersistence.loadWallet(walletFile, password, txid -> ++transactionCount[0] <= MIN_DEFERRED_TRANSACTIONS);
+        if(transactionCount[0] <= MIN_DEFERRED_TRANSACTIONS) {
+            return walletAndKey;
+        }
+
+        //Otherwise only the transactions needed to display and spend from the wallet are read now, if they were not among those already parsed
+        Wallet wallet = walletAndKey.getWallet();
+        Set<Sha256Hash> requiredTransactions = getRequiredTransactions(wallet);
+        requiredTransactions.removeAll(wallet.getTransactions().keySet());
+        if(!requiredTransactions.isEmpty()) {
+            jsonPersistence.loadTransactions(walletFile, walletAndKey.getEncryptionKey(), requiredTransactions::contains, Integer.MAX_VALUE, wallet::updateTransactions);
+        }
+
+        loadedTransactions = new HashSet<>(wallet.getTransactions().keySet());
+        deferredTransactionsKey = ECKey.fromPrivate(walletAndKey.getEncryptionKey().getPrivKeyBytes());
+        log.debug("Deferring " + (transactionCount[0] - loadedTransactions.size()) + " transactions of " + wallet.getName());
+        return walletAndKey;
+    }
+
+    /**
+     * Returns the ids of the transactions that fund unspent outputs or are unconfirmed, which are needed to display the wallet balance and to spend from it
+     */
+    private static Set<Sha256Hash> getRequiredTransactions(Wallet wallet) {
+        Set<Sha256Hash> txids = new HashSet<>();
+        for(KeyPurpose keyPurpose : List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE)) {
+            for(WalletNode addressNode : wallet.getNode(keyPurpose).getChildren()) {
+                for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
+                    if(!txo.isSpent() || txo.getHeight() <= 0) {
+                        txids.add(txo.getHash());
+                    }
+                    if(txo.isSpent() && txo.getSpentBy().getHeight() <= 0) {
+                        txids.add(txo.getSpentBy().getHash());
+                    }
+                }
+            }
+        }
+
+        return txids;
+    }
+
+    public boolean isTransactionsDeferred() {
+        return deferredTransactionsKey != null;
+    }
+
+    /**
+     * Discards the state retained to load deferred transactions, including the copy of the encryption key, if they will not be loaded
+     */
+    public synchronized void clearDeferredTransactions() {
+        if(deferredTransactionsKey != null) {
+            deferredTransactionsKey.clear();
+            deferredTransactionsKey = null;
+        }
+        loadedTransactions = null;
+    }
+
+    /**
+     * Reads the deferred transactions that are not yet in the wallet, for when the wallet must be complete before LoadTransactionsService has finished
+     */
+    public synchronized void loadDeferredTransactions(Wallet wallet) throws IOException, StorageException {
+        if(!(persistence instanceof JsonPersistence) || deferredTransactionsKey == null) {
+            return;
+        }
+
+        Set<Sha256Hash> walletTransactions = new HashSet<>(loadedTransactions);
+        walletTransactions.addAll(wallet.getTransactions().keySet());
+        ((JsonPersistence)persistence).loadTransactions(walletFile, deferredTransactionsKey, txid -> !walletTransactions.contains(txid), Integer.MAX_VALUE, wallet::updateTransactions);
+    }
+
     protected Wallet loadBackupWallet(ECKey encryptionKey) throws IOException, StorageException {
         Map<File, Wallet> backupWallets;
         if(encryptionKey != null) {
@@ -92,6 +208,18 @@ public class Storage {
         walletFile = persistence.storeWallet(walletFile, wallet);
     }
 
+    /**
+     * Saves only the named changes to the wallet where the persistence supports it, returning false if the whole wallet must be saved instead
+     */
+    public boolean saveWalletChanges(Wallet wallet, WalletChanges changes) throws IOException {
+        if(!(persistence instanceof IncrementalPersistence) || changes.isAll()) {
+            return false;
+        }
+
+        ECKey storeKey = (encryptionPubKey != null && !NO_PASSWORD_KEY.equals(encryptionPubKey)) ? encryptionPubKey : null;
+        return ((IncrementalPersistence)persistence).storeWalletChanges(walletFile, wallet, storeKey, changes);
+    }
+
     public void backupWallet() throws IOException {
         if(walletFile.toPath().startsWith(getWalletsDir().toPath())) {
             backupWallet(null);
@@ -128,6 +256,15 @@ public class Storage {
             createOwnerOnlyFile(backupFile);
         }
         com.google.common.io.Files.copy(walletFile, backupFile);
+
+        File deltaLogFile = IncrementalPersistence.getDeltaLogFile(walletFile);
+        if(deltaLogFile.exists()) {
+            File backupDeltaLogFile = IncrementalPersistence.getDeltaLogFile(backupFile);
+            if(!backupDeltaLogFile.exists()) {
+                createOwnerOnlyFile(backupDeltaLogFile);
+            }
+            com.google.common.io.Files.copy(deltaLogFile, backupDeltaLogFile);
+        }
     }
 
     public void deleteBackups() {
@@ -142,6 +279,7 @@ public class Storage {
         File[] backups = getBackups(extension);
         for(File backup : backups) {
             backup.delete();
+            IncrementalPersistence.getDeltaLogFile(backup).delete();
         }
     }
 
@@ -279,6 +417,15 @@ public class Storage {
         return certsDir;
     }
 
+    public static File getTorDir() {
+        File torDir = new File(getSparrowHome(), TOR_DIR);
+        if(!torDir.exists()) {
+            createOwnerOnlyDirectory(torDir);
+        }
+
+        return torDir;
+    }
+
     static File getSparrowDir() {
         File sparrowDir;
         if(Network.get() != Network.MAINNET) {
@@ -366,19 +513,38 @@ public class Storage {
     }
 
     public static class LoadWalletService extends Service<WalletBackupAndKey> {
+        //Argon2 key derivation as used for wallet encryption requires 256MB, so the number of wallets loaded concurrently is bounded by the available heap
+        private static final long KEY_DERIVATION_MEMORY_BYTES = 256L * 1024 * 1024;
+        private static final long RESERVED_MEMORY_BYTES = 256L * 1024 * 1024;
+
+        private static ExecutorService loadWalletExecutor;
+
         private final Storage storage;
         private final SecureString password;
 
         public LoadWalletService(Storage storage, SecureString password) {
             this.storage = storage;
             this.password = password;
+            setExecutor(getLoadWalletExecutor());
+        }
+
+        private static synchronized ExecutorService getLoadWalletExecutor() {
+            if(loadWalletExecutor == null) {
+                Runtime runtime = Runtime.getRuntime();
+                long availableMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory()) - RESERVED_MEMORY_BYTES;
+                int threads = (int)Math.max(1, Math.min(runtime.availableProcessors(), availableMemory / KEY_DERIVATION_MEMORY_BYTES));
+                log.debug("Loading up to " + threads + " wallets concurrently");
+                loadWalletExecutor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("LoadWallet-%d").build());
+            }
+
+            return loadWalletExecutor;
         }
 
         @Override
         protected Task<WalletBackupAndKey> createTask() {
             return new Task<>() {
                 protected WalletBackupAndKey call() throws IOException, StorageException {
-                    WalletBackupAndKey walletBackupAndKey = storage.loadEncryptedWallet(password);
+                    WalletBackupAndKey walletBackupAndKey = storage.loadEncryptedWallet(password, true);
                     password.clear();
                     return walletBackupAndKey;
                 }
@@ -386,6 +552,41 @@ public class Storage {
         }
     }
 
+    /**
+     * Loads the transactions deferred by loadEncryptedWallet in the background, passing them in batches to the consumer on the JavaFX thread
+     */
+    public static class LoadTransactionsService extends Service<Void> {
+        private final Storage storage;
+        private final Consumer<Map<Sha256Hash, BlockTransaction>> batchConsumer;
+
+        public LoadTransactionsService(Storage storage, Consumer<Map<Sha256Hash, BlockTransaction>> batchConsumer) {
+            this.storage = storage;
+            this.batchConsumer = batchConsumer;
+        }
+
+        @Override
+        protected Task<Void> createTask() {
+            return new Task<>() {
+                protected Void call() throws IOException, StorageException {
+                    if(!(storage.persistence instanceof JsonPersistence) || storage.deferredTransactionsKey == null) {
+                        return null;
+                    }
+
+                    try {
+                        Set<Sha256Hash> loadedTransactions = storage.loadedTransactions;
+                        ((JsonPersistence)storage.persistence).loadTransactions(storage.walletFile, storage.deferredTransactionsKey, txid -> !loadedTransactions.contains(txid), DEFERRED_TRANSACTIONS_BATCH_SIZE,
+                                batch -> javafx.application.Platform.runLater(() -> batchConsumer.accept(batch)));
+                    } finally {
+                        //Cleared after the batches have been passed to the consumer, so the key remains available to loadDeferredTransactions until then
+                        javafx.application.Platform.runLater(storage::clearDeferredTransactions);
+                    }
+
+                    return null;
+                }
+            };
+        }
+    }
+
     public static class KeyDerivationService extends Service<ECKey> {
         private final Storage storage;
         private final SecureString password;
@@ -0,0 +1,60 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+
+import java.util.*;
+
+/**
+ * Describes what has changed in a wallet since it was last saved, as the address nodes and transactions that changed.
+ * The stored block height and birth date are always considered changed. Any other change requires the whole wallet to be saved.
+ */
+public class WalletChanges {
+    private static final WalletChanges ALL = new WalletChanges(Collections.emptySet(), Collections.emptySet(), true);
+
+    private final Set<WalletNode> nodes;
+    private final Set<Sha256Hash> transactions;
+    private final boolean all;
+
+    private WalletChanges(Set<WalletNode> nodes, Set<Sha256Hash> transactions, boolean all) {
+        this.nodes = nodes;
+        this.transactions = transactions;
+        this.all = all;
+    }
+
+    public static WalletChanges of(Collection<WalletNode> nodes, Collection<Sha256Hash> transactions) {
+        return new WalletChanges(Collections.unmodifiableSet(new LinkedHashSet<>(nodes)), Collections.unmodifiableSet(new LinkedHashSet<>(transactions)), false);
+    }
+
+    public static WalletChanges all() {
+        return ALL;
+    }
+
+    public Set<WalletNode> getNodes() {
+        return nodes;
+    }
+
+    public Set<Sha256Hash> getTransactions() {
+        return transactions;
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+
+    public WalletChanges merge(WalletChanges other) {
+        if(all || other == null) {
+            return this;
+        }
+
+        if(other.all) {
+            return other;
+        }
+
+        Set<WalletNode> mergedNodes = new LinkedHashSet<>(nodes);
+        mergedNodes.addAll(other.nodes);
+        Set<Sha256Hash> mergedTransactions = new LinkedHashSet<>(transactions);
+        mergedTransactions.addAll(other.transactions);
+        return of(mergedNodes, mergedTransactions);
+    }
+}
@@ -0,0 +1,287 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ConcurrentModificationException;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces bursts of save requests for a wallet into a single write, made off the JavaFX thread.
+ * Once a burst has settled, the changes named by the requests are written on a save thread while holding the wallet lock, which excludes history updates.
+ * Where the storage cannot write only those changes, the wallet is instead copied under the lock and the copy is then written.
+ * The writes of each wallet are made in turn, so they reach disk in the order they were requested, while different wallets are written concurrently.
+ */
+public class WalletSaveScheduler {
+    private static final Logger log = LoggerFactory.getLogger(WalletSaveScheduler.class);
+
+    public static final long SAVE_DELAY_MILLIS = 500;
+    public static final long MAX_SAVE_DELAY_MILLIS = 3000;
+
+    private static final int MAX_SNAPSHOT_ATTEMPTS = 3;
+
+    private static final ScheduledExecutorService saveTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("WalletSaveTimer-%d").build());
+    private static final ExecutorService saveExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("WalletSaveScheduler-%d").build());
+    private static final Set<WalletSaveScheduler> openSchedulers = ConcurrentHashMap.newKeySet();
+
+    private final Storage storage;
+    private final Supplier<Wallet> walletSupplier;
+    private final Function<Wallet, Object> walletLock;
+    private final Executor walletExecutor = MoreExecutors.newSequentialExecutor(saveExecutor);
+
+    private ScheduledFuture<?> scheduledSave;
+    private long firstRequestMillis;
+    private int pendingRequests;
+    private WalletChanges pendingChanges;
+    //Set while saves are held because the wallet is incomplete, to complete it if the scheduler is closed before they are released
+    private Runnable completeWallet;
+
+    //Metrics
+    private long saveCount;
+    private long coalescedRequests;
+    private long lastWriteMillis;
+    private long totalWriteMillis;
+    private long lastSaveLatencyMillis;
+
+    public WalletSaveScheduler(Storage storage, Supplier<Wallet> walletSupplier, Function<Wallet, Object> walletLock) {
+        this.storage = storage;
+        this.walletSupplier = walletSupplier;
+        this.walletLock = walletLock;
+    }
+
+    /**
+     * Requests a save of the given changes, which is delayed until no further requests have arrived for SAVE_DELAY_MILLIS, and at most by MAX_SAVE_DELAY_MILLIS
+     */
+    public synchronized void requestSave(WalletChanges changes) {
+        long now = System.currentTimeMillis();
+        pendingRequests++;
+        pendingChanges = changes.merge(pendingChanges);
+        openSchedulers.add(this);
+
+        if(completeWallet != null) {
+            if(pendingRequests == 1) {
+                firstRequestMillis = now;
+            }
+            return;
+        }
+
+        if(scheduledSave == null) {
+            firstRequestMillis = now;
+        } else if(!scheduledSave.cancel(false)) {
+            //Already started, and will include this request when it takes its snapshot
+            return;
+        }
+
+        long delay = Math.max(0, Math.min(SAVE_DELAY_MILLIS, firstRequestMillis + MAX_SAVE_DELAY_MILLIS - now));
+        scheduledSave = saveTimer.schedule(() -> walletExecutor.execute(this::snapshotAndWrite), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Holds requested saves until they are released, while the wallet is incomplete such as when its transactions are still loading.
+     * If the scheduler is closed while saves are held, the wallet is first completed with the given action and then saved.
+     */
+    public synchronized void holdSaves(Runnable completeWallet) {
+        this.completeWallet = completeWallet;
+    }
+
+    /**
+     * Releases saves held by holdSaves, saving without further delay if any were requested while held
+     */
+    public synchronized void releaseSaves() {
+        completeWallet = null;
+        if(pendingRequests > 0 && scheduledSave == null) {
+            scheduledSave = saveTimer.schedule(() -> walletExecutor.execute(this::snapshotAndWrite), 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void snapshotAndWrite() {
+        int requests;
+        long requestedMillis;
+        WalletChanges changes;
+        synchronized(this) {
+            if(pendingRequests == 0) {
+                return;
+            }
+
+            requests = pendingRequests;
+            requestedMillis = firstRequestMillis;
+            changes = pendingChanges;
+            pendingRequests = 0;
+            pendingChanges = null;
+            scheduledSave = null;
+        }
+
+        Wallet wallet = walletSupplier.get();
+        try {
+            //Changes made on the JavaFX thread do not take the wallet lock, so an attempt interrupted by one is retried
+            long start = System.currentTimeMillis();
+            boolean changesWritten = false;
+            Wallet snapshot = null;
+            synchronized(walletLock.apply(wallet)) {
+                for(int i = 0; i < MAX_SNAPSHOT_ATTEMPTS && !changesWritten && snapshot == null; i++) {
+                    try {
+                        changesWritten = storage.saveWalletChanges(wallet, changes);
+                        if(!changesWritten) {
+                            snapshot = wallet.copy();
+                        }
+                    } catch(ConcurrentModificationException e) {
+                        log.debug("Wallet " + wallet.getName() + " changed while being read for saving");
+                    }
+                }
+            }
+
+            if(changesWritten) {
+                recordWrite(wallet, requests, requestedMillis, start);
+            } else if(snapshot != null) {
+                write(snapshot, requests, requestedMillis);
+            } else {
+                //The wallet kept changing while being read, so try again once the changes have settled
+                synchronized(this) {
+                    pendingRequests += requests - 1;
+                }
+                requestSave(changes);
+            }
+        } catch(IOException e) {
+            log.error("Background wallet save failed", e);
+        }
+    }
+
+    /**
+     * Saves the current state of the wallet immediately, replacing any pending save, and waits for the write to complete.
+     * This only waits for earlier writes of this wallet, not those of other wallets.
+     * This must be called on the thread that makes changes to the wallet, normally the JavaFX thread.
+     */
+    public void saveNow() throws IOException {
+        int requests;
+        long requestedMillis;
+        synchronized(this) {
+            if(scheduledSave != null) {
+                scheduledSave.cancel(false);
+                scheduledSave = null;
+            }
+
+            requests = pendingRequests + 1;
+            requestedMillis = pendingRequests == 0 ? System.currentTimeMillis() : firstRequestMillis;
+            pendingRequests = 0;
+            pendingChanges = null;
+        }
+
+        Wallet wallet = walletSupplier.get();
+        FutureTask<Void> future = new FutureTask<>(() -> {
+            write(wallet, requests, requestedMillis);
+            return null;
+        });
+        walletExecutor.execute(future);
+
+        try {
+            future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while saving wallet", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+
+            throw new IOException("Error saving wallet", e.getCause());
+        }
+    }
+
+    private void write(Wallet wallet, int requests, long requestedMillis) throws IOException {
+        long start = System.currentTimeMillis();
+        storage.saveWallet(wallet);
+        recordWrite(wallet, requests, requestedMillis, start);
+    }
+
+    private void recordWrite(Wallet wallet, int requests, long requestedMillis, long start) {
+        long end = System.currentTimeMillis();
+
+        synchronized(this) {
+            saveCount++;
+            coalescedRequests += requests;
+            lastWriteMillis = end - start;
+            totalWriteMillis += lastWriteMillis;
+            lastSaveLatencyMillis = end - requestedMillis;
+        }
+
+        log.debug("Saved " + wallet.getName() + " in " + (end - start) + "ms, " + (end - requestedMillis) + "ms after the first of " + requests + " requests");
+    }
+
+    /**
+     * Writes any pending or held save, and waits for writes of this wallet already queued to complete.
+     * This must be called on the thread that makes changes to the wallet, normally the JavaFX thread.
+     */
+    public void close() {
+        Runnable completion;
+        synchronized(this) {
+            completion = completeWallet;
+            completeWallet = null;
+        }
+
+        if(completion != null && getQueueDepth() > 0) {
+            //Writing the incomplete wallet would lose the parts that are not yet loaded
+            completion.run();
+        }
+
+        boolean pending;
+        synchronized(this) {
+            pending = pendingRequests > 0;
+        }
+
+        try {
+            if(pending) {
+                saveNow();
+            } else {
+                FutureTask<Void> written = new FutureTask<>(() -> {}, null);
+                walletExecutor.execute(written);
+                written.get();
+            }
+        } catch(IOException | ExecutionException e) {
+            log.error("Error saving wallet on close", e);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        openSchedulers.remove(this);
+    }
+
+    /**
+     * Writes pending saves for all open wallets, for use on application shutdown
+     */
+    public static void closeAll() {
+        for(WalletSaveScheduler scheduler : openSchedulers) {
+            scheduler.close();
+        }
+    }
+
+    public synchronized int getQueueDepth() {
+        return pendingRequests;
+    }
+
+    public synchronized long getSaveCount() {
+        return saveCount;
+    }
+
+    public synchronized double getCoalescingRatio() {
+        return saveCount == 0 ? 0d : (double)coalescedRequests / saveCount;
+    }
+
+    public synchronized long getLastWriteMillis() {
+        return lastWriteMillis;
+    }
+
+    public synchronized long getAverageWriteMillis() {
+        return saveCount == 0 ? 0 : totalWriteMillis / saveCount;
+    }
+
+    public synchronized long getLastSaveLatencyMillis() {
+        return lastSaveLatencyMillis;
+    }
+}
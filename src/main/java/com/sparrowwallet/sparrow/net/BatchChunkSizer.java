@@ -0,0 +1,66 @@
+package com.sparrowwallet.sparrow.net;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Learns the number of requests to send in each chunk of a batched query, per server and method.
+ * Chunks are sized so that a single round trip takes around TARGET_CHUNK_MILLIS, and the response stays under MAX_CHUNK_RESPONSE_CHARS.
+ */
+public class BatchChunkSizer {
+    private static final Logger log = LoggerFactory.getLogger(BatchChunkSizer.class);
+
+    public static final int MIN_CHUNK_SIZE = 10;
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+    public static final int MAX_CHUNK_SIZE = 2000;
+    private static final long TARGET_CHUNK_MILLIS = 2000;
+    private static final long MAX_CHUNK_RESPONSE_CHARS = 2 * 1024 * 1024;
+
+    private static final Map<String, BatchChunkSizer> chunkSizers = new ConcurrentHashMap<>();
+
+    private final String name;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    private BatchChunkSizer(String name) {
+        this.name = name;
+    }
+
+    public static BatchChunkSizer get(String server, String method) {
+        return chunkSizers.computeIfAbsent(server + " " + method, BatchChunkSizer::new);
+    }
+
+    public synchronized int getChunkSize() {
+        return chunkSize;
+    }
+
+    public synchronized void recordSuccess(int requests, long elapsedMillis, long responseChars) {
+        if(requests < chunkSize / 2) {
+            //Too few requests in a trailing chunk to extrapolate from
+            return;
+        }
+
+        double millisPerRequest = Math.max(elapsedMillis, 1) / (double)requests;
+        double charsPerRequest = Math.max(responseChars, 1) / (double)requests;
+        int idealSize = (int)Math.min(TARGET_CHUNK_MILLIS / millisPerRequest, MAX_CHUNK_RESPONSE_CHARS / charsPerRequest);
+
+        //Move a quarter of the way to the ideal size, never more than doubling or halving at a time
+        int smoothedSize = chunkSize + (idealSize - chunkSize) / 4;
+        smoothedSize = Math.max(chunkSize / 2, Math.min(chunkSize * 2, smoothedSize));
+        setChunkSize(smoothedSize);
+    }
+
+    public synchronized void recordFailure() {
+        setChunkSize(chunkSize / 2);
+    }
+
+    private void setChunkSize(int size) {
+        int newSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size));
+        if(newSize != chunkSize) {
+            log.debug("Chunk size for " + name + " changed from " + chunkSize + " to " + newSize);
+            chunkSize = newSize;
+        }
+    }
+}
@@ -5,6 +5,8 @@ import com.github.arteam.simplejsonrpc.client.Transport;
 import com.github.arteam.simplejsonrpc.client.builder.BatchRequestBuilder;
 import com.github.arteam.simplejsonrpc.client.exception.JsonRpcBatchException;
 import com.github.arteam.simplejsonrpc.client.exception.JsonRpcException;
+import com.github.arteam.simplejsonrpc.core.domain.ErrorMessage;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sparrowwallet.drongo.KeyDerivation;
 import com.sparrowwallet.drongo.crypto.ChildNumber;
 import com.sparrowwallet.drongo.protocol.Sha256Hash;
@@ -16,6 +18,7 @@ import org.slf4j.LoggerFactory;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -23,8 +26,16 @@ public class BatchedElectrumServerRpc implements ElectrumServerRpc {
     private static final Logger log = LoggerFactory.getLogger(BatchedElectrumServerRpc.class);
     private static final int MAX_RETRIES = 5;
     private static final int RETRY_DELAY = 1;
+    private static final int MAX_CHUNKS_IN_FLIGHT = 4;
+
+    private static final ExecutorService chunkExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("BatchedElectrumServerRpc-%d").build());
 
     private final AtomicLong idCounter = new AtomicLong();
+    private final String server;
+
+    public BatchedElectrumServerRpc(String server) {
+        this.server = server;
+    }
 
     @Override
     public void ping(Transport transport) {
@@ -71,32 +82,27 @@ public class BatchedElectrumServerRpc implements ElectrumServerRpc {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Map<String, ScriptHashTx[]> getScriptHashHistory(Transport transport, Wallet wallet, Map<String, String> pathScriptHashes, boolean failOnError) {
-        JsonRpcClient client = new JsonRpcClient(transport);
-        BatchRequestBuilder<String, ScriptHashTx[]> batchRequest = client.createBatchRequest().keysType(String.class).returnType(ScriptHashTx[].class);
         EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Loading transactions for " + getScriptHashesAbbreviation(pathScriptHashes.keySet())));
 
-        for(String path : pathScriptHashes.keySet()) {
-            batchRequest.add(path, "blockchain.scripthash.get_history", pathScriptHashes.get(path));
+        ChunkedResult<String, ScriptHashTx[]> result;
+        try {
+            result = executeChunked(transport, "blockchain.scripthash.get_history", String.class, ScriptHashTx[].class, getKeyParams(pathScriptHashes), List.of(IllegalStateException.class, IllegalArgumentException.class));
+        } catch(Exception e) {
+            throw new ElectrumServerRpcException("Failed to retrieve transaction history for paths: " + getScriptHashesAbbreviation(pathScriptHashes.keySet()), e);
         }
 
-        try {
-            return new RetryLogic<Map<String, ScriptHashTx[]>>(MAX_RETRIES, RETRY_DELAY, List.of(IllegalStateException.class, IllegalArgumentException.class)).getResult(batchRequest::execute);
-        } catch (JsonRpcBatchException e) {
+        if(!result.errors.isEmpty()) {
             if(failOnError) {
-                throw new ElectrumServerRpcException("Failed to retrieve transaction history for paths: " + getScriptHashesAbbreviation((Collection<String>)e.getErrors().keySet()), e);
+                throw new ElectrumServerRpcException("Failed to retrieve transaction history for paths: " + getScriptHashesAbbreviation(result.errors.keySet()));
             }
 
-            Map<String, ScriptHashTx[]> result = (Map<String, ScriptHashTx[]>)e.getSuccesses();
-            for(Object key : e.getErrors().keySet()) {
-                result.put((String)key, new ScriptHashTx[] {ScriptHashTx.ERROR_TX});
+            for(String path : result.errors.keySet()) {
+                result.successes.put(path, new ScriptHashTx[] {ScriptHashTx.ERROR_TX});
             }
-
-            return result;
-        } catch(Exception e) {
-            throw new ElectrumServerRpcException("Failed to retrieve transaction history for paths: " + getScriptHashesAbbreviation(pathScriptHashes.keySet()), e);
         }
+
+        return result.successes;
     }
 
     @Override
@@ -128,72 +134,62 @@ public class BatchedElectrumServerRpc implements ElectrumServerRpc {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Map<String, String> subscribeScriptHashes(Transport transport, Wallet wallet, Map<String, String> pathScriptHashes) {
-        JsonRpcClient client = new JsonRpcClient(transport);
-        BatchRequestBuilder<String, String> batchRequest = client.createBatchRequest().keysType(String.class).returnType(String.class);
         EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Finding transactions for " + getScriptHashesAbbreviation(pathScriptHashes.keySet())));
 
-        for(String path : pathScriptHashes.keySet()) {
-            batchRequest.add(path, "blockchain.scripthash.subscribe", pathScriptHashes.get(path));
-        }
-
+        ChunkedResult<String, String> result;
         try {
-            return new RetryLogic<Map<String, String>>(MAX_RETRIES, RETRY_DELAY, List.of(IllegalStateException.class, IllegalArgumentException.class)).getResult(batchRequest::execute);
-        } catch(JsonRpcBatchException e) {
-            //Even if we have some successes, failure to subscribe for all script hashes will result in outdated wallet view. Don't proceed.
-            throw new ElectrumServerRpcException("Failed to subscribe to paths: " + getScriptHashesAbbreviation((Collection<String>)e.getErrors().keySet()), e);
+            result = executeChunked(transport, "blockchain.scripthash.subscribe", String.class, String.class, getKeyParams(pathScriptHashes), List.of(IllegalStateException.class, IllegalArgumentException.class));
         } catch(Exception e) {
             throw new ElectrumServerRpcException("Failed to subscribe to paths: " + getScriptHashesAbbreviation(pathScriptHashes.keySet()), e);
         }
+
+        if(!result.errors.isEmpty()) {
+            //Even if we have some successes, failure to subscribe for all script hashes will result in outdated wallet view. Don't proceed.
+            throw new ElectrumServerRpcException("Failed to subscribe to paths: " + getScriptHashesAbbreviation(result.errors.keySet()));
+        }
+
+        return result.successes;
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Map<Integer, String> getBlockHeaders(Transport transport, Wallet wallet, Set<Integer> blockHeights) {
-        JsonRpcClient client = new JsonRpcClient(transport);
-        BatchRequestBuilder<Integer, String> batchRequest = client.createBatchRequest().keysType(Integer.class).returnType(String.class);
         EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Retrieving " + blockHeights.size() + " block headers"));
 
+        Map<Integer, Object[]> keyParams = new LinkedHashMap<>(blockHeights.size());
         for(Integer height : blockHeights) {
-            batchRequest.add(height, "blockchain.block.header", height);
+            keyParams.put(height, new Object[] {height});
         }
 
         try {
-            return new RetryLogic<Map<Integer, String>>(MAX_RETRIES, RETRY_DELAY, IllegalStateException.class).getResult(batchRequest::execute);
-        } catch(JsonRpcBatchException e) {
-            return (Map<Integer, String>)e.getSuccesses();
+            return executeChunked(transport, "blockchain.block.header", Integer.class, String.class, keyParams, List.of(IllegalStateException.class)).successes;
         } catch(Exception e) {
             throw new ElectrumServerRpcException("Failed to retrieve block headers for block heights: " + blockHeights, e);
         }
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Map<String, String> getTransactions(Transport transport, Wallet wallet, Set<String> txids) {
-        JsonRpcClient client = new JsonRpcClient(transport);
-        BatchRequestBuilder<String, String> batchRequest = client.createBatchRequest().keysType(String.class).returnType(String.class);
         EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Retrieving " + txids.size() + " transactions"));
 
+        Map<String, Object[]> keyParams = new LinkedHashMap<>(txids.size());
         for(String txid : txids) {
-            batchRequest.add(txid, "blockchain.transaction.get", txid);
+            keyParams.put(txid, new Object[] {txid});
         }
 
+        ChunkedResult<String, String> result;
         try {
-            return new RetryLogic<Map<String, String>>(MAX_RETRIES, RETRY_DELAY, IllegalStateException.class).getResult(batchRequest::execute);
-        } catch(JsonRpcBatchException e) {
-            Map<String, String> result = (Map<String, String>)e.getSuccesses();
-
-            String strErrorTx = Sha256Hash.ZERO_HASH.toString();
-            for(Object hash : e.getErrors().keySet()) {
-                String txhash = (String)hash;
-                result.put(txhash, strErrorTx);
-            }
-
-            return result;
+            result = executeChunked(transport, "blockchain.transaction.get", String.class, String.class, keyParams, List.of(IllegalStateException.class));
         } catch(Exception e) {
             throw new ElectrumServerRpcException("Failed to retrieve transactions for txids: " + txids.stream().map(txid -> "[" + txid.substring(0, 6) + "]").collect(Collectors.toList()), e);
         }
+
+        String strErrorTx = Sha256Hash.ZERO_HASH.toString();
+        for(String txid : result.errors.keySet()) {
+            result.successes.put(txid, strErrorTx);
+        }
+
+        return result.successes;
     }
 
     @Override
@@ -277,6 +273,102 @@ public class BatchedElectrumServerRpc implements ElectrumServerRpc {
         }
     }
 
+    private static Map<String, Object[]> getKeyParams(Map<String, String> pathScriptHashes) {
+        Map<String, Object[]> keyParams = new LinkedHashMap<>(pathScriptHashes.size());
+        for(String path : pathScriptHashes.keySet()) {
+            keyParams.put(path, new Object[] {pathScriptHashes.get(path)});
+        }
+
+        return keyParams;
+    }
+
+    /**
+     * Splits a batched query into chunks sized by the BatchChunkSizer for this server and method, keeping up to MAX_CHUNKS_IN_FLIGHT chunks pipelined at once.
+     * Each chunk is retried independently, so a failure only resends the requests in that chunk.
+     */
+    @SuppressWarnings("rawtypes")
+    private <K, V> ChunkedResult<K, V> executeChunked(Transport transport, String method, Class<K> keysType, Class<V> returnType, Map<K, Object[]> keyParams, List<Class> retryExceptionTypes) throws Exception {
+        BatchChunkSizer chunkSizer = BatchChunkSizer.get(server, method);
+        CompletionService<ChunkedResult<K, V>> completionService = new ExecutorCompletionService<>(chunkExecutor);
+        List<Future<ChunkedResult<K, V>>> futures = new ArrayList<>();
+        ChunkedResult<K, V> result = new ChunkedResult<>();
+
+        Iterator<Map.Entry<K, Object[]>> iter = keyParams.entrySet().iterator();
+        int inFlight = 0;
+        try {
+            while(iter.hasNext() || inFlight > 0) {
+                while(iter.hasNext() && inFlight < MAX_CHUNKS_IN_FLIGHT) {
+                    Map<K, Object[]> chunk = new LinkedHashMap<>();
+                    int chunkSize = chunkSizer.getChunkSize();
+                    while(iter.hasNext() && chunk.size() < chunkSize) {
+                        Map.Entry<K, Object[]> entry = iter.next();
+                        chunk.put(entry.getKey(), entry.getValue());
+                    }
+
+                    futures.add(completionService.submit(() -> executeChunk(transport, method, keysType, returnType, chunk, retryExceptionTypes, chunkSizer)));
+                    inFlight++;
+                }
+
+                Future<ChunkedResult<K, V>> completed = completionService.take();
+                inFlight--;
+                try {
+                    result.addAll(completed.get());
+                } catch(ExecutionException e) {
+                    if(e.getCause() instanceof Exception) {
+                        throw (Exception)e.getCause();
+                    }
+
+                    throw e;
+                }
+            }
+
+            return result;
+        } finally {
+            for(Future<ChunkedResult<K, V>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private <K, V> ChunkedResult<K, V> executeChunk(Transport transport, String method, Class<K> keysType, Class<V> returnType, Map<K, Object[]> chunk, List<Class> retryExceptionTypes, BatchChunkSizer chunkSizer) throws Exception {
+        AtomicLong responseChars = new AtomicLong();
+        Transport measuredTransport = request -> {
+            String response = transport.pass(request);
+            responseChars.addAndGet(response.length());
+            return response;
+        };
+
+        JsonRpcClient client = new JsonRpcClient(measuredTransport);
+        BatchRequestBuilder<K, V> batchRequest = client.createBatchRequest().keysType(keysType).returnType(returnType);
+        for(Map.Entry<K, Object[]> entry : chunk.entrySet()) {
+            batchRequest.add(entry.getKey(), method, entry.getValue());
+        }
+
+        ChunkedResult<K, V> result = new ChunkedResult<>();
+        try {
+            result.successes.putAll(new RetryLogic<Map<K, V>>(MAX_RETRIES, RETRY_DELAY, retryExceptionTypes).getResult(() -> {
+                long start = System.currentTimeMillis();
+                responseChars.set(0);
+                try {
+                    Map<K, V> successes = batchRequest.execute();
+                    chunkSizer.recordSuccess(chunk.size(), System.currentTimeMillis() - start, responseChars.get());
+                    return successes;
+                } catch(IllegalStateException e) {
+                    chunkSizer.recordFailure();
+                    throw e;
+                }
+            }));
+        } catch(JsonRpcBatchException e) {
+            result.successes.putAll((Map<K, V>)e.getSuccesses());
+            for(Object key : e.getErrors().keySet()) {
+                result.errors.put((K)key, e.getErrors().get(key));
+            }
+        }
+
+        return result;
+    }
+
     private static String getScriptHashesAbbreviation(Collection<String> scriptHashes) {
         List<String> sortedHashes = new ArrayList<>(scriptHashes);
 
@@ -337,4 +429,14 @@ public class BatchedElectrumServerRpc implements ElectrumServerRpc {
         }
         return childNumbers.get(childNumbers.size() - 1).num();
     }
+
+    private static class ChunkedResult<K, V> {
+        private final Map<K, V> successes = new LinkedHashMap<>();
+        private final Map<K, ErrorMessage> errors = new LinkedHashMap<>();
+
+        public void addAll(ChunkedResult<K, V> chunkResult) {
+            successes.putAll(chunkResult.successes);
+            errors.putAll(chunkResult.errors);
+        }
+    }
 }
@@ -1,7 +1,8 @@
 package com.sparrowwallet.sparrow.net;
 
 import com.github.arteam.simplejsonrpc.client.Transport;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.net.HostAndPort;
 import com.sparrowwallet.drongo.KeyPurpose;
@@ -12,6 +13,7 @@ import com.sparrowwallet.drongo.wallet.*;
 import com.sparrowwallet.sparrow.AppServices;
 import com.sparrowwallet.sparrow.EventManager;
 import com.sparrowwallet.sparrow.event.*;
+import com.sparrowwallet.sparrow.io.BlockchainCache;
 import com.sparrowwallet.sparrow.io.Config;
 import com.sparrowwallet.sparrow.wallet.SendController;
 import javafx.application.Platform;
@@ -26,7 +28,14 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.Condition;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -35,21 +44,45 @@ import java.util.stream.Collectors;
 public class ElectrumServer {
     private static final Logger log = LoggerFactory.getLogger(ElectrumServer.class);
 
-    private static final String[] SUPPORTED_VERSIONS = new String[]{"1.3", "1.4.2"};
+    static final String[] SUPPORTED_VERSIONS = new String[]{"1.3", "1.4.2"};
 
     private static final Version ELECTRS_MIN_BATCHING_VERSION = new Version("0.9.0");
 
     private static final int MINIMUM_BROADCASTS = 2;
 
+    private static final int MIN_CACHED_HEADER_CONFIRMATIONS = 6;
+
     public static final BlockTransaction UNFETCHABLE_BLOCK_TRANSACTION = new BlockTransaction(Sha256Hash.ZERO_HASH, 0, null, null, null);
 
     private static Transport transport;
 
-    private static final Map<String, Set<String>> subscribedScriptHashes = Collections.synchronizedMap(new HashMap<>());
+    private static TransportPool transportPool;
+
+    private static HedgedRequests hedgedRequests;
+
+    private static List<PublicElectrumServer> rankedPublicServers = Collections.emptyList();
+
+    private static Future<?> publicServerRanking;
+
+    private static String publicServerRankingProxy;
+
+    //Recent statuses of subscribed script hashes, so that notifications repeating an earlier status can be ignored
+    private static final int MAX_SUBSCRIBED_STATUS_HISTORY = 8;
+    private static final ScriptHashStatusTable subscribedScriptHashes = new ScriptHashStatusTable(MAX_SUBSCRIBED_STATUS_HISTORY);
 
     private static String previousServerAddress;
 
-    private static Map<String, String> retrievedScriptHashes = Collections.synchronizedMap(new HashMap<>());
+    private static final ScriptHashStatusTable retrievedScriptHashes = new ScriptHashStatusTable(1);
+
+    //Confirmed history of script hashes with long histories, in server order, so that changes to these can be refreshed from the mempool alone
+    private static final Map<String, List<ScriptHashTx>> confirmedScriptHashHistories = Collections.synchronizedMap(new HashMap<>());
+
+    public static final int MEMPOOL_REFRESH_MIN_CONFIRMED = 20;
+
+    //Wallets with a full history fetched from the current server, which only need to be resubscribed after a reconnection
+    private static final Set<Wallet> synchronizedWallets = Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+
+    public static final int RESUBSCRIBE_BATCH_SIZE = 100;
 
     private static ElectrumServerRpc electrumServerRpc = new SimpleElectrumServerRpc();
 
@@ -57,6 +90,17 @@ public class ElectrumServer {
 
     private static final Pattern RPC_WALLET_LOADING_PATTERN = Pattern.compile(".*\"(Wallet loading failed:[^\"]*)\".*");
 
+    //Nodes changed by the history requests of this instance, so that each history refresh reports only its own changes
+    private final WalletHistoryJournal historyJournal;
+
+    public ElectrumServer() {
+        this(new WalletHistoryJournal());
+    }
+
+    public ElectrumServer(WalletHistoryJournal historyJournal) {
+        this.historyJournal = historyJournal;
+    }
+
     private static synchronized Transport getTransport() throws ServerException {
         if(transport == null) {
             try {
@@ -86,33 +130,15 @@ public class ElectrumServer {
                     throw new ServerConfigException("Electrum server certificate file not found");
                 }
 
-                Protocol protocol = Protocol.getProtocol(electrumServer);
-                if(protocol == null) {
-                    throw new ServerConfigException("Electrum server URL must start with " + Protocol.TCP.toUrlString() + " or " + Protocol.SSL.toUrlString());
-                }
-
                 //If changing server, don't rely on previous transaction history
                 if(previousServerAddress != null && !electrumServer.equals(previousServerAddress)) {
                     retrievedScriptHashes.clear();
+                    confirmedScriptHashHistories.clear();
+                    synchronizedWallets.clear();
                 }
                 previousServerAddress = electrumServer;
 
-                HostAndPort server = protocol.getServerHostAndPort(electrumServer);
-
-                if(Config.get().isUseProxy() && proxyServer != null && !proxyServer.isBlank()) {
-                    HostAndPort proxy = HostAndPort.fromString(proxyServer);
-                    if(electrumServerCert != null) {
-                        transport = protocol.getTransport(server, electrumServerCert, proxy);
-                    } else {
-                        transport = protocol.getTransport(server, proxy);
-                    }
-                } else {
-                    if(electrumServerCert != null) {
-                        transport = protocol.getTransport(server, electrumServerCert);
-                    } else {
-                        transport = protocol.getTransport(server);
-                    }
-                }
+                transport = createTransport(electrumServer, electrumServerCert, proxyServer);
             } catch (Exception e) {
                 throw new ServerConfigException(e);
             }
@@ -121,11 +147,179 @@ public class ElectrumServer {
         return transport;
     }
 
+    static Transport createTransport(String electrumServer, File electrumServerCert, String proxyServer) throws Exception {
+        Protocol protocol = Protocol.getProtocol(electrumServer);
+        if(protocol == null) {
+            throw new ServerConfigException("Electrum server URL must start with " + Protocol.TCP.toUrlString() + " or " + Protocol.SSL.toUrlString());
+        }
+
+        HostAndPort server = protocol.getServerHostAndPort(electrumServer);
+
+        if(Config.get().isUseProxy() && proxyServer != null && !proxyServer.isBlank()) {
+            HostAndPort proxy = HostAndPort.fromString(proxyServer);
+            if(electrumServerCert != null) {
+                return protocol.getTransport(server, electrumServerCert, proxy);
+            } else {
+                return protocol.getTransport(server, proxy);
+            }
+        } else {
+            if(electrumServerCert != null) {
+                return protocol.getTransport(server, electrumServerCert);
+            } else {
+                return protocol.getTransport(server);
+            }
+        }
+    }
+
+    /**
+     * Opens additional connections to the configured Electrum server and server pool, across which wallet synchronization is sharded by script hash
+     */
+    public void connectPool(boolean multiplexed) {
+        if(Config.get().getServerType() != ServerType.ELECTRUM_SERVER || Config.get().getElectrumServerConnections() < 2) {
+            return;
+        }
+
+        TransportPool pool = new TransportPool();
+        pool.connect(Config.get().getElectrumServer(), Config.get().getElectrumServerPool(), Config.get().getElectrumServerConnections() - 1, multiplexed, electrumServerRpc);
+        synchronized(ElectrumServer.class) {
+            transportPool = pool;
+        }
+    }
+
+    private static synchronized TransportPool getTransportPool() {
+        return transportPool;
+    }
+
+    /**
+     * Probes the public servers in the background, once per session and proxy setting, to order the choice of standby and fallback servers.
+     * The configured public server is not changed, and connecting does not wait for the ranking. Ranking is only done if enabled in the config.
+     */
+    public void rankPublicServers() {
+        if(Config.get().getServerType() != ServerType.PUBLIC_ELECTRUM_SERVER || !Config.get().isRankPublicServers()) {
+            return;
+        }
+
+        String proxyServer = Config.get().getProxyServer();
+        synchronized(ElectrumServer.class) {
+            if(publicServerRanking != null && (!publicServerRanking.isDone() || Objects.equals(proxyServer, publicServerRankingProxy))) {
+                return;
+            }
+
+            publicServerRankingProxy = proxyServer;
+            publicServerRanking = PublicElectrumServerRanking.rankInBackground(proxyServer, ranked -> {
+                synchronized(ElectrumServer.class) {
+                    rankedPublicServers = ranked;
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the public servers that responded to the most recent ranking this session, fastest first, or an empty list if no ranking has completed
+     */
+    public static synchronized List<PublicElectrumServer> getRankedPublicServers() {
+        return rankedPublicServers;
+    }
+
+    /**
+     * Connects a warm standby to the fastest responding public server other than the active one, to which idempotent reads are hedged
+     */
+    public void connectStandby() {
+        List<String> standbyServers;
+        synchronized(ElectrumServer.class) {
+            if(Config.get().getServerType() != ServerType.PUBLIC_ELECTRUM_SERVER || !Config.get().isRankPublicServers() || hedgedRequests != null) {
+                return;
+            }
+
+            standbyServers = rankedPublicServers.stream().map(PublicElectrumServer::getUrl).filter(url -> !url.equals(previousServerAddress)).collect(Collectors.toList());
+        }
+
+        if(standbyServers.isEmpty()) {
+            //The ranking has not completed yet, so the standby is connected on a later connection check
+            return;
+        }
+
+        HedgedRequests hedged = new HedgedRequests();
+        if(hedged.connect(standbyServers, Config.get().getProxyServer(), electrumServerRpc instanceof BatchedElectrumServerRpc, electrumServerRpc)) {
+            synchronized(ElectrumServer.class) {
+                hedgedRequests = hedged;
+            }
+        }
+    }
+
+    /**
+     * Keeps the standby connection alive, replacing it if it has failed, or connects it if the ranking has completed since connecting
+     */
+    public void keepStandbyAlive() {
+        HedgedRequests hedged = getHedgedRequests();
+        if(hedged == null) {
+            connectStandby();
+        } else if(!Config.get().isRankPublicServers() || !hedged.keepAlive(electrumServerRpc)) {
+            //Close the standby if it has failed, or if hedging has been switched off since it was connected
+            try {
+                hedged.close();
+            } catch(IOException e) {
+                log.debug("Error closing standby connection", e);
+            }
+
+            synchronized(ElectrumServer.class) {
+                if(hedgedRequests == hedged) {
+                    hedgedRequests = null;
+                }
+            }
+
+            connectStandby();
+        }
+    }
+
+    private static synchronized HedgedRequests getHedgedRequests() {
+        return hedgedRequests;
+    }
+
+    /**
+     * Executes an idempotent read on the active connection, hedged to the standby connection if one is open
+     */
+    private static <R> R executeHedged(int items, Function<Transport, R> call) throws ServerException {
+        HedgedRequests hedged = getHedgedRequests();
+        if(hedged == null) {
+            return call.apply(getTransport());
+        }
+
+        return hedged.execute(getTransport(), items, call);
+    }
+
+    /**
+     * Executes a call over the keys, divided into shards across the connection pool if one is open, and otherwise in a single call on the active connection.
+     * The shard for each key is chosen by the provided shard key, so that a script hash is always subscribed on, and notified from, the same connection.
+     */
+    private static <K, R> Map<K, R> executeSharded(Collection<K> keys, Function<K, String> shardKey, BiFunction<Transport, Set<K>, Map<K, R>> call) throws ServerException {
+        TransportPool pool = getTransportPool();
+        if(pool == null) {
+            return call.apply(getTransport(), new LinkedHashSet<>(keys));
+        }
+
+        return pool.execute(getTransport(), keys, shardKey, call);
+    }
+
+    private static Map<String, String> getPathScriptHashes(Map<String, String> pathScriptHashes, Set<String> paths) {
+        Map<String, String> shardPathScriptHashes = new LinkedHashMap<>(paths.size());
+        for(String path : paths) {
+            shardPathScriptHashes.put(path, pathScriptHashes.get(path));
+        }
+
+        return shardPathScriptHashes;
+    }
+
     public void connect() throws ServerException {
         TcpTransport tcpTransport = (TcpTransport)getTransport();
         tcpTransport.connect();
     }
 
+    public void setMultiplexed(boolean multiplexed) throws ServerException {
+        TcpTransport tcpTransport = (TcpTransport)getTransport();
+        tcpTransport.setMultiplexed(multiplexed);
+    }
+
     public void ping() throws ServerException {
         electrumServerRpc.ping(getTransport());
     }
@@ -153,6 +347,16 @@ public class ElectrumServer {
 
     public static synchronized void closeActiveConnection() throws ServerException {
         try {
+            if(transportPool != null) {
+                transportPool.close();
+                transportPool = null;
+            }
+
+            if(hedgedRequests != null) {
+                hedgedRequests.close();
+                hedgedRequests = null;
+            }
+
             if(transport != null) {
                 Closeable closeableTransport = (Closeable)transport;
                 closeableTransport.close();
@@ -164,8 +368,8 @@ public class ElectrumServer {
     }
 
     public static void addCalculatedScriptHashes(Wallet wallet) {
-        calculateScriptHashes(wallet, KeyPurpose.RECEIVE).forEach(retrievedScriptHashes::putIfAbsent);
-        calculateScriptHashes(wallet, KeyPurpose.CHANGE).forEach(retrievedScriptHashes::putIfAbsent);
+        calculateScriptHashes(wallet, KeyPurpose.RECEIVE).forEach(retrievedScriptHashes::putStatusIfAbsent);
+        calculateScriptHashes(wallet, KeyPurpose.CHANGE).forEach(retrievedScriptHashes::putStatusIfAbsent);
     }
 
     private static Map<String, String> calculateScriptHashes(Wallet wallet, KeyPurpose keyPurpose) {
@@ -209,8 +413,64 @@ public class ElectrumServer {
     }
 
     public static void clearRetrievedScriptHashes(Wallet wallet) {
-        wallet.getNode(KeyPurpose.RECEIVE).getChildren().stream().map(node -> getScriptHash(wallet, node)).forEach(scriptHash -> retrievedScriptHashes.remove(scriptHash));
-        wallet.getNode(KeyPurpose.CHANGE).getChildren().stream().map(node -> getScriptHash(wallet, node)).forEach(scriptHash -> retrievedScriptHashes.remove(scriptHash));
+        synchronizedWallets.remove(wallet);
+        wallet.getNode(KeyPurpose.RECEIVE).getChildren().stream().map(node -> getScriptHash(wallet, node)).forEach(retrievedScriptHashes::remove);
+        wallet.getNode(KeyPurpose.CHANGE).getChildren().stream().map(node -> getScriptHash(wallet, node)).forEach(retrievedScriptHashes::remove);
+        wallet.getNode(KeyPurpose.RECEIVE).getChildren().stream().map(node -> getScriptHash(wallet, node)).forEach(confirmedScriptHashHistories::remove);
+        wallet.getNode(KeyPurpose.CHANGE).getChildren().stream().map(node -> getScriptHash(wallet, node)).forEach(confirmedScriptHashHistories::remove);
+    }
+
+    /**
+     * Whether the full history of the wallet has been fetched from the current server, so that after a reconnection only changed nodes need to be refreshed
+     */
+    public static boolean isSynchronized(Wallet wallet) {
+        return synchronizedWallets.contains(wallet);
+    }
+
+    /**
+     * Orders the wallet nodes for resubscription, starting with nodes with unconfirmed activity and the unused receive nodes a payment is most likely to arrive on,
+     * followed by the other used nodes from the most recently active, and finally the remaining unused nodes
+     */
+    static List<WalletNode> getResubscriptionOrder(Wallet wallet) {
+        List<WalletNode> priorityNodes = new ArrayList<>();
+        List<WalletNode> activeNodes = new ArrayList<>();
+        List<WalletNode> remainingNodes = new ArrayList<>();
+        Map<WalletNode, Integer> activityHeights = new HashMap<>();
+
+        for(KeyPurpose keyPurpose : List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE)) {
+            WalletNode purposeNode = wallet.getNode(keyPurpose);
+            int highestUsedIndex = purposeNode.getChildren().stream().filter(node -> !node.getTransactionOutputs().isEmpty()).mapToInt(WalletNode::getIndex).max().orElse(-1);
+            for(WalletNode node : purposeNode.getChildren()) {
+                int activityHeight = getLastActivityHeight(node);
+                if(activityHeight == Integer.MAX_VALUE || (activityHeight < 0 && keyPurpose == KeyPurpose.RECEIVE && node.getIndex() > highestUsedIndex)) {
+                    priorityNodes.add(node);
+                } else if(activityHeight < 0) {
+                    remainingNodes.add(node);
+                } else {
+                    activeNodes.add(node);
+                    activityHeights.put(node, activityHeight);
+                }
+            }
+        }
+
+        activeNodes.sort((node1, node2) -> Integer.compare(activityHeights.get(node2), activityHeights.get(node1)));
+        priorityNodes.addAll(activeNodes);
+        priorityNodes.addAll(remainingNodes);
+        return priorityNodes;
+    }
+
+    private static int getLastActivityHeight(WalletNode node) {
+        int activityHeight = -1;
+        for(BlockTransactionHashIndex txo : node.getTransactionOutputs()) {
+            //Unconfirmed outputs and spends are the most recent activity
+            if(txo.getHeight() <= 0 || (txo.getSpentBy() != null && txo.getSpentBy().getHeight() <= 0)) {
+                return Integer.MAX_VALUE;
+            }
+
+            activityHeight = Math.max(activityHeight, txo.getSpentBy() != null ? Math.max(txo.getHeight(), txo.getSpentBy().getHeight()) : txo.getHeight());
+        }
+
+        return activityHeight;
     }
 
     public Map<WalletNode, Set<BlockTransactionHash>> getHistory(Wallet wallet) throws ServerException {
@@ -289,7 +549,7 @@ public class ElectrumServer {
     public void getHistory(Wallet wallet, KeyPurpose keyPurpose, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap) throws ServerException {
         WalletNode purposeNode = wallet.getNode(keyPurpose);
         //Subscribe to all existing address WalletNodes and add them to nodeTransactionMap as keys to empty sets if they have history that needs to be fetched
-        subscribeWalletNodes(wallet, purposeNode.getChildren(), nodeTransactionMap, 0);
+        subscribeDerivedWalletNodes(wallet, purposeNode, nodeTransactionMap, 0);
         //All WalletNode keys in nodeTransactionMap need to have their history fetched (nodes without history will not be keys in the map yet)
         getReferences(wallet, nodeTransactionMap.keySet(), nodeTransactionMap, 0);
         //Fetch all referenced transaction to wallet transactions map. We do this now even though it is done again later to get it done before too many script hashes are subscribed
@@ -300,7 +560,7 @@ public class ElectrumServer {
         log.debug("Fetched history for: " + nodeTransactionMap.keySet());
 
         //Set the remaining WalletNode keys in nodeTransactionMap to empty sets to indicate no history (if no script hash history has already been retrieved in a previous call)
-        purposeNode.getChildren().stream().filter(node -> !nodeTransactionMap.containsKey(node) && retrievedScriptHashes.get(getScriptHash(wallet, node)) == null).forEach(node -> nodeTransactionMap.put(node, Collections.emptySet()));
+        purposeNode.getChildren().stream().filter(node -> !nodeTransactionMap.containsKey(node) && !retrievedScriptHashes.containsKey(getScriptHash(wallet, node))).forEach(node -> nodeTransactionMap.put(node, Collections.emptySet()));
     }
 
     private void getHistoryToGapLimit(Wallet wallet, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap, WalletNode purposeNode) throws ServerException {
@@ -310,7 +570,13 @@ public class ElectrumServer {
         int gapLimitSize = getGapLimitSize(wallet, nodeTransactionMap);
         while(historySize < gapLimitSize) {
             purposeNode.fillToIndex(gapLimitSize - 1);
-            subscribeWalletNodes(wallet, purposeNode.getChildren(), nodeTransactionMap, historySize);
+            for(WalletNode addedNode : purposeNode.getChildren()) {
+                if(addedNode.getIndex() >= historySize) {
+                    historyJournal.recordChanged(addedNode);
+                }
+            }
+
+            subscribeDerivedWalletNodes(wallet, purposeNode, nodeTransactionMap, historySize);
             getReferences(wallet, nodeTransactionMap.keySet(), nodeTransactionMap, historySize);
             getReferencedTransactions(wallet, nodeTransactionMap);
             historySize = purposeNode.getChildren().size();
@@ -318,6 +584,21 @@ public class ElectrumServer {
         }
     }
 
+    /**
+     * Subscribes to the children of the purpose node from the start index, deriving their script hashes in parallel ranges.
+     * Each range is subscribed as soon as it has been derived, so derivation of later ranges overlaps with the subscription round trips of earlier ones.
+     */
+    private void subscribeDerivedWalletNodes(Wallet wallet, WalletNode purposeNode, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap, int startIndex) throws ServerException {
+        List<WalletNode> nodes = purposeNode.getChildren().stream().filter(node -> node.getIndex() >= startIndex).collect(Collectors.toList());
+        for(CompletableFuture<List<WalletNode>> derivedRange : WalletScriptHashIndex.get(wallet).deriveScriptHashes(wallet, nodes)) {
+            try {
+                subscribeWalletNodes(wallet, derivedRange.join(), nodeTransactionMap, startIndex);
+            } catch(CompletionException e) {
+                throw new ServerException("Error deriving script hashes for " + wallet.getName(), e.getCause());
+            }
+        }
+    }
+
     private int getGapLimitSize(Wallet wallet, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap) {
         int highestIndex = nodeTransactionMap.keySet().stream().map(WalletNode::getIndex).max(Comparator.comparing(Integer::valueOf)).orElse(-1);
         return highestIndex + wallet.getGapLimit() + 1;
@@ -336,44 +617,55 @@ public class ElectrumServer {
                 return;
             }
 
-            //Even if we have some successes, failure to retrieve all references will result in an incomplete wallet history. Don't proceed if that's the case.
-            Map<String, ScriptHashTx[]> result = electrumServerRpc.getScriptHashHistory(getTransport(), wallet, pathScriptHashes, true);
+            //Script hashes with a known long confirmed history may only have changed in the mempool, in which case the full history need not be fetched
+            Map<String, ScriptHashTx[]> result = getMempoolReferences(wallet, pathScriptHashes);
+
+            Map<String, String> historyPathScriptHashes = new LinkedHashMap<>(pathScriptHashes);
+            historyPathScriptHashes.keySet().removeAll(result.keySet());
+            if(!historyPathScriptHashes.isEmpty()) {
+                //Even if we have some successes, failure to retrieve all references will result in an incomplete wallet history. Don't proceed if that's the case.
+                Map<String, ScriptHashTx[]> historyResult = executeSharded(historyPathScriptHashes.keySet(), historyPathScriptHashes::get,
+                        (shardTransport, paths) -> electrumServerRpc.getScriptHashHistory(shardTransport, wallet, getPathScriptHashes(historyPathScriptHashes, paths), true));
+                for(String path : historyResult.keySet()) {
+                    String scriptHash = historyPathScriptHashes.get(path);
+                    if(scriptHash != null) {
+                        cacheConfirmedHistory(scriptHash, historyResult.get(path));
+                    }
+                }
+
+                result.putAll(historyResult);
+            }
+
+            Map<String, WalletNode> pathNodes = getPathNodes(nodes);
 
             for(String path : result.keySet()) {
                 ScriptHashTx[] txes = result.get(path);
 
-                Optional<WalletNode> optionalNode = nodes.stream().filter(n -> n.getDerivationPath().equals(path)).findFirst();
-                if(optionalNode.isPresent()) {
-                    WalletNode node = optionalNode.get();
-
+                WalletNode node = pathNodes.get(path);
+                if(node != null) {
                     //Some servers can return the same tx as multiple ScriptHashTx entries with different heights. Take the highest height only
-                    Set<BlockTransactionHash> references = Arrays.stream(txes).map(ScriptHashTx::getBlockchainTransactionHash)
-                            .collect(TreeSet::new, (set, ref) -> {
-                                Optional<BlockTransactionHash> optExisting = set.stream().filter(prev -> prev.getHash().equals(ref.getHash())).findFirst();
-                                if(optExisting.isPresent()) {
-                                    if(optExisting.get().getHeight() < ref.getHeight()) {
-                                        set.remove(optExisting.get());
-                                        set.add(ref);
-                                    }
-                                } else {
-                                    set.add(ref);
-                                }
-                            }, TreeSet::addAll);
+                    Map<Sha256Hash, BlockTransactionHash> highestReferences = new HashMap<>(txes.length);
+                    for(ScriptHashTx tx : txes) {
+                        BlockTransactionHash ref = tx.getBlockchainTransactionHash();
+                        highestReferences.merge(ref.getHash(), ref, (prev, next) -> prev.getHeight() < next.getHeight() ? next : prev);
+                    }
+                    Set<BlockTransactionHash> references = new TreeSet<>(highestReferences.values());
                     Set<BlockTransactionHash> existingReferences = nodeTransactionMap.get(node);
 
                     if(existingReferences == null) {
                         nodeTransactionMap.put(node, references);
                     } else {
+                        Map<Sha256Hash, BlockTransactionHash> existingHashes = getHashIndex(existingReferences);
                         for(BlockTransactionHash reference : references) {
                             if(!existingReferences.add(reference)) {
-                                Optional<BlockTransactionHash> optionalReference = existingReferences.stream().filter(tr -> tr.getHash().equals(reference.getHash())).findFirst();
-                                if(optionalReference.isPresent()) {
-                                    BlockTransactionHash existingReference = optionalReference.get();
-                                    if(existingReference.getHeight() < reference.getHeight()) {
-                                        existingReferences.remove(existingReference);
-                                        existingReferences.add(reference);
-                                    }
+                                BlockTransactionHash existingReference = existingHashes.get(reference.getHash());
+                                if(existingReference != null && existingReference.getHeight() < reference.getHeight()) {
+                                    existingReferences.remove(existingReference);
+                                    existingReferences.add(reference);
+                                    existingHashes.put(reference.getHash(), reference);
                                 }
+                            } else {
+                                existingHashes.putIfAbsent(reference.getHash(), reference);
                             }
                         }
                     }
@@ -386,6 +678,78 @@ public class ElectrumServer {
         }
     }
 
+    /**
+     * Retrieves the history of script hashes with a cached confirmed history by fetching only their mempool transactions.
+     * The combined history is only returned if it hashes to the current subscribed status, which shows the confirmed history has not changed.
+     * Script hashes that cannot be refreshed this way are omitted from the result, and their full history must be fetched.
+     */
+    private Map<String, ScriptHashTx[]> getMempoolReferences(Wallet wallet, Map<String, String> pathScriptHashes) throws ServerException {
+        Map<String, ScriptHashTx[]> result = new LinkedHashMap<>();
+
+        Map<String, String> mempoolPathScriptHashes = new LinkedHashMap<>();
+        for(Map.Entry<String, String> pathScriptHash : pathScriptHashes.entrySet()) {
+            if(confirmedScriptHashHistories.containsKey(pathScriptHash.getValue()) && getSubscribedScriptHashStatus(pathScriptHash.getValue()) != null) {
+                mempoolPathScriptHashes.put(pathScriptHash.getKey(), pathScriptHash.getValue());
+            }
+        }
+
+        if(mempoolPathScriptHashes.isEmpty()) {
+            return result;
+        }
+
+        Map<String, ScriptHashTx[]> mempoolResult;
+        try {
+            mempoolResult = executeSharded(mempoolPathScriptHashes.keySet(), mempoolPathScriptHashes::get,
+                    (shardTransport, paths) -> electrumServerRpc.getScriptHashMempool(shardTransport, wallet, getPathScriptHashes(mempoolPathScriptHashes, paths), false));
+        } catch(ElectrumServerRpcException e) {
+            log.debug("Failed to retrieve mempool transactions, fetching full history instead", e);
+            return result;
+        }
+
+        for(String path : mempoolResult.keySet()) {
+            String scriptHash = mempoolPathScriptHashes.get(path);
+            List<ScriptHashTx> confirmedHistory = scriptHash == null ? null : confirmedScriptHashHistories.get(scriptHash);
+            ScriptHashTx[] mempoolTxes = mempoolResult.get(path);
+            if(confirmedHistory == null || Arrays.asList(mempoolTxes).contains(ScriptHashTx.ERROR_TX)) {
+                continue;
+            }
+
+            List<ScriptHashTx> history = new ArrayList<>(confirmedHistory);
+            history.addAll(Arrays.asList(mempoolTxes));
+            if(subscribedScriptHashes.hasLatestStatus(scriptHash, getScriptHashStatus(history))) {
+                result.put(path, history.toArray(new ScriptHashTx[0]));
+            }
+        }
+
+        log.debug("Refreshed " + result.size() + " of " + mempoolPathScriptHashes.size() + " script hashes with long histories from the mempool only");
+        return result;
+    }
+
+    private static void cacheConfirmedHistory(String scriptHash, ScriptHashTx[] txes) {
+        List<ScriptHashTx> confirmedHistory = Arrays.stream(txes).filter(tx -> tx.height > 0).collect(Collectors.toList());
+        if(confirmedHistory.size() >= MEMPOOL_REFRESH_MIN_CONFIRMED) {
+            confirmedScriptHashHistories.put(scriptHash, confirmedHistory);
+        } else {
+            confirmedScriptHashHistories.remove(scriptHash);
+        }
+    }
+
+    /**
+     * Calculates the Electrum protocol status of a script hash history, being the hex encoded SHA256 hash of the concatenated tx_hash:height: entries
+     */
+    private static String getScriptHashStatus(List<ScriptHashTx> history) {
+        if(history.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder statusBuilder = new StringBuilder();
+        for(ScriptHashTx tx : history) {
+            statusBuilder.append(tx.tx_hash).append(':').append(tx.height).append(':');
+        }
+
+        return Utils.bytesToHex(Sha256Hash.hash(statusBuilder.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
     public void subscribeWalletNodes(Wallet wallet, Collection<WalletNode> nodes, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap, int startIndex) throws ServerException {
         try {
             Set<String> scriptHashes = new HashSet<>();
@@ -400,7 +764,7 @@ public class ElectrumServer {
                     String subscribedStatus = getSubscribedScriptHashStatus(scriptHash);
                     if(subscribedStatus != null) {
                         //Already subscribed, but still need to fetch history from a used node if not previously fetched
-                        if(!subscribedStatus.equals(retrievedScriptHashes.get(scriptHash))) {
+                        if(!retrievedScriptHashes.hasLatestStatus(scriptHash, subscribedStatus)) {
                             nodeTransactionMap.put(node, new TreeSet<>());
                         }
                     } else if(!subscribedScriptHashes.containsKey(scriptHash) && scriptHashes.add(scriptHash)) {
@@ -416,18 +780,19 @@ public class ElectrumServer {
                 return;
             }
 
-            Map<String, String> result = electrumServerRpc.subscribeScriptHashes(getTransport(), wallet, pathScriptHashes);
+            Map<String, String> result = executeSharded(pathScriptHashes.keySet(), pathScriptHashes::get,
+                    (shardTransport, paths) -> electrumServerRpc.subscribeScriptHashes(shardTransport, wallet, getPathScriptHashes(pathScriptHashes, paths)));
+            Map<String, WalletNode> pathNodes = getPathNodes(nodes);
 
             for(String path : result.keySet()) {
                 String status = result.get(path);
 
-                Optional<WalletNode> optionalNode = nodes.stream().filter(n -> n.getDerivationPath().equals(path)).findFirst();
-                if(optionalNode.isPresent()) {
-                    WalletNode node = optionalNode.get();
-                    String scriptHash = getScriptHash(wallet, node);
+                WalletNode node = pathNodes.get(path);
+                if(node != null) {
+                    String scriptHash = pathScriptHashes.get(path);
 
                     //Check if there is history for this script hash, and if the history has changed since last fetched
-                    if(status != null && !status.equals(retrievedScriptHashes.get(scriptHash))) {
+                    if(status != null && !retrievedScriptHashes.hasLatestStatus(scriptHash, status)) {
                         //Set the value for this node to be an empty set to mark it as requiring a get_history RPC call for this wallet
                         nodeTransactionMap.put(node, new TreeSet<>());
                     }
@@ -526,14 +891,36 @@ public class ElectrumServer {
                 return Collections.emptyMap();
             }
 
-            Map<Integer, String> result = electrumServerRpc.getBlockHeaders(getTransport(), wallet, blockHeights);
-
             Map<Integer, BlockHeader> blockHeaderMap = new TreeMap<>();
+            if(BlockchainCache.isEnabled()) {
+                for(Iterator<Integer> iter = blockHeights.iterator(); iter.hasNext(); ) {
+                    Integer height = iter.next();
+                    byte[] blockHeaderBytes = BlockchainCache.get().getBlockHeader(height);
+                    if(blockHeaderBytes != null) {
+                        blockHeaderMap.put(height, new BlockHeader(blockHeaderBytes));
+                        iter.remove();
+                    }
+                }
+
+                if(blockHeights.isEmpty()) {
+                    return blockHeaderMap;
+                }
+            }
+
+            Set<Integer> requestHeights = new TreeSet<>(blockHeights);
+            Map<Integer, String> result = executeHedged(requestHeights.size(), hedgeTransport -> electrumServerRpc.getBlockHeaders(hedgeTransport, wallet, requestHeights));
+
+            Integer currentHeight = AppServices.getCurrentBlockHeight();
             for(Integer height : result.keySet()) {
                 byte[] blockHeaderBytes = Utils.hexToBytes(result.get(height));
                 BlockHeader blockHeader = new BlockHeader(blockHeaderBytes);
                 blockHeaderMap.put(height, blockHeader);
                 blockHeights.remove(height);
+
+                //Only cache headers deep enough that they will not be replaced by a reorg
+                if(BlockchainCache.isEnabled() && currentHeight != null && height <= currentHeight - MIN_CACHED_HEADER_CONFIRMATIONS) {
+                    BlockchainCache.get().putBlockHeader(height, blockHeaderBytes);
+                }
             }
 
             if(!blockHeights.isEmpty()) {
@@ -553,23 +940,40 @@ public class ElectrumServer {
     public Map<Sha256Hash, BlockTransaction> getTransactions(Wallet wallet, Set<BlockTransactionHash> references, Map<Integer, BlockHeader> blockHeaderMap) throws ServerException {
         try {
             Set<BlockTransactionHash> checkReferences = new TreeSet<>(references);
+            Map<Sha256Hash, List<BlockTransactionHash>> hashReferences = new HashMap<>(references.size());
+            for(BlockTransactionHash reference : references) {
+                hashReferences.computeIfAbsent(reference.getHash(), hash -> new ArrayList<>(1)).add(reference);
+            }
 
+            Map<Sha256Hash, BlockTransaction> transactionMap = new HashMap<>();
             Set<String> txids = new LinkedHashSet<>(references.size());
             for(BlockTransactionHash reference : references) {
-                txids.add(reference.getHashAsString());
+                BlockTransaction cachedTransaction = getCachedTransaction(reference, blockHeaderMap);
+                if(cachedTransaction != null) {
+                    transactionMap.put(reference.getHash(), cachedTransaction);
+                    checkReferences.remove(reference);
+                } else {
+                    txids.add(reference.getHashAsString());
+                }
             }
 
-            Map<String, String> result = electrumServerRpc.getTransactions(getTransport(), wallet, txids);
+            Map<String, String> result;
+            if(txids.isEmpty()) {
+                result = Collections.emptyMap();
+            } else if(getTransportPool() == null) {
+                result = executeHedged(txids.size(), hedgeTransport -> electrumServerRpc.getTransactions(hedgeTransport, wallet, txids));
+            } else {
+                result = executeSharded(txids, Function.identity(), (shardTransport, shardTxids) -> electrumServerRpc.getTransactions(shardTransport, wallet, shardTxids));
+            }
 
             String strErrorTx = Sha256Hash.ZERO_HASH.toString();
-            Map<Sha256Hash, BlockTransaction> transactionMap = new HashMap<>();
             for(String txid : result.keySet()) {
                 Sha256Hash hash = Sha256Hash.wrap(txid);
                 String strRawTx = result.get(txid);
 
                 if(strRawTx.equals(strErrorTx)) {
                     transactionMap.put(hash, UNFETCHABLE_BLOCK_TRANSACTION);
-                    checkReferences.removeIf(ref -> ref.getHash().equals(hash));
+                    checkReferences.removeAll(hashReferences.getOrDefault(hash, Collections.emptyList()));
                     continue;
                 }
 
@@ -583,18 +987,18 @@ public class ElectrumServer {
                     continue;
                 }
 
-                Optional<BlockTransactionHash> optionalReference = references.stream().filter(reference -> reference.getHash().equals(hash)).findFirst();
-                if(optionalReference.isEmpty()) {
+                List<BlockTransactionHash> requestedReferences = hashReferences.get(hash);
+                if(requestedReferences == null) {
                     throw new IllegalStateException("Returned transaction " + hash.toString() + " that was not requested");
                 }
-                BlockTransactionHash reference = optionalReference.get();
+                BlockTransactionHash reference = requestedReferences.get(0);
 
                 Date blockDate = null;
                 if(reference.getHeight() > 0) {
                     BlockHeader blockHeader = blockHeaderMap.get(reference.getHeight());
                     if(blockHeader == null) {
                         transactionMap.put(hash, UNFETCHABLE_BLOCK_TRANSACTION);
-                        checkReferences.removeIf(ref -> ref.getHash().equals(hash));
+                        checkReferences.removeAll(requestedReferences);
                         continue;
                     }
                     blockDate = blockHeader.getTimeAsDate();
@@ -604,6 +1008,11 @@ public class ElectrumServer {
 
                 transactionMap.put(hash, blockchainTransaction);
                 checkReferences.remove(reference);
+
+                //Confirmed transactions never change, so they can be reused on subsequent loads
+                if(BlockchainCache.isEnabled() && reference.getHeight() > 0) {
+                    BlockchainCache.get().putTransaction(hash, rawtx);
+                }
             }
 
             if(!checkReferences.isEmpty()) {
@@ -620,6 +1029,30 @@ public class ElectrumServer {
         }
     }
 
+    private BlockTransaction getCachedTransaction(BlockTransactionHash reference, Map<Integer, BlockHeader> blockHeaderMap) {
+        if(!BlockchainCache.isEnabled() || reference.getHeight() <= 0 || blockHeaderMap.get(reference.getHeight()) == null) {
+            return null;
+        }
+
+        byte[] rawtx = BlockchainCache.get().getTransaction(reference.getHash());
+        if(rawtx == null) {
+            return null;
+        }
+
+        try {
+            Transaction transaction = new Transaction(rawtx);
+            if(transaction.getTxId().equals(reference.getHash())) {
+                Date blockDate = blockHeaderMap.get(reference.getHeight()).getTimeAsDate();
+                return new BlockTransaction(reference.getHash(), reference.getHeight(), blockDate, reference.getFee(), transaction);
+            }
+        } catch(ProtocolException e) {
+            log.debug("Could not parse cached tx " + reference.getHashAsString(), e);
+        }
+
+        BlockchainCache.get().removeTransaction(reference.getHash());
+        return null;
+    }
+
     public void calculateNodeHistory(Wallet wallet, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap) {
         for(WalletNode node : nodeTransactionMap.keySet()) {
             calculateNodeHistory(wallet, nodeTransactionMap, node);
@@ -628,10 +1061,12 @@ public class ElectrumServer {
 
     public void calculateNodeHistory(Wallet wallet, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap, WalletNode node) {
         Set<BlockTransactionHashIndex> transactionOutputs = new TreeSet<>();
+        Map<TransactionOutPoint, BlockTransactionHashIndex> outpointTransactionOutputs = new HashMap<>();
 
         //First check all provided txes that pay to this node
-        Script nodeScript = wallet.getOutputScript(node);
+        Script nodeScript = WalletScriptHashIndex.get(wallet).getOutputScript(wallet, node);
         Set<BlockTransactionHash> history = nodeTransactionMap.get(node);
+        Map<Sha256Hash, BlockTransactionHash> historyHashes = getHashIndex(history);
         for(BlockTransactionHash reference : history) {
             BlockTransaction blockTransaction = wallet.getTransactions().get(reference.getHash());
             if(blockTransaction == null) {
@@ -645,7 +1080,9 @@ public class ElectrumServer {
                 TransactionOutput output = transaction.getOutputs().get(outputIndex);
                 if (output.getScript().equals(nodeScript)) {
                     BlockTransactionHashIndex receivingTXO = new BlockTransactionHashIndex(reference.getHash(), reference.getHeight(), blockTransaction.getDate(), reference.getFee(), output.getIndex(), output.getValue());
-                    transactionOutputs.add(receivingTXO);
+                    if(transactionOutputs.add(receivingTXO)) {
+                        outpointTransactionOutputs.putIfAbsent(new TransactionOutPoint(receivingTXO.getHash(), receivingTXO.getIndex()), receivingTXO);
+                    }
                 }
             }
         }
@@ -671,25 +1108,23 @@ public class ElectrumServer {
                     throw new IllegalStateException("Could not retrieve transaction for hash " + reference.getHashAsString());
                 }
 
-                Optional<BlockTransactionHash> optionalTxHash = history.stream().filter(txHash -> txHash.getHash().equals(previousHash)).findFirst();
-                if(optionalTxHash.isEmpty()) {
+                BlockTransactionHash spentTxHash = historyHashes.get(previousHash);
+                if(spentTxHash == null) {
                     //No previous transaction history found, cannot check if spends from wallet
                     //This is fine so long as all referenced transactions have been returned, in which case this refers to a transaction that does not affect this wallet node
                     continue;
                 }
 
-                BlockTransactionHash spentTxHash = optionalTxHash.get();
                 TransactionOutput spentOutput = previousTransaction.getTransaction().getOutputs().get((int)input.getOutpoint().getIndex());
                 if(spentOutput.getScript().equals(nodeScript)) {
                     BlockTransactionHashIndex spendingTXI = new BlockTransactionHashIndex(reference.getHash(), reference.getHeight(), blockTransaction.getDate(), reference.getFee(), inputIndex, spentOutput.getValue());
                     BlockTransactionHashIndex spentTXO = new BlockTransactionHashIndex(spentTxHash.getHash(), spentTxHash.getHeight(), previousTransaction.getDate(), spentTxHash.getFee(), spentOutput.getIndex(), spentOutput.getValue(), spendingTXI);
 
-                    Optional<BlockTransactionHashIndex> optionalReference = transactionOutputs.stream().filter(receivedTXO -> receivedTXO.getHash().equals(spentTXO.getHash()) && receivedTXO.getIndex() == spentTXO.getIndex()).findFirst();
-                    if(optionalReference.isEmpty()) {
+                    BlockTransactionHashIndex receivedTXO = outpointTransactionOutputs.get(new TransactionOutPoint(spentTXO.getHash(), spentTXO.getIndex()));
+                    if(receivedTXO == null) {
                         throw new IllegalStateException("Found spent transaction output " + spentTXO + " but no record of receiving it");
                     }
 
-                    BlockTransactionHashIndex receivedTXO = optionalReference.get();
                     receivedTXO.setSpentBy(spendingTXI);
                 }
             }
@@ -697,6 +1132,7 @@ public class ElectrumServer {
 
         if(!transactionOutputs.equals(node.getTransactionOutputs())) {
             node.updateTransactionOutputs(transactionOutputs);
+            historyJournal.recordChanged(node);
         }
     }
 
@@ -798,6 +1234,27 @@ public class ElectrumServer {
         return mempoolScriptHashes;
     }
 
+    private static Map<String, WalletNode> getPathNodes(Collection<WalletNode> nodes) {
+        Map<String, WalletNode> pathNodes = new HashMap<>(nodes.size());
+        for(WalletNode node : nodes) {
+            if(node != null) {
+                pathNodes.putIfAbsent(node.getDerivationPath(), node);
+            }
+        }
+
+        return pathNodes;
+    }
+
+    private static Map<Sha256Hash, BlockTransactionHash> getHashIndex(Collection<BlockTransactionHash> references) {
+        //Keep the first reference for each hash, matching the iteration order of the collection
+        Map<Sha256Hash, BlockTransactionHash> hashIndex = new HashMap<>(references.size());
+        for(BlockTransactionHash reference : references) {
+            hashIndex.putIfAbsent(reference.getHash(), reference);
+        }
+
+        return hashIndex;
+    }
+
     public static Map<String, WalletNode> getAllScriptHashes(Wallet wallet) {
         Map<String, WalletNode> scriptHashes = new HashMap<>();
         List<KeyPurpose> purposes = List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE);
@@ -811,9 +1268,11 @@ public class ElectrumServer {
     }
 
     public static String getScriptHash(Wallet wallet, WalletNode node) {
-        byte[] hash = Sha256Hash.hash(wallet.getOutputScript(node).getProgram());
-        byte[] reversed = Utils.reverseBytes(hash);
-        return Utils.bytesToHex(reversed);
+        return WalletScriptHashIndex.get(wallet).getScriptHash(wallet, node);
+    }
+
+    public static WalletNode getWalletNode(Wallet wallet, String scriptHash) {
+        return WalletScriptHashIndex.get(wallet).getWalletNode(wallet, scriptHash);
     }
 
     public static String getScriptHash(TransactionOutput output) {
@@ -822,22 +1281,23 @@ public class ElectrumServer {
         return Utils.bytesToHex(reversed);
     }
 
-    public static Map<String, Set<String>> getSubscribedScriptHashes() {
-        return subscribedScriptHashes;
+    public static boolean isSubscribedScriptHash(String scriptHash) {
+        return subscribedScriptHashes.containsKey(scriptHash);
     }
 
-    public static String getSubscribedScriptHashStatus(String scriptHash) {
-        Set<String> existingStatuses = subscribedScriptHashes.get(scriptHash);
-        if(existingStatuses != null) {
-            return Iterables.getLast(existingStatuses);
-        }
+    /**
+     * Whether the status is the current or a recent status of the subscribed script hash
+     */
+    public static boolean hasSubscribedScriptHashStatus(String scriptHash, String status) {
+        return subscribedScriptHashes.hasStatus(scriptHash, status);
+    }
 
-        return null;
+    public static String getSubscribedScriptHashStatus(String scriptHash) {
+        return subscribedScriptHashes.getStatus(scriptHash);
     }
 
     public static void updateSubscribedScriptHashStatus(String scriptHash, String status) {
-        Set<String> existingStatuses = subscribedScriptHashes.computeIfAbsent(scriptHash, k -> new LinkedHashSet<>());
-        existingStatuses.add(status);
+        subscribedScriptHashes.addStatus(scriptHash, status);
     }
 
     public static boolean supportsBatching(List<String> serverVersion) {
@@ -957,6 +1417,10 @@ public class ElectrumServer {
                     }
 
                     if(firstCall) {
+                        if(subscribe) {
+                            electrumServer.rankPublicServers();
+                        }
+
                         electrumServer.connect();
 
                         reader = new Thread(new ReadRunnable(), "ElectrumServerReadThread");
@@ -973,12 +1437,20 @@ public class ElectrumServer {
                         //If electrumx is detected, we can upgrade to batched RPC. Electrs/EPS do not support batching.
                         if(supportsBatching(serverVersion)) {
                             log.debug("Upgrading to batched JSON-RPC");
-                            electrumServerRpc = new BatchedElectrumServerRpc();
+                            electrumServerRpc = new BatchedElectrumServerRpc(previousServerAddress);
+                            //Servers that support batching also handle multiple requests in flight, so stop serializing request round trips
+                            electrumServer.setMultiplexed(true);
+                        }
+
+                        if(subscribe) {
+                            electrumServer.connectPool(supportsBatching(serverVersion));
+                            electrumServer.connectStandby();
                         }
 
                         BlockHeaderTip tip;
                         if(subscribe) {
                             tip = electrumServer.subscribeBlockHeaders();
+                            //Subscriptions do not survive the connection, but retrieved statuses are retained so that synchronized wallets can resubscribe and refresh only changed nodes
                             subscribedScriptHashes.clear();
                         } else {
                             tip = new BlockHeaderTip();
@@ -997,8 +1469,11 @@ public class ElectrumServer {
 
                         return new ConnectionEvent(serverVersion, banner, tip.height, tip.getBlockHeader(), blockTargetFeeRates, mempoolRateSizes, minimumRelayFeeRate);
                     } else {
-                        if(reader.isAlive()) {
+                        //Subscriptions made on a failed pool connection are lost, so reconnect entirely if any pooled connection has failed
+                        TransportPool pool = getTransportPool();
+                        if(reader.isAlive() && (pool == null || pool.isConnected())) {
                             electrumServer.ping();
+                            electrumServer.keepStandbyAlive();
 
                             long elapsed = System.currentTimeMillis() - feeRatesRetrievedAt;
                             if(elapsed > FEE_RATES_PERIOD) {
@@ -1107,10 +1582,20 @@ public class ElectrumServer {
     }
 
     public static class ReadRunnable implements Runnable {
+        private final TcpTransport tcpTransport;
+
+        public ReadRunnable() {
+            this(null);
+        }
+
+        public ReadRunnable(TcpTransport tcpTransport) {
+            this.tcpTransport = tcpTransport;
+        }
+
         @Override
         public void run() {
             try {
-                TcpTransport tcpTransport = (TcpTransport)getTransport();
+                TcpTransport tcpTransport = (this.tcpTransport == null ? (TcpTransport)getTransport() : this.tcpTransport);
                 tcpTransport.readInputLoop();
             } catch(ServerException e) {
                 //Only debug logging here as the exception has been passed on to the ConnectionService thread via TcpTransport
@@ -1122,7 +1607,15 @@ public class ElectrumServer {
     public static class TransactionHistoryService extends Service<Boolean> {
         private final Wallet wallet;
         private final Set<WalletNode> nodes;
-        private final static Map<Wallet, Object> walletSynchronizeLocks = new HashMap<>();
+        private final WalletHistoryJournal historyJournal = new WalletHistoryJournal();
+        private final static Map<Wallet, Object> walletSynchronizeLocks = new ConcurrentHashMap<>();
+
+        /**
+         * Returns the lock held while the history of the wallet is being updated
+         */
+        public static Object getWalletSynchronizeLock(Wallet wallet) {
+            return walletSynchronizeLocks.computeIfAbsent(wallet, w -> new Object());
+        }
 
         public TransactionHistoryService(Wallet wallet) {
             this.wallet = wallet;
@@ -1134,14 +1627,20 @@ public class ElectrumServer {
             this.nodes = nodes;
         }
 
+        /**
+         * Returns the journal of the nodes changed by this service
+         */
+        public WalletHistoryJournal getHistoryJournal() {
+            return historyJournal;
+        }
+
         @Override
         protected Task<Boolean> createTask() {
             return new Task<>() {
                 protected Boolean call() throws ServerException {
-                    walletSynchronizeLocks.putIfAbsent(wallet, new Object());
-                    synchronized(walletSynchronizeLocks.get(wallet)) {
+                    synchronized(getWalletSynchronizeLock(wallet)) {
                         if(isConnected()) {
-                            ElectrumServer electrumServer = new ElectrumServer();
+                            ElectrumServer electrumServer = new ElectrumServer(historyJournal);
                             Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap = (nodes == null ? electrumServer.getHistory(wallet) : electrumServer.getHistory(wallet, nodes));
                             electrumServer.getReferencedTransactions(wallet, nodeTransactionMap);
                             electrumServer.calculateNodeHistory(wallet, nodeTransactionMap);
@@ -1149,7 +1648,11 @@ public class ElectrumServer {
                             //Add all of the script hashes we have now fetched the history for so we don't need to fetch again until the script hash status changes
                             for(WalletNode node : nodeTransactionMap.keySet()) {
                                 String scriptHash = getScriptHash(wallet, node);
-                                retrievedScriptHashes.put(scriptHash, getSubscribedScriptHashStatus(scriptHash));
+                                retrievedScriptHashes.putStatus(scriptHash, getSubscribedScriptHashStatus(scriptHash));
+                            }
+
+                            if(nodes == null) {
+                                synchronizedWallets.add(wallet);
                             }
 
                             return true;
@@ -1162,6 +1665,49 @@ public class ElectrumServer {
         }
     }
 
+    /**
+     * Resubscribes to the script hashes of a synchronized wallet after a reconnection in prioritized batches, without refetching the history of the wallet.
+     * Nodes with a status that differs from the last retrieved status are passed to the consumer on the JavaFX thread as each batch completes, so their history can be refreshed.
+     */
+    public static class ResubscriptionService extends Service<Boolean> {
+        private final Wallet wallet;
+        private final Consumer<Set<WalletNode>> changedNodesConsumer;
+
+        public ResubscriptionService(Wallet wallet, Consumer<Set<WalletNode>> changedNodesConsumer) {
+            this.wallet = wallet;
+            this.changedNodesConsumer = changedNodesConsumer;
+        }
+
+        @Override
+        protected Task<Boolean> createTask() {
+            return new Task<>() {
+                protected Boolean call() throws ServerException {
+                    List<WalletNode> nodes;
+                    synchronized(TransactionHistoryService.getWalletSynchronizeLock(wallet)) {
+                        nodes = getResubscriptionOrder(wallet);
+                    }
+
+                    ElectrumServer electrumServer = new ElectrumServer();
+                    for(List<WalletNode> batch : Lists.partition(nodes, RESUBSCRIBE_BATCH_SIZE)) {
+                        if(!isConnected() || isCancelled()) {
+                            return false;
+                        }
+
+                        Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap = new TreeMap<>();
+                        electrumServer.subscribeWalletNodes(wallet, batch, nodeTransactionMap, 0);
+                        if(!nodeTransactionMap.isEmpty()) {
+                            Set<WalletNode> changedNodes = new LinkedHashSet<>(nodeTransactionMap.keySet());
+                            Platform.runLater(() -> changedNodesConsumer.accept(changedNodes));
+                        }
+                    }
+
+                    log.debug("Resubscribed " + nodes.size() + " nodes for " + wallet.getName());
+                    return true;
+                }
+            };
+        }
+    }
+
     public static class TransactionMempoolService extends ScheduledService<Set<String>> {
         private final Wallet wallet;
         private final Sha256Hash txId;
@@ -0,0 +1,222 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.github.arteam.simplejsonrpc.client.Transport;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * A warm standby connection to another server, to which idempotent reads are hedged when the active connection is slower than its recent tail latency.
+ * Latency is tracked per requested item, so that the hedging threshold scales with the size of a batched request.
+ * Only the first successful response is used, and the slower request is left to complete in the background so that its latency is still recorded.
+ */
+class HedgedRequests implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(HedgedRequests.class);
+
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final int MAX_SAMPLES = 200;
+    private static final int MIN_SAMPLES = 20;
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = 2000;
+    private static final long MIN_HEDGE_DELAY_MILLIS = 100;
+
+    private static final ExecutorService hedgeExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ElectrumServerHedge-%d").build());
+
+    private TcpTransport standby;
+    private Thread reader;
+    private String standbyServer;
+
+    //Latency of the active connection in milliseconds per requested item, in a ring buffer
+    private final double[] samples = new double[MAX_SAMPLES];
+    private int sampleCount;
+    private int nextSample;
+
+    //Metrics
+    private long hedgedCount;
+    private long standbyWinCount;
+
+    /**
+     * Connects to the first of the given servers that completes a version handshake, returning false if none do
+     */
+    public boolean connect(List<String> servers, String proxyServer, boolean requireBatching, ElectrumServerRpc electrumServerRpc) {
+        for(String server : servers) {
+            TcpTransport tcpTransport = null;
+            try {
+                tcpTransport = (TcpTransport)ElectrumServer.createTransport(server, null, proxyServer);
+                tcpTransport.connect();
+
+                Thread readThread = new Thread(new ElectrumServer.ReadRunnable(tcpTransport), "ElectrumServerStandbyReadThread");
+                readThread.setDaemon(true);
+                readThread.start();
+
+                List<String> serverVersion = electrumServerRpc.getServerVersion(tcpTransport, "Sparrow", ElectrumServer.SUPPORTED_VERSIONS);
+                if(requireBatching && !ElectrumServer.supportsBatching(serverVersion)) {
+                    throw new ServerException("Standby server does not support batched requests");
+                }
+                tcpTransport.setMultiplexed(requireBatching);
+
+                synchronized(this) {
+                    standby = tcpTransport;
+                    reader = readThread;
+                    standbyServer = server;
+                }
+
+                log.debug("Connected to standby server " + server);
+                return true;
+            } catch(Exception e) {
+                log.debug("Could not connect to standby server " + server, e);
+                if(tcpTransport != null) {
+                    try {
+                        tcpTransport.close();
+                    } catch(IOException ex) {
+                        log.debug("Error closing failed standby connection", ex);
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    public synchronized boolean isConnected() {
+        return standby != null && standby.isConnected() && reader.isAlive();
+    }
+
+    public synchronized String getStandbyServer() {
+        return standbyServer;
+    }
+
+    /**
+     * Pings the standby server so that it does not close the idle connection, returning false if the standby has failed
+     */
+    public boolean keepAlive(ElectrumServerRpc electrumServerRpc) {
+        if(!isConnected()) {
+            return false;
+        }
+
+        try {
+            electrumServerRpc.ping(getStandby());
+            return true;
+        } catch(ElectrumServerRpcException e) {
+            log.debug("Standby server " + getStandbyServer() + " failed", e);
+            return false;
+        }
+    }
+
+    /**
+     * Executes the call on the primary connection, and races it on the standby if the primary is slower than its tail latency or fails.
+     * The call must be idempotent, and must not modify state shared with a concurrent execution of itself.
+     */
+    public <R> R execute(Transport primary, int items, Function<Transport, R> call) throws ServerException {
+        Transport standbyTransport = isConnected() ? getStandby() : null;
+        if(standbyTransport == null) {
+            return call.apply(primary);
+        }
+
+        CompletionService<R> completionService = new ExecutorCompletionService<>(hedgeExecutor);
+        long start = System.nanoTime();
+        Future<R> primaryFuture = completionService.submit(() -> {
+            R result = call.apply(primary);
+            recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), items);
+            return result;
+        });
+        Future<R> standbyFuture = null;
+
+        int outstanding = 1;
+        ExecutionException failure = null;
+        try {
+            while(outstanding > 0) {
+                Future<R> done = (standbyFuture == null ? completionService.poll(getHedgeDelayMillis(items), TimeUnit.MILLISECONDS) : completionService.take());
+                if(done != null) {
+                    outstanding--;
+                    try {
+                        R result = done.get();
+                        if(done == standbyFuture) {
+                            recordStandbyWin();
+                        }
+                        return result;
+                    } catch(ExecutionException e) {
+                        if(failure == null) {
+                            failure = e;
+                        }
+                    }
+                }
+
+                if(standbyFuture == null) {
+                    //The primary has failed or exceeded its tail latency, so race the request on the standby
+                    recordHedged();
+                    standbyFuture = completionService.submit(() -> call.apply(standbyTransport));
+                    outstanding++;
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Interrupted waiting for hedged request");
+        } finally {
+            primaryFuture.cancel(false);
+            if(standbyFuture != null) {
+                standbyFuture.cancel(false);
+            }
+        }
+
+        if(failure.getCause() instanceof RuntimeException) {
+            throw (RuntimeException)failure.getCause();
+        }
+
+        throw new ServerException(failure.getCause());
+    }
+
+    private synchronized TcpTransport getStandby() {
+        return standby;
+    }
+
+    private synchronized void recordLatency(long millis, int items) {
+        samples[nextSample] = (double)millis / Math.max(1, items);
+        nextSample = (nextSample + 1) % MAX_SAMPLES;
+        sampleCount = Math.min(sampleCount + 1, MAX_SAMPLES);
+    }
+
+    private synchronized void recordHedged() {
+        hedgedCount++;
+        log.debug("Hedging request to standby server " + standbyServer + ", " + hedgedCount + " hedged with " + standbyWinCount + " won by standby");
+    }
+
+    private synchronized void recordStandbyWin() {
+        standbyWinCount++;
+    }
+
+    synchronized long getHedgeDelayMillis(int items) {
+        if(sampleCount < MIN_SAMPLES) {
+            return DEFAULT_HEDGE_DELAY_MILLIS;
+        }
+
+        double[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        double percentile = sorted[Math.min(sampleCount - 1, (int)Math.ceil(HEDGE_PERCENTILE * sampleCount) - 1)];
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, (long)Math.ceil(percentile * Math.max(1, items)));
+    }
+
+    public synchronized long getHedgedCount() {
+        return hedgedCount;
+    }
+
+    public synchronized long getStandbyWinCount() {
+        return standbyWinCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(standby != null) {
+            standby.close();
+            standby = null;
+            reader = null;
+            standbyServer = null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.sparrowwallet.sparrow.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Frames newline delimited JSON read from a stream into a single reusable byte buffer, so that each message is only copied once when it is converted to a String.
+ * Partially read messages are retained across reads that fail with a timeout, so reading can simply be retried.
+ * Buffers grown to hold very large messages are released once those messages have been consumed.
+ */
+class JsonLineReader {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private final InputStream in;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int start;
+    private int end;
+    private int scanned;
+
+    public JsonLineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next non-empty line, or returns null at the end of the stream.
+     * The returned line refers to the internal buffer, and is only valid until the next call.
+     */
+    public Line readLine() throws IOException {
+        if(start == end && buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+            start = end = scanned = 0;
+        }
+
+        while(true) {
+            for(int i = scanned; i < end; i++) {
+                if(buffer[i] == '\n') {
+                    int lineStart = start;
+                    int lineEnd = (i > lineStart && buffer[i - 1] == '\r') ? i - 1 : i;
+                    start = i + 1;
+                    scanned = start;
+
+                    if(lineEnd > lineStart) {
+                        return new Line(buffer, lineStart, lineEnd - lineStart);
+                    }
+                }
+            }
+            scanned = end;
+
+            ensureCapacity();
+            int read = in.read(buffer, end, buffer.length - end);
+            if(read < 0) {
+                return null;
+            }
+
+            end += read;
+        }
+    }
+
+    private void ensureCapacity() {
+        if(end < buffer.length) {
+            return;
+        }
+
+        if(start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            scanned -= start;
+            start = 0;
+        } else {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+    }
+
+    public static class Line {
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        public Line(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+    }
+}
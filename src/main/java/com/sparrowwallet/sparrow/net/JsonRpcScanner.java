@@ -0,0 +1,243 @@
+package com.sparrowwallet.sparrow.net;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Extracts the ids of a JSON-RPC message or batch, and whether it is a method call, by scanning only the top level members of the message.
+ * Nested values such as results and params are skipped over without being parsed, so large responses can be routed without being deserialized.
+ */
+class JsonRpcScanner {
+    private final byte[] json;
+    private final int limit;
+    private int pos;
+
+    private final Set<String> ids = new LinkedHashSet<>();
+    private boolean method;
+
+    private JsonRpcScanner(byte[] json, int offset, int length) {
+        this.json = json;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    public static Header scan(byte[] json, int offset, int length) {
+        JsonRpcScanner scanner = new JsonRpcScanner(json, offset, length);
+        try {
+            scanner.scanMessage();
+        } catch(IllegalArgumentException | IndexOutOfBoundsException e) {
+            return new Header(Collections.emptyList(), false);
+        }
+
+        return new Header(new ArrayList<>(scanner.ids), scanner.method);
+    }
+
+    public static Header scan(byte[] json) {
+        return scan(json, 0, json.length);
+    }
+
+    private void scanMessage() {
+        skipWhitespace();
+        if(peek() == '{') {
+            scanObject();
+        } else if(peek() == '[') {
+            pos++;
+            skipWhitespace();
+            while(peek() != ']') {
+                if(peek() == '{') {
+                    scanObject();
+                } else {
+                    skipValue();
+                }
+
+                skipSeparator();
+            }
+        } else {
+            throw new IllegalArgumentException("Not a JSON-RPC message");
+        }
+    }
+
+    private void scanObject() {
+        pos++;
+        skipWhitespace();
+        while(peek() != '}') {
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+
+            if(key.equals("id")) {
+                String id = readId();
+                if(id != null) {
+                    ids.add(id);
+                }
+            } else {
+                if(key.equals("method")) {
+                    method = true;
+                }
+                skipValue();
+            }
+
+            skipSeparator();
+        }
+        pos++;
+    }
+
+    private String readId() {
+        if(peek() == '"') {
+            return readString();
+        }
+
+        int start = pos;
+        skipValue();
+        String id = new String(json, start, pos - start, StandardCharsets.UTF_8).trim();
+        return id.equals("null") ? null : id;
+    }
+
+    private String readString() {
+        expect('"');
+        StringBuilder builder = null;
+        int start = pos;
+        while(true) {
+            byte b = json[check(pos)];
+            if(b == '"') {
+                String value = new String(json, start, pos - start, StandardCharsets.UTF_8);
+                pos++;
+                return builder == null ? value : builder.append(value).toString();
+            } else if(b == '\\') {
+                if(builder == null) {
+                    builder = new StringBuilder();
+                }
+                builder.append(new String(json, start, pos - start, StandardCharsets.UTF_8));
+                pos++;
+                byte escaped = json[check(pos)];
+                if(escaped == 'u') {
+                    builder.append((char)Integer.parseInt(new String(json, check(pos + 4) - 3, 4, StandardCharsets.US_ASCII), 16));
+                    pos += 4;
+                } else {
+                    builder.append(unescape(escaped));
+                }
+                pos++;
+                start = pos;
+            } else {
+                pos++;
+            }
+        }
+    }
+
+    private static char unescape(byte escaped) {
+        switch(escaped) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            default:
+                return (char)escaped;
+        }
+    }
+
+    private void skipValue() {
+        int depth = 0;
+        while(true) {
+            byte b = json[check(pos)];
+            if(b == '"') {
+                skipString();
+                if(depth == 0) {
+                    return;
+                }
+                continue;
+            }
+
+            if(b == '{' || b == '[') {
+                depth++;
+            } else if(b == '}' || b == ']') {
+                if(depth == 0) {
+                    return;
+                }
+                depth--;
+                if(depth == 0) {
+                    pos++;
+                    return;
+                }
+            } else if(b == ',' && depth == 0) {
+                return;
+            }
+
+            pos++;
+        }
+    }
+
+    private void skipString() {
+        pos++;
+        while(true) {
+            byte b = json[check(pos)];
+            if(b == '\\') {
+                pos += 2;
+            } else if(b == '"') {
+                pos++;
+                return;
+            } else {
+                pos++;
+            }
+        }
+    }
+
+    private void skipSeparator() {
+        skipWhitespace();
+        if(peek() == ',') {
+            pos++;
+            skipWhitespace();
+        }
+    }
+
+    private void skipWhitespace() {
+        while(pos < limit && (json[pos] == ' ' || json[pos] == '\t' || json[pos] == '\r' || json[pos] == '\n')) {
+            pos++;
+        }
+    }
+
+    private byte peek() {
+        return json[check(pos)];
+    }
+
+    private void expect(char c) {
+        if(peek() != c) {
+            throw new IllegalArgumentException("Expected " + c + " at " + pos);
+        }
+        pos++;
+    }
+
+    private int check(int index) {
+        if(index >= limit) {
+            throw new IndexOutOfBoundsException("Unexpected end of JSON-RPC message");
+        }
+        return index;
+    }
+
+    public static class Header {
+        private final List<String> ids;
+        private final boolean method;
+
+        public Header(List<String> ids, boolean method) {
+            this.ids = ids;
+            this.method = method;
+        }
+
+        public List<String> getIds() {
+            return ids;
+        }
+
+        /**
+         * A notification is a method call without an id, which expects no response
+         */
+        public boolean isNotification() {
+            return method && ids.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.github.arteam.simplejsonrpc.client.JsonRpcClient;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Ranks the public Electrum servers by latency, by concurrently probing each with a version handshake and a ping.
+ * Probes are made through the configured proxy if one is in use, so a ranking made over Tor reflects the latency over Tor.
+ */
+class PublicElectrumServerRanking {
+    private static final Logger log = LoggerFactory.getLogger(PublicElectrumServerRanking.class);
+
+    private static final int PROBE_TIMEOUT_SECS = 10;
+
+    private static final ExecutorService probeExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("PublicServerProbe-%d").build());
+
+    /**
+     * Ranks the servers without blocking, providing the ranking to the consumer when the probes have completed
+     */
+    public static Future<?> rankInBackground(String proxyServer, Consumer<List<PublicElectrumServer>> consumer) {
+        return probeExecutor.submit(() -> consumer.accept(rank(proxyServer)));
+    }
+
+    /**
+     * Returns the servers that responded within the probe timeout, fastest first
+     */
+    public static List<PublicElectrumServer> rank(String proxyServer) {
+        Map<PublicElectrumServer, Future<Long>> probes = new LinkedHashMap<>();
+        for(PublicElectrumServer server : PublicElectrumServer.values()) {
+            probes.put(server, probeExecutor.submit(() -> probe(server, proxyServer)));
+        }
+
+        long deadline = System.currentTimeMillis() + PROBE_TIMEOUT_SECS * 1000L;
+        Map<PublicElectrumServer, Long> latencies = new HashMap<>();
+        for(Map.Entry<PublicElectrumServer, Future<Long>> probe : probes.entrySet()) {
+            try {
+                latencies.put(probe.getKey(), probe.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+            } catch(TimeoutException e) {
+                log.debug("Timed out probing " + probe.getKey());
+                probe.getValue().cancel(true);
+            } catch(ExecutionException e) {
+                log.debug("Could not probe " + probe.getKey(), e.getCause());
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                probes.values().forEach(future -> future.cancel(true));
+                break;
+            }
+        }
+
+        List<PublicElectrumServer> ranked = new ArrayList<>(latencies.keySet());
+        ranked.sort(Comparator.comparingLong(latencies::get));
+        log.debug("Ranked public servers " + ranked + " with latencies " + latencies);
+
+        return ranked;
+    }
+
+    private static long probe(PublicElectrumServer server, String proxyServer) throws Exception {
+        TcpTransport tcpTransport = (TcpTransport)ElectrumServer.createTransport(server.getUrl(), null, proxyServer);
+        try {
+            tcpTransport.connect();
+
+            Thread reader = new Thread(new ElectrumServer.ReadRunnable(tcpTransport), "PublicServerProbeReadThread");
+            reader.setDaemon(true);
+            reader.start();
+
+            //Single attempts only, as a server that needs retries should not be ranked highly
+            JsonRpcClient client = new JsonRpcClient(tcpTransport);
+            long start = System.nanoTime();
+            client.createRequest().returnAsList(String.class).method("server.version").id(1).params("Sparrow", "1.4").execute();
+            client.createRequest().method("server.ping").id(2).executeNullable();
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            tcpTransport.close();
+        }
+    }
+}
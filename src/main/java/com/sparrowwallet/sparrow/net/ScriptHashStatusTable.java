@@ -0,0 +1,272 @@
+package com.sparrowwallet.sparrow.net;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent table of Electrum script hash statuses keyed by script hash, retaining up to a bounded number of the most recent statuses of each script hash.
+ * Script hashes and statuses are stored as 32 byte values packed into longs in an open addressing table, rather than as hex strings in a map.
+ * Reads do not lock. Each slot's key is written once before its statuses are published, statuses are replaced rather than modified,
+ * and removed slots are only reclaimed when the table is rebuilt and replaced as a whole. Writes are serialized.
+ */
+class ScriptHashStatusTable {
+    private static final int HASH_WORDS = 4;
+    private static final int HEX_LENGTH = HASH_WORDS * 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    //Statuses of a script hash present in the table without a status, and the marker for a removed slot, compared by identity
+    private static final long[] NO_STATUSES = new long[0];
+    private static final long[] REMOVED = new long[0];
+
+    private final int maxStatusHistory;
+    private volatile Slots slots = new Slots(INITIAL_CAPACITY);
+    private int size;
+
+    public ScriptHashStatusTable(int maxStatusHistory) {
+        if(maxStatusHistory < 1) {
+            throw new IllegalArgumentException("At least one status must be retained");
+        }
+
+        this.maxStatusHistory = maxStatusHistory;
+    }
+
+    public boolean containsKey(String scriptHash) {
+        return getStatuses(parseHash(scriptHash)) != null;
+    }
+
+    /**
+     * Returns the most recent status of the script hash, or null if it has none
+     */
+    public String getStatus(String scriptHash) {
+        long[] statuses = getStatuses(parseHash(scriptHash));
+        if(statuses == null || statuses.length == 0) {
+            return null;
+        }
+
+        return toHex(statuses, statuses.length - HASH_WORDS);
+    }
+
+    /**
+     * Whether the status is the most recent status of the script hash
+     */
+    public boolean hasLatestStatus(String scriptHash, String status) {
+        long[] statuses = getStatuses(parseHash(scriptHash));
+        if(status == null || statuses == null || statuses.length == 0) {
+            return false;
+        }
+
+        return matches(statuses, statuses.length - HASH_WORDS, parseHash(status));
+    }
+
+    /**
+     * Whether the status is one of the retained statuses of the script hash
+     */
+    public boolean hasStatus(String scriptHash, String status) {
+        long[] statuses = getStatuses(parseHash(scriptHash));
+        if(status == null || statuses == null) {
+            return false;
+        }
+
+        return indexOf(statuses, parseHash(status)) >= 0;
+    }
+
+    /**
+     * Adds the status as the most recent status of the script hash if it is not already retained, discarding the oldest status if the history is full.
+     * A null status adds the script hash without a status.
+     */
+    public synchronized void addStatus(String scriptHash, String status) {
+        long[] key = parseHash(scriptHash);
+        long[] statuses = getStatuses(key);
+        if(statuses == null) {
+            statuses = NO_STATUSES;
+        }
+
+        if(status != null) {
+            long[] value = parseHash(status);
+            if(indexOf(statuses, value) < 0) {
+                int retained = Math.min(statuses.length, (maxStatusHistory - 1) * HASH_WORDS);
+                long[] updated = new long[retained + HASH_WORDS];
+                System.arraycopy(statuses, statuses.length - retained, updated, 0, retained);
+                System.arraycopy(value, 0, updated, retained, HASH_WORDS);
+                statuses = updated;
+            }
+        }
+
+        put(key, statuses);
+    }
+
+    /**
+     * Replaces any statuses of the script hash with the provided status. A null status removes the script hash.
+     */
+    public synchronized void putStatus(String scriptHash, String status) {
+        if(status == null) {
+            remove(scriptHash);
+        } else {
+            put(parseHash(scriptHash), parseHash(status));
+        }
+    }
+
+    /**
+     * Sets the status of the script hash if it does not have a status. A null status has no effect.
+     */
+    public synchronized void putStatusIfAbsent(String scriptHash, String status) {
+        long[] key = parseHash(scriptHash);
+        long[] statuses = getStatuses(key);
+        if(status != null && (statuses == null || statuses.length == 0)) {
+            put(key, parseHash(status));
+        }
+    }
+
+    public synchronized void remove(String scriptHash) {
+        Slots current = slots;
+        int index = find(current, parseHash(scriptHash));
+        if(index >= 0) {
+            current.statuses.set(index, REMOVED);
+            size--;
+        }
+    }
+
+    public synchronized void clear() {
+        slots = new Slots(INITIAL_CAPACITY);
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private long[] getStatuses(long[] key) {
+        Slots current = slots;
+        int index = find(current, key);
+        return index < 0 ? null : current.statuses.get(index);
+    }
+
+    private void put(long[] key, long[] statuses) {
+        Slots current = slots;
+        int index = find(current, key);
+        if(index >= 0) {
+            current.statuses.set(index, statuses);
+            return;
+        }
+
+        //Rebuild at a load factor of 0.75, counting removed slots, growing only if live entries would exceed half the capacity
+        if((current.used + 1) * 4L > current.capacity() * 3L) {
+            current = rebuild(current, (size + 1) * 2 > current.capacity() ? current.capacity() * 2 : current.capacity());
+            slots = current;
+        }
+
+        insert(current, key, statuses);
+        size++;
+    }
+
+    private static Slots rebuild(Slots current, int capacity) {
+        Slots rebuilt = new Slots(capacity);
+        long[] key = new long[HASH_WORDS];
+        for(int i = 0; i < current.capacity(); i++) {
+            long[] statuses = current.statuses.get(i);
+            if(statuses != null && statuses != REMOVED) {
+                System.arraycopy(current.keys, i * HASH_WORDS, key, 0, HASH_WORDS);
+                insert(rebuilt, key, statuses);
+            }
+        }
+
+        return rebuilt;
+    }
+
+    private static void insert(Slots slots, long[] key, long[] statuses) {
+        int index = slots.indexFor(key);
+        while(slots.statuses.get(index) != null) {
+            index = (index + 1) & slots.mask;
+        }
+
+        //The key must be written before the statuses are set, as the volatile write of the statuses publishes the slot to readers
+        System.arraycopy(key, 0, slots.keys, index * HASH_WORDS, HASH_WORDS);
+        slots.statuses.set(index, statuses);
+        slots.used++;
+    }
+
+    private static int find(Slots slots, long[] key) {
+        int index = slots.indexFor(key);
+        for(int probes = 0; probes < slots.capacity(); probes++) {
+            long[] statuses = slots.statuses.get(index);
+            if(statuses == null) {
+                return -1;
+            }
+            if(statuses != REMOVED && matches(slots.keys, index * HASH_WORDS, key)) {
+                return index;
+            }
+            index = (index + 1) & slots.mask;
+        }
+
+        return -1;
+    }
+
+    private static int indexOf(long[] statuses, long[] status) {
+        for(int offset = 0; offset < statuses.length; offset += HASH_WORDS) {
+            if(matches(statuses, offset, status)) {
+                return offset;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean matches(long[] words, int offset, long[] hash) {
+        for(int i = 0; i < HASH_WORDS; i++) {
+            if(words[offset + i] != hash[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long[] parseHash(String hex) {
+        if(hex.length() != HEX_LENGTH) {
+            throw new IllegalArgumentException("Invalid script hash or status " + hex);
+        }
+
+        long[] words = new long[HASH_WORDS];
+        for(int i = 0; i < HEX_LENGTH; i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if(digit < 0) {
+                throw new IllegalArgumentException("Invalid script hash or status " + hex);
+            }
+            words[i / 16] = (words[i / 16] << 4) | digit;
+        }
+
+        return words;
+    }
+
+    private static String toHex(long[] words, int offset) {
+        char[] chars = new char[HEX_LENGTH];
+        for(int i = 0; i < HEX_LENGTH; i++) {
+            chars[i] = HEX_CHARS[(int)(words[offset + i / 16] >>> (60 - (i % 16) * 4)) & 0xF];
+        }
+
+        return new String(chars);
+    }
+
+    private static final class Slots {
+        private final long[] keys;
+        private final AtomicReferenceArray<long[]> statuses;
+        private final int mask;
+        //Slots that have held an entry, including removed slots, which are only reclaimed on rebuild
+        private int used;
+
+        public Slots(int capacity) {
+            this.keys = new long[capacity * HASH_WORDS];
+            this.statuses = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        public int capacity() {
+            return mask + 1;
+        }
+
+        public int indexFor(long[] key) {
+            //Script hashes are uniformly distributed, so the low bits of the first word suffice
+            return (int)key[0] & mask;
+        }
+    }
+}
@@ -4,7 +4,6 @@ import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcMethod;
 import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcOptional;
 import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcParam;
 import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcService;
-import com.google.common.collect.Iterables;
 import com.sparrowwallet.sparrow.EventManager;
 import com.sparrowwallet.sparrow.event.NewBlockEvent;
 import com.sparrowwallet.sparrow.event.WalletNodeHistoryChangedEvent;
@@ -12,8 +11,6 @@ import javafx.application.Platform;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Set;
-
 @JsonRpcService
 public class SubscriptionService {
     private static final Logger log = LoggerFactory.getLogger(SubscriptionService.class);
@@ -30,17 +27,16 @@ public class SubscriptionService {
             return;
         }
 
-        Set<String> existingStatuses = ElectrumServer.getSubscribedScriptHashes().get(scriptHash);
-        if(existingStatuses == null) {
+        if(!ElectrumServer.isSubscribedScriptHash(scriptHash)) {
             log.debug("Received script hash status update for unsubscribed script hash: " + scriptHash);
             ElectrumServer.updateSubscribedScriptHashStatus(scriptHash, status);
-        } else if(existingStatuses.contains(status)) {
+        } else if(ElectrumServer.hasSubscribedScriptHashStatus(scriptHash, status)) {
             log.debug("Received script hash status update, but status has not changed");
             return;
         } else {
-            String oldStatus = Iterables.getLast(existingStatuses);
+            String oldStatus = ElectrumServer.getSubscribedScriptHashStatus(scriptHash);
             log.debug("Status updated for script hash " + scriptHash + ", was " + oldStatus + " now " + status);
-            existingStatuses.add(status);
+            ElectrumServer.updateSubscribedScriptHashStatus(scriptHash, status);
         }
 
         Platform.runLater(() -> EventManager.get().post(new WalletNodeHistoryChangedEvent(scriptHash)));
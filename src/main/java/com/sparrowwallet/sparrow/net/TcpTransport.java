@@ -2,9 +2,7 @@ package com.sparrowwallet.sparrow.net;
 
 import com.github.arteam.simplejsonrpc.client.Transport;
 import com.github.arteam.simplejsonrpc.server.JsonRpcServer;
-import com.google.common.base.Splitter;
 import com.google.common.net.HostAndPort;
-import com.google.gson.Gson;
 import com.sparrowwallet.sparrow.io.Config;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
@@ -16,8 +14,8 @@ import java.io.*;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
-import java.util.Objects;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -28,29 +26,29 @@ public class TcpTransport implements Transport, Closeable {
     private static final int[] BASE_READ_TIMEOUT_SECS = {3, 8, 16, 34};
     public static final long PER_REQUEST_READ_TIMEOUT_MILLIS = 50;
     public static final int SOCKET_READ_TIMEOUT_MILLIS = 5000;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
 
     protected final HostAndPort server;
     protected final SocketFactory socketFactory;
 
     private Socket socket;
+    private OutputStream out;
 
-    private String response;
-
-    private final ReentrantLock readLock = new ReentrantLock();
-    private final Condition readingCondition = readLock.newCondition();
+    private final Map<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+    private final ReentrantLock pendingLock = new ReentrantLock();
+    private final Condition pendingCondition = pendingLock.newCondition();
+    private final CountDownLatch firstRequestLatch = new CountDownLatch(1);
 
     private final ReentrantLock clientRequestLock = new ReentrantLock();
-    private boolean running = false;
-    private volatile boolean reading = true;
-    private boolean firstRead = true;
-    private int readTimeoutIndex;
-    private int requestIdCount = 1;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile boolean running = false;
+    private volatile boolean multiplexed = false;
+    private volatile int readTimeoutIndex;
 
     private final JsonRpcServer jsonRpcServer = new JsonRpcServer();
     private final SubscriptionService subscriptionService = new SubscriptionService();
 
-    private Exception lastException;
-    private final Gson gson = new Gson();
+    private volatile Exception lastException;
 
     public TcpTransport(HostAndPort server) {
         this(server, null);
@@ -63,111 +61,138 @@ public class TcpTransport implements Transport, Closeable {
 
     @Override
     public @NotNull String pass(@NotNull String request) throws IOException {
-        clientRequestLock.lock();
+        //In multiplexed mode many requests may be in flight at once, with responses routed back by id
+        boolean serialized = !multiplexed;
+        if(serialized) {
+            clientRequestLock.lock();
+        }
+
         try {
-            Rpc sentRpc = request.startsWith("{") ? gson.fromJson(request, Rpc.class) : null;
-            Rpc recvRpc;
-            String recv;
-
-            //Count number of requests in batched query to increase read timeout appropriately
-            requestIdCount = Splitter.on("\"id\"").splitToList(request).size() - 1;
-            writeRequest(request);
-            do {
-                recv = readResponse();
-                recvRpc = recv.startsWith("{") ? gson.fromJson(response, Rpc.class) : null;
-            } while(!Objects.equals(recvRpc, sentRpc));
-
-            return recv;
+            byte[] requestBytes = request.getBytes(StandardCharsets.UTF_8);
+            List<String> ids = JsonRpcScanner.scan(requestBytes).getIds();
+            if(ids.isEmpty()) {
+                throw new IOException("Cannot send request without an id");
+            }
+
+            PendingRequest pendingRequest = registerRequest(ids);
+            try {
+                writeRequest(requestBytes);
+                return readResponse(pendingRequest);
+            } finally {
+                unregisterRequest(pendingRequest);
+            }
         } finally {
-            clientRequestLock.unlock();
+            if(serialized) {
+                clientRequestLock.unlock();
+            }
         }
     }
 
-    private void writeRequest(String request) throws IOException {
-        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
-        out.println(request);
-        out.flush();
+    private void writeRequest(byte[] request) throws IOException {
+        writeLock.lock();
+        try {
+            out.write(request);
+            out.write('\n');
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
     }
 
-    private String readResponse() throws IOException {
+    private PendingRequest registerRequest(List<String> ids) throws IOException {
+        pendingLock.lock();
         try {
-            if(!readLock.tryLock((BASE_READ_TIMEOUT_SECS[readTimeoutIndex] * 1000) + (requestIdCount * PER_REQUEST_READ_TIMEOUT_MILLIS), TimeUnit.MILLISECONDS)) {
-                readTimeoutIndex = Math.min(readTimeoutIndex + 1, BASE_READ_TIMEOUT_SECS.length - 1);
-                log.info("No response from server, setting read timeout to " + BASE_READ_TIMEOUT_SECS[readTimeoutIndex] + " secs");
-                throw new IOException("No response from server");
+            //Batch ids (paths, txids, heights) may be reused by concurrent callers, so wait until no request with the same id is in flight
+            while(ids.stream().anyMatch(pendingRequests::containsKey)) {
+                if(!pendingCondition.await(getReadTimeoutMillis(ids.size()), TimeUnit.MILLISECONDS)) {
+                    throw new IOException("Timed out waiting to send request with id " + ids.get(0));
+                }
+            }
+
+            PendingRequest pendingRequest = new PendingRequest(ids);
+            for(String id : ids) {
+                pendingRequests.put(id, pendingRequest);
             }
-        } catch(InterruptedException e) {
-            throw new IOException("Read thread interrupted");
-        }
 
-        if(readTimeoutIndex == BASE_READ_TIMEOUT_SECS.length - 1) {
-            readTimeoutIndex--;
+            firstRequestLatch.countDown();
+            return pendingRequest;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting to send request");
+        } finally {
+            pendingLock.unlock();
         }
+    }
 
+    private void unregisterRequest(PendingRequest pendingRequest) {
+        pendingLock.lock();
         try {
-            if(firstRead) {
-                readingCondition.signal();
-                firstRead = false;
+            for(String id : pendingRequest.ids) {
+                pendingRequests.remove(id, pendingRequest);
             }
+            pendingCondition.signalAll();
+        } finally {
+            pendingLock.unlock();
+        }
+    }
 
-            while(reading) {
-                try {
-                    readingCondition.await();
-                } catch(InterruptedException e) {
-                    //Restore interrupt status and break
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            }
+    private String readResponse(PendingRequest pendingRequest) throws IOException {
+        if(lastException != null) {
+            throw new IOException("Error reading response: " + lastException.getMessage(), lastException);
+        }
 
-            if(lastException != null) {
-                throw new IOException("Error reading response: " + lastException.getMessage(), lastException);
+        try {
+            String response = pendingRequest.response.get(getReadTimeoutMillis(pendingRequest.ids.size()), TimeUnit.MILLISECONDS);
+            if(readTimeoutIndex == BASE_READ_TIMEOUT_SECS.length - 1) {
+                readTimeoutIndex--;
             }
 
-            reading = true;
-
-            readingCondition.signal();
             return response;
-        } finally {
-            readLock.unlock();
+        } catch(TimeoutException e) {
+            readTimeoutIndex = Math.min(readTimeoutIndex + 1, BASE_READ_TIMEOUT_SECS.length - 1);
+            log.info("No response from server, setting read timeout to " + BASE_READ_TIMEOUT_SECS[readTimeoutIndex] + " secs");
+            throw new IOException("No response from server");
+        } catch(ExecutionException e) {
+            throw new IOException("Error reading response: " + e.getCause().getMessage(), e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Read thread interrupted");
         }
     }
 
-    public void readInputLoop() throws ServerException {
-        readLock.lock();
+    private long getReadTimeoutMillis(int requestIdCount) {
+        //Increase read timeout appropriately for the number of requests in a batched query
+        return (BASE_READ_TIMEOUT_SECS[readTimeoutIndex] * 1000L) + (requestIdCount * PER_REQUEST_READ_TIMEOUT_MILLIS);
+    }
 
+    public void readInputLoop() throws ServerException {
         try {
-            try {
-                //Don't start reading until first RPC request is sent
-                readingCondition.await();
-            } catch(InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            //Don't start reading until first RPC request is sent
+            firstRequestLatch.await();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
 
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        try {
+            JsonLineReader reader = new JsonLineReader(socket.getInputStream());
 
             while(running) {
                 try {
-                    String received = readInputStream(in);
-                    if(received.contains("method") && !received.contains("error")) {
+                    JsonLineReader.Line line = readLine(reader);
+                    //Route the message by scanning its top level members, without deserializing what may be a very large response
+                    JsonRpcScanner.Header header = JsonRpcScanner.scan(line.getBytes(), line.getOffset(), line.getLength());
+                    String received = line.toString();
+                    if(header.isNotification()) {
                         //Handle subscription notification
                         jsonRpcServer.handle(received, subscriptionService);
                     } else {
                         //Handle client's response
-                        response = received;
-                        reading = false;
-                        readingCondition.signal();
-                        readingCondition.await();
+                        completeRequest(header.getIds(), received);
                     }
-                } catch(InterruptedException e) {
-                    //Restore interrupt status and continue
-                    Thread.currentThread().interrupt();
                 } catch(Exception e) {
                     log.trace("Connection error while reading", e);
                     if(running) {
-                        lastException = e;
-                        reading = false;
-                        readingCondition.signal();
+                        failPendingRequests(e);
                         //Allow this thread to terminate as we will need to reconnect with a new transport anyway
                         running = false;
                     }
@@ -176,43 +201,61 @@ public class TcpTransport implements Transport, Closeable {
         } catch(IOException e) {
             log.error("Error opening socket inputstream", e);
             if(running) {
-                lastException = e;
-                reading = false;
-                readingCondition.signal();
+                failPendingRequests(e);
                 //Allow this thread to terminate as we will need to reconnect with a new transport anyway
                 running = false;
             }
-        } finally {
-            readLock.unlock();
         }
     }
 
-    protected String readInputStream(BufferedReader in) throws IOException {
-        String response = readLine(in);
+    private void completeRequest(List<String> ids, String received) {
+        PendingRequest pendingRequest = ids.isEmpty() ? null : pendingRequests.get(ids.get(0));
+        if(pendingRequest == null) {
+            log.debug("Discarding response with no pending request for id " + (ids.isEmpty() ? null : ids.get(0)));
+            return;
+        }
+
+        pendingRequest.response.complete(received);
+    }
 
-        if(response == null) {
-            throw new IOException("Could not connect to server at " + Config.get().getServerAddress());
+    private void failPendingRequests(Exception e) {
+        lastException = e;
+        for(PendingRequest pendingRequest : pendingRequests.values()) {
+            pendingRequest.response.completeExceptionally(e);
         }
+        firstRequestLatch.countDown();
+    }
 
-        return response;
+    public boolean isMultiplexed() {
+        return multiplexed;
     }
 
-    private String readLine(BufferedReader in) throws IOException {
+    public void setMultiplexed(boolean multiplexed) {
+        this.multiplexed = multiplexed;
+    }
+
+    private JsonLineReader.Line readLine(JsonLineReader reader) throws IOException {
         while(!socket.isClosed()) {
             try {
-                return in.readLine();
+                JsonLineReader.Line line = reader.readLine();
+                if(line == null) {
+                    break;
+                }
+
+                return line;
             } catch(SocketTimeoutException e) {
-                //ignore and continue
+                //ignore and continue, any partially read message is retained by the reader
             }
         }
 
-        return null;
+        throw new IOException("Could not connect to server at " + Config.get().getServerAddress());
     }
 
     public void connect() throws ServerException {
         try {
             socket = createSocket();
             socket.setSoTimeout(SOCKET_READ_TIMEOUT_MILLIS);
+            out = new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_SIZE);
             running = true;
         } catch(SSLHandshakeException e) {
             throw new TlsServerException(server, e);
@@ -240,24 +283,12 @@ public class TcpTransport implements Transport, Closeable {
         }
     }
 
-    private static class Rpc {
-        public String id;
-
-        @Override
-        public boolean equals(Object o) {
-            if(this == o) {
-                return true;
-            }
-            if(o == null || getClass() != o.getClass()) {
-                return false;
-            }
-            Rpc rpc = (Rpc) o;
-            return Objects.equals(id, rpc.id);
-        }
+    private static class PendingRequest {
+        private final List<String> ids;
+        private final CompletableFuture<String> response = new CompletableFuture<>();
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(id);
+        public PendingRequest(List<String> ids) {
+            this.ids = ids;
         }
     }
 }
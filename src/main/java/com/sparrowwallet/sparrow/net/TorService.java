@@ -1,21 +1,33 @@
 package com.sparrowwallet.sparrow.net;
 
+import com.google.common.net.HostAndPort;
+import com.sparrowwallet.sparrow.io.Config;
+import com.sparrowwallet.sparrow.io.Storage;
 import javafx.concurrent.ScheduledService;
 import javafx.concurrent.Task;
 import net.freehaven.tor.control.TorControlError;
 import org.berndpruenster.netlayer.tor.NativeTor;
 import org.berndpruenster.netlayer.tor.Tor;
 import org.berndpruenster.netlayer.tor.TorCtlException;
+import org.berndpruenster.netlayer.tor.TorSocket;
 import org.berndpruenster.netlayer.tor.Torrc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * Service to start internal Tor (including a Tor proxy running on localhost:9050)
@@ -29,30 +41,38 @@ public class TorService extends ScheduledService<NativeTor> {
     public static final String TOR_DIR_PREFIX = "tor";
     public static final String TOR_ADDRESS_SUFFIX = ".onion";
 
+    private static final String TOR_DIR_LOCK_FILE = "sparrow.lock";
+    private static final String TOR_CACHE_FILE_PREFIX = "cached-";
+    private static final long MAX_CACHE_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    private static FileLock torDirLock;
+
     @Override
     protected Task<NativeTor> createTask() {
         return new Task<>() {
             protected NativeTor call() throws IOException, TorServerException {
                 if(Tor.getDefault() == null) {
-                    Path path = Files.createTempDirectory(TOR_DIR_PREFIX);
-                    File torInstallDir = path.toFile();
-                    torInstallDir.deleteOnExit();
+                    File torInstallDir = getTorInstallDir();
                     try {
                         LinkedHashMap<String, String> torrcOptionsMap = new LinkedHashMap<>();
                         torrcOptionsMap.put("SocksPort", Integer.toString(PROXY_PORT));
                         torrcOptionsMap.put("DisableNetwork", "0");
                         Torrc override = new Torrc(torrcOptionsMap);
 
-                        return new NativeTor(torInstallDir, Collections.emptyList(), override);
+                        NativeTor nativeTor = new NativeTor(torInstallDir, Collections.emptyList(), override);
+                        prebuildServerCircuit(nativeTor);
+                        return nativeTor;
                     } catch(TorCtlException e) {
                         if(e.getCause() instanceof TorControlError) {
                             if(e.getCause().getMessage().contains("Failed to bind")) {
                                 throw new TorServerAlreadyBoundException("Tor server already bound", e.getCause());
                             }
                             log.error("Failed to start Tor", e);
+                            clearCache(torInstallDir);
                             throw new TorServerException("Failed to start Tor", e.getCause());
                         } else {
                             log.error("Failed to start Tor", e);
+                            clearCache(torInstallDir);
                             throw new TorServerException("Failed to start Tor", e);
                         }
                     }
@@ -62,4 +82,99 @@ public class TorService extends ScheduledService<NativeTor> {
             }
         };
     }
+
+    /**
+     * Returns the persistent Tor directory, so that the consensus, descriptors and guard state are retained between launches and Tor can bootstrap without downloading them again.
+     * If the directory is in use by another instance, a temporary directory is returned instead.
+     */
+    private static synchronized File getTorInstallDir() throws IOException {
+        File torDir = Storage.getTorDir();
+        if(torDirLock == null) {
+            try {
+                FileChannel lockChannel = FileChannel.open(new File(torDir, TOR_DIR_LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                torDirLock = lockChannel.tryLock();
+                if(torDirLock == null) {
+                    lockChannel.close();
+                }
+            } catch(IOException | OverlappingFileLockException e) {
+                log.warn("Could not lock Tor directory " + torDir.getAbsolutePath(), e);
+            }
+        }
+
+        if(torDirLock != null) {
+            cleanCache(torDir);
+            return torDir;
+        }
+
+        log.info("Tor directory " + torDir.getAbsolutePath() + " is in use, starting Tor in a temporary directory");
+        Path path = Files.createTempDirectory(TOR_DIR_PREFIX);
+        File torInstallDir = path.toFile();
+        torInstallDir.deleteOnExit();
+        return torInstallDir;
+    }
+
+    /**
+     * Removes cached directory documents that are empty or too old to be useful, which Tor would otherwise need to parse and discard
+     */
+    private static void cleanCache(File torDir) {
+        long expiry = System.currentTimeMillis() - MAX_CACHE_AGE_MILLIS;
+        deleteCacheFiles(torDir, file -> file.length() == 0 || file.lastModified() < expiry);
+    }
+
+    /**
+     * Removes all cached directory documents after a failed start, in case they are corrupt, so that the retry bootstraps from the network.
+     * The state file is retained so that the same entry guards continue to be used.
+     */
+    private static void clearCache(File torDir) {
+        if(torDirLock != null && torDir.equals(Storage.getTorDir())) {
+            deleteCacheFiles(torDir, file -> true);
+        }
+    }
+
+    private static void deleteCacheFiles(File torDir, Predicate<File> filter) {
+        try(Stream<Path> paths = Files.walk(torDir.toPath())) {
+            paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().startsWith(TOR_CACHE_FILE_PREFIX))
+                    .map(Path::toFile)
+                    .filter(filter)
+                    .forEach(file -> {
+                        if(!file.delete()) {
+                            log.warn("Could not delete Tor cache file " + file.getAbsolutePath());
+                        }
+                    });
+        } catch(IOException e) {
+            log.warn("Error cleaning Tor cache in " + torDir.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Opens a stream to a configured onion server in the background as soon as Tor has started, so the descriptor fetch and rendezvous circuit are underway while wallets are still opening.
+     * The stream uses the same isolation as the Electrum connection, so the connection can reuse the circuit.
+     */
+    private static void prebuildServerCircuit(NativeTor nativeTor) {
+        Config config = Config.get();
+        if(!config.hasServerAddress()) {
+            return;
+        }
+
+        Protocol protocol = Protocol.getProtocol(config.getServerAddress());
+        if(protocol == null) {
+            return;
+        }
+
+        HostAndPort server = protocol.getServerHostAndPort(config.getServerAddress());
+        if(!protocol.isOnionAddress(server)) {
+            return;
+        }
+
+        Thread prebuildThread = new Thread(() -> {
+            try(Socket socket = new TorSocket(server.getHost(), server.getPort(), TorTcpTransport.STREAM_ID, 1, nativeTor)) {
+                log.debug("Prebuilt Tor circuit to " + server);
+            } catch(Exception e) {
+                log.debug("Could not prebuild Tor circuit to " + server, e);
+            }
+        }, "TorCircuitPrebuild");
+        prebuildThread.setDaemon(true);
+        prebuildThread.start();
+    }
 }
@@ -9,6 +9,7 @@ import java.net.Socket;
 
 public class TorTcpTransport extends TcpTransport {
     public static final String TOR_DIR_PREFIX = "tor";
+    public static final String STREAM_ID = "sparrow";
 
     public TorTcpTransport(HostAndPort server) {
         super(server);
@@ -24,6 +25,6 @@ public class TorTcpTransport extends TcpTransport {
             throw new IllegalStateException("Can't create Tor socket, Tor is not running");
         }
 
-        return new TorSocket(server.getHost(), server.getPort(), "sparrow");
+        return new TorSocket(server.getHost(), server.getPort(), STREAM_ID);
     }
 }
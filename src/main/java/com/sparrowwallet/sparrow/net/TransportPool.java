@@ -0,0 +1,180 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.github.arteam.simplejsonrpc.client.Transport;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sparrowwallet.sparrow.io.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Additional connections to one or more Electrum servers, over which script hash and transaction requests are sharded alongside the active connection.
+ * Each connection has its own read thread, and subscription notifications received on any of them are handled by the same static subscription state.
+ * All servers are assumed to run the same server implementation as the active connection, so the same RPC implementation is used for each.
+ */
+class TransportPool implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(TransportPool.class);
+
+    //Pooled connections are optional, so connecting to the active server does not wait longer than this for them to open
+    private static final long CONNECT_TIMEOUT_MILLIS = 10000;
+
+    private static final ExecutorService shardExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ElectrumServerShard-%d").build());
+
+    private final List<TcpTransport> transports = new ArrayList<>();
+    private final List<Thread> readers = new ArrayList<>();
+
+    /**
+     * Opens the given number of connections, distributed round robin over the primary server and the server pool, starting after the primary server.
+     * The connections are opened in parallel, and any that have not opened within CONNECT_TIMEOUT_MILLIS are left out of the pool.
+     */
+    public void connect(String primaryServer, List<String> poolServers, int connections, boolean multiplexed, ElectrumServerRpc electrumServerRpc) {
+        List<String> servers = new ArrayList<>();
+        servers.add(primaryServer);
+        poolServers.stream().filter(server -> server != null && !server.isBlank() && !servers.contains(server)).forEach(servers::add);
+
+        List<CompletableFuture<PooledConnection>> connecting = new ArrayList<>();
+        for(int i = 1; i <= connections; i++) {
+            String server = servers.get(i % servers.size());
+            int connection = i;
+            connecting.add(CompletableFuture.supplyAsync(() -> openConnection(server, primaryServer, connection, multiplexed, electrumServerRpc), shardExecutor));
+        }
+
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        for(int i = 1; i <= connections; i++) {
+            String server = servers.get(i % servers.size());
+            CompletableFuture<PooledConnection> future = connecting.get(i - 1);
+            try {
+                PooledConnection pooledConnection = future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                transports.add(pooledConnection.transport);
+                readers.add(pooledConnection.reader);
+            } catch(TimeoutException e) {
+                log.warn("Timed out opening pooled connection to " + server + ", continuing without it");
+                //Close the connection if it opens after it has been left out of the pool
+                future.thenAccept(PooledConnection::close);
+            } catch(ExecutionException e) {
+                log.warn("Could not open pooled connection to " + server + ", continuing without it", e.getCause());
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                connecting.forEach(remaining -> remaining.thenAccept(PooledConnection::close));
+                break;
+            }
+        }
+
+        log.debug("Opened " + transports.size() + " pooled connections across " + servers.size() + " servers");
+    }
+
+    private static PooledConnection openConnection(String server, String primaryServer, int connection, boolean multiplexed, ElectrumServerRpc electrumServerRpc) {
+        TcpTransport tcpTransport = null;
+        try {
+            //The configured certificate only applies to the configured server
+            tcpTransport = (TcpTransport)ElectrumServer.createTransport(server, server.equals(primaryServer) ? Config.get().getElectrumServerCert() : null, Config.get().getProxyServer());
+            tcpTransport.connect();
+
+            Thread reader = new Thread(new ElectrumServer.ReadRunnable(tcpTransport), "ElectrumServerPoolReadThread-" + connection);
+            reader.setDaemon(true);
+            reader.start();
+
+            electrumServerRpc.getServerVersion(tcpTransport, "Sparrow", ElectrumServer.SUPPORTED_VERSIONS);
+            tcpTransport.setMultiplexed(multiplexed);
+
+            return new PooledConnection(tcpTransport, reader);
+        } catch(Exception e) {
+            if(tcpTransport != null) {
+                try {
+                    tcpTransport.close();
+                } catch(IOException ex) {
+                    log.debug("Error closing failed pooled connection", ex);
+                }
+            }
+
+            throw new CompletionException(e);
+        }
+    }
+
+    public boolean isConnected() {
+        for(int i = 0; i < transports.size(); i++) {
+            if(!transports.get(i).isConnected() || !readers.get(i).isAlive()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public <K, R> Map<K, R> execute(Transport primary, Collection<K> keys, Function<K, String> shardKey, BiFunction<Transport, Set<K>, Map<K, R>> call) throws ServerException {
+        List<Transport> shardTransports = new ArrayList<>();
+        shardTransports.add(primary);
+        shardTransports.addAll(transports);
+
+        List<Set<K>> shards = new ArrayList<>();
+        for(int i = 0; i < shardTransports.size(); i++) {
+            shards.add(new LinkedHashSet<>());
+        }
+        for(K key : keys) {
+            shards.get(Math.floorMod(shardKey.apply(key).hashCode(), shardTransports.size())).add(key);
+        }
+
+        List<Future<Map<K, R>>> futures = new ArrayList<>();
+        for(int i = 0; i < shardTransports.size(); i++) {
+            Transport shardTransport = shardTransports.get(i);
+            Set<K> shard = shards.get(i);
+            if(!shard.isEmpty()) {
+                futures.add(shardExecutor.submit(() -> call.apply(shardTransport, shard)));
+            }
+        }
+
+        Map<K, R> result = new LinkedHashMap<>();
+        try {
+            for(Future<Map<K, R>> future : futures) {
+                result.putAll(future.get());
+            }
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+
+            throw new ServerException(e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Interrupted waiting for sharded requests");
+        } finally {
+            futures.forEach(future -> future.cancel(false));
+        }
+
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for(TcpTransport tcpTransport : transports) {
+            tcpTransport.close();
+        }
+
+        transports.clear();
+        readers.clear();
+    }
+
+    private static class PooledConnection {
+        private final TcpTransport transport;
+        private final Thread reader;
+
+        public PooledConnection(TcpTransport transport, Thread reader) {
+            this.transport = transport;
+            this.reader = reader;
+        }
+
+        public void close() {
+            try {
+                transport.close();
+            } catch(IOException e) {
+                log.debug("Error closing abandoned pooled connection", e);
+            }
+        }
+    }
+}
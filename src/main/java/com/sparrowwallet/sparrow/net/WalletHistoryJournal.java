@@ -0,0 +1,47 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+
+import java.util.*;
+
+/**
+ * Records the address nodes of a wallet whose transaction outputs have been changed, or which have been added, by a single history refresh.
+ * Each refresh records into its own journal, so refreshes that overlap only report the nodes they have changed themselves.
+ * Changes made outside of the refresh, such as clearing the history before a full refresh, are not seen by the journal and are recorded by comparing against the wallet from before those changes.
+ */
+public class WalletHistoryJournal {
+    private final Set<WalletNode> changedNodes = new TreeSet<>();
+
+    synchronized void recordChanged(WalletNode node) {
+        changedNodes.add(node);
+    }
+
+    /**
+     * Records the receive and change nodes of the wallet whose transaction outputs differ from the same node in the previous copy of the wallet, or which the previous copy does not have
+     */
+    public synchronized void recordChanges(Wallet previousWallet, Wallet wallet) {
+        for(KeyPurpose keyPurpose : List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE)) {
+            Map<WalletNode, Set<BlockTransactionHashIndex>> previousOutputs = new HashMap<>();
+            for(WalletNode previousNode : previousWallet.getNode(keyPurpose).getChildren()) {
+                previousOutputs.put(previousNode, previousNode.getTransactionOutputs());
+            }
+
+            for(WalletNode node : wallet.getNode(keyPurpose).getChildren()) {
+                Set<BlockTransactionHashIndex> outputs = previousOutputs.get(node);
+                if(outputs == null || !node.getTransactionOutputs().equals(outputs)) {
+                    changedNodes.add(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the changed nodes in derivation order
+     */
+    public synchronized List<WalletNode> getChangedNodes() {
+        return new ArrayList<>(changedNodes);
+    }
+}
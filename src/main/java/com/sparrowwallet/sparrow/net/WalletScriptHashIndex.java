@@ -0,0 +1,116 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.google.common.collect.MapMaker;
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.protocol.Script;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Two way index between the address nodes of a wallet and their Electrum script hashes, so each output script and script hash is only derived once.
+ * Address nodes are only ever appended to a purpose node, so nodes added since the last lookup are found by comparing child counts.
+ * Indexes are held per wallet instance, and are discarded when the wallet is no longer referenced.
+ */
+class WalletScriptHashIndex {
+    private static final List<KeyPurpose> INDEXED_PURPOSES = List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE);
+    public static final int DERIVATION_RANGE_SIZE = 250;
+
+    private static final Map<Wallet, WalletScriptHashIndex> walletIndexes = new MapMaker().weakKeys().makeMap();
+
+    private final Map<WalletNode, DerivedScript> nodeScripts = new HashMap<>();
+    private final Map<String, WalletNode> scriptHashNodes = new HashMap<>();
+    private final Map<KeyPurpose, Integer> indexedChildCounts = new EnumMap<>(KeyPurpose.class);
+
+    static WalletScriptHashIndex get(Wallet wallet) {
+        return walletIndexes.computeIfAbsent(wallet, w -> new WalletScriptHashIndex());
+    }
+
+    String getScriptHash(Wallet wallet, WalletNode node) {
+        return getDerivedScript(wallet, node).scriptHash;
+    }
+
+    Script getOutputScript(Wallet wallet, WalletNode node) {
+        return getDerivedScript(wallet, node).outputScript;
+    }
+
+    private DerivedScript getDerivedScript(Wallet wallet, WalletNode node) {
+        synchronized(this) {
+            DerivedScript derivedScript = nodeScripts.get(node);
+            if(derivedScript != null) {
+                return derivedScript;
+            }
+        }
+
+        //Derive outside the lock so that derivation of different nodes can proceed in parallel
+        DerivedScript derivedScript = new DerivedScript(wallet, node);
+        synchronized(this) {
+            nodeScripts.putIfAbsent(node, derivedScript);
+            scriptHashNodes.putIfAbsent(derivedScript.scriptHash, node);
+        }
+
+        return derivedScript;
+    }
+
+    synchronized WalletNode getWalletNode(Wallet wallet, String scriptHash) {
+        WalletNode node = scriptHashNodes.get(scriptHash);
+        if(node == null && indexNewChildren(wallet)) {
+            node = scriptHashNodes.get(scriptHash);
+        }
+
+        return node;
+    }
+
+    private boolean indexNewChildren(Wallet wallet) {
+        boolean indexed = false;
+        for(KeyPurpose keyPurpose : INDEXED_PURPOSES) {
+            Set<WalletNode> children = wallet.getNode(keyPurpose).getChildren();
+            if(children.size() != indexedChildCounts.getOrDefault(keyPurpose, 0)) {
+                for(WalletNode childNode : children) {
+                    getDerivedScript(wallet, childNode);
+                }
+
+                indexedChildCounts.put(keyPurpose, children.size());
+                indexed = true;
+            }
+        }
+
+        return indexed;
+    }
+
+    /**
+     * Derives the output scripts and script hashes of the given nodes in parallel, split into ranges of DERIVATION_RANGE_SIZE nodes.
+     * The returned futures complete in any order, but are listed in the order of the provided nodes so that callers can consume each range as it becomes ready.
+     */
+    List<CompletableFuture<List<WalletNode>>> deriveScriptHashes(Wallet wallet, List<WalletNode> nodes) {
+        List<CompletableFuture<List<WalletNode>>> ranges = new ArrayList<>();
+        for(int start = 0; start < nodes.size(); start += DERIVATION_RANGE_SIZE) {
+            List<WalletNode> range = nodes.subList(start, Math.min(nodes.size(), start + DERIVATION_RANGE_SIZE));
+            ranges.add(CompletableFuture.supplyAsync(() -> {
+                for(WalletNode node : range) {
+                    getDerivedScript(wallet, node);
+                }
+                return range;
+            }, ForkJoinPool.commonPool()));
+        }
+
+        return ranges;
+    }
+
+    private static class DerivedScript {
+        private final Script outputScript;
+        private final String scriptHash;
+
+        public DerivedScript(Wallet wallet, WalletNode node) {
+            this.outputScript = wallet.getOutputScript(node);
+            byte[] hash = Sha256Hash.hash(outputScript.getProgram());
+            byte[] reversed = Utils.reverseBytes(hash);
+            this.scriptHash = Utils.bytesToHex(reversed);
+        }
+    }
+}
@@ -46,6 +46,7 @@ import java.net.URL;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 
 public class SendController extends WalletFormController implements Initializable {
@@ -496,7 +497,10 @@ public class SendController extends WalletFormController implements Initializabl
                 boolean includeMempoolOutputs = Config.get().isIncludeMempoolOutputs();
                 boolean includeSpentMempoolOutputs = includeSpentMempoolOutputsProperty.get();
 
-                walletTransactionService = new WalletTransactionService(wallet, getUtxoSelectors(), getUtxoFilters(), payments, excludedChangeNodes, feeRate, getMinimumFeeRate(), userFee, currentBlockHeight, groupByAddress, includeMempoolOutputs, includeSpentMempoolOutputs);
+                long costOfChange = wallet.getCostOfChange(feeRate, getMinimumFeeRate());
+                int utxoSelectionDeadline = Config.get().getUtxoSelectionDeadline();
+
+                walletTransactionService = new WalletTransactionService(wallet, getUtxoSelectors(), getUtxoFilters(), payments, excludedChangeNodes, feeRate, getMinimumFeeRate(), userFee, currentBlockHeight, groupByAddress, includeMempoolOutputs, includeSpentMempoolOutputs, costOfChange, utxoSelectionDeadline);
                 walletTransactionService.setOnSucceeded(event -> {
                     if(!walletTransactionService.isIgnoreResult()) {
                         walletTransactionProperty.setValue(walletTransactionService.getValue());
@@ -555,9 +559,11 @@ public class SendController extends WalletFormController implements Initializabl
         private final boolean groupByAddress;
         private final boolean includeMempoolOutputs;
         private final boolean includeSpentMempoolOutputs;
+        private final long costOfChange;
+        private final int utxoSelectionDeadline;
         private boolean ignoreResult;
 
-        public WalletTransactionService(Wallet wallet, List<UtxoSelector> utxoSelectors, List<UtxoFilter> utxoFilters, List<Payment> payments, List<WalletNode> excludedChangeNodes, double feeRate, double longTermFeeRate, Long fee, Integer currentBlockHeight, boolean groupByAddress, boolean includeMempoolOutputs, boolean includeSpentMempoolOutputs) {
+        public WalletTransactionService(Wallet wallet, List<UtxoSelector> utxoSelectors, List<UtxoFilter> utxoFilters, List<Payment> payments, List<WalletNode> excludedChangeNodes, double feeRate, double longTermFeeRate, Long fee, Integer currentBlockHeight, boolean groupByAddress, boolean includeMempoolOutputs, boolean includeSpentMempoolOutputs, long costOfChange, int utxoSelectionDeadline) {
             this.wallet = wallet;
             this.utxoSelectors = utxoSelectors;
             this.utxoFilters = utxoFilters;
@@ -570,17 +576,35 @@ public class SendController extends WalletFormController implements Initializabl
             this.groupByAddress = groupByAddress;
             this.includeMempoolOutputs = includeMempoolOutputs;
             this.includeSpentMempoolOutputs = includeSpentMempoolOutputs;
+            this.costOfChange = costOfChange;
+            this.utxoSelectionDeadline = utxoSelectionDeadline;
         }
 
         @Override
         protected Task<WalletTransaction> createTask() {
             return new Task<>() {
-                protected WalletTransaction call() throws InsufficientFundsException {
-                    return wallet.createWalletTransaction(utxoSelectors, utxoFilters, payments, excludedChangeNodes, feeRate, longTermFeeRate, fee, currentBlockHeight, groupByAddress, includeMempoolOutputs, includeSpentMempoolOutputs);
+                protected WalletTransaction call() throws InsufficientFundsException, InterruptedException {
+                    if(utxoSelectors.size() == 1) {
+                        return createWalletTransaction(utxoSelectors);
+                    }
+
+                    //Run the selectors concurrently, so that a slow search by one selector does not delay the result of the others beyond the deadline
+                    UtxoSelectionRace<WalletTransaction> utxoSelectionRace = new UtxoSelectionRace<>(utxoSelectors, (utxoSelector, cancelled) -> {
+                        //The selectors themselves run to completion, so a cancelled selection can only be abandoned before it starts
+                        if(cancelled.getAsBoolean()) {
+                            throw new CancellationException();
+                        }
+                        return createWalletTransaction(List.of(utxoSelector));
+                    }, walletTransaction -> UtxoSelectionRace.getWaste(walletTransaction, longTermFeeRate, costOfChange));
+                    return utxoSelectionRace.createTransaction(utxoSelectionDeadline);
                 }
             };
         }
 
+        private WalletTransaction createWalletTransaction(List<UtxoSelector> selectors) throws InsufficientFundsException {
+            return wallet.createWalletTransaction(selectors, utxoFilters, payments, excludedChangeNodes, feeRate, longTermFeeRate, fee, currentBlockHeight, groupByAddress, includeMempoolOutputs, includeSpentMempoolOutputs);
+        }
+
         public boolean isIgnoreResult() {
             return ignoreResult;
         }
@@ -3,6 +3,7 @@ package com.sparrowwallet.sparrow.wallet;
 import com.google.common.eventbus.Subscribe;
 import com.sparrowwallet.drongo.KeyPurpose;
 import com.sparrowwallet.drongo.protocol.TransactionInput;
+import com.sparrowwallet.drongo.protocol.TransactionOutPoint;
 import com.sparrowwallet.drongo.protocol.TransactionOutput;
 import com.sparrowwallet.drongo.wallet.*;
 import com.sparrowwallet.sparrow.EventManager;
@@ -82,25 +83,27 @@ public class TransactionEntry extends Entry implements Comparable<TransactionEnt
         }
     }
 
-    public boolean isComplete() {
+    /**
+     * Checks that this entry has a child for every wallet txo the transaction funds or spends, looking up txos in the provided index of wallet txos by outpoint
+     */
+    public boolean isComplete(Map<TransactionOutPoint, BlockTransactionHashIndex> walletTxos) {
         int validEntries = 0;
-        Map<BlockTransactionHashIndex, WalletNode> walletTxos = getWallet().getWalletTxos();
         for(TransactionInput txInput : blockTransaction.getTransaction().getInputs()) {
-            Optional<BlockTransactionHashIndex> optRef = walletTxos.keySet().stream().filter(ref -> ref.getHash().equals(txInput.getOutpoint().getHash()) && ref.getIndex() == txInput.getOutpoint().getIndex()).findFirst();
-            if(optRef.isPresent()) {
+            BlockTransactionHashIndex ref = walletTxos.get(txInput.getOutpoint());
+            if(ref != null) {
                 validEntries++;
-                if(getChildren().stream().noneMatch(entry -> ((HashIndexEntry)entry).getHashIndex().equals(optRef.get().getSpentBy()) && ((HashIndexEntry)entry).getType().equals(HashIndexEntry.Type.INPUT))) {
-                    log.warn("TransactionEntry " + blockTransaction.getHash() + " for wallet " + getWallet().getName() + " missing child for input " + optRef.get().getSpentBy() + " on output " + optRef.get());
+                if(getChildren().stream().noneMatch(entry -> ((HashIndexEntry)entry).getHashIndex().equals(ref.getSpentBy()) && ((HashIndexEntry)entry).getType().equals(HashIndexEntry.Type.INPUT))) {
+                    log.warn("TransactionEntry " + blockTransaction.getHash() + " for wallet " + getWallet().getName() + " missing child for input " + ref.getSpentBy() + " on output " + ref);
                     return false;
                 }
             }
         }
         for(TransactionOutput txOutput : blockTransaction.getTransaction().getOutputs()) {
-            Optional<BlockTransactionHashIndex> optRef = walletTxos.keySet().stream().filter(ref -> ref.getHash().equals(txOutput.getHash()) && ref.getIndex() == txOutput.getIndex()).findFirst();
-            if(optRef.isPresent()) {
+            BlockTransactionHashIndex ref = walletTxos.get(new TransactionOutPoint(txOutput.getHash(), txOutput.getIndex()));
+            if(ref != null) {
                 validEntries++;
-                if(getChildren().stream().noneMatch(entry -> ((HashIndexEntry)entry).getHashIndex().equals(optRef.get()) && ((HashIndexEntry)entry).getType().equals(HashIndexEntry.Type.OUTPUT))) {
-                    log.warn("TransactionEntry " + blockTransaction.getHash() + " for wallet " + getWallet().getName() + " missing child for output " + optRef.get());
+                if(getChildren().stream().noneMatch(entry -> ((HashIndexEntry)entry).getHashIndex().equals(ref) && ((HashIndexEntry)entry).getType().equals(HashIndexEntry.Type.OUTPUT))) {
+                    log.warn("TransactionEntry " + blockTransaction.getHash() + " for wallet " + getWallet().getName() + " missing child for output " + ref);
                     return false;
                 }
             }
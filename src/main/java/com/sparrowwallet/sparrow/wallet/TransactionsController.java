@@ -186,7 +186,11 @@ public class TransactionsController extends WalletFormController implements Init
             WalletTransactionsEntry walletTransactionsEntry = getWalletForm().getWalletTransactionsEntry();
 
             //Will automatically update transactionsTable transactions and recalculate balances
-            walletTransactionsEntry.updateTransactions();
+            if(event.getHistoryChangedNodes().isEmpty()) {
+                walletTransactionsEntry.updateTransactions();
+            } else {
+                walletTransactionsEntry.updateTransactions(event.getHistoryChangedNodes());
+            }
 
             transactionsTable.updateHistory(event.getHistoryChangedNodes());
             balance.setValue(walletTransactionsEntry.getBalance());
@@ -196,6 +200,20 @@ public class TransactionsController extends WalletFormController implements Init
         }
     }
 
+    @Subscribe
+    public void walletTransactionsLoaded(WalletTransactionsLoadedEvent event) {
+        if(event.getWallet().equals(walletForm.getWallet()) && !event.getTransactions().isEmpty()) {
+            WalletTransactionsEntry walletTransactionsEntry = getWalletForm().getWalletTransactionsEntry();
+            walletTransactionsEntry.addTransactions(event.getTransactions().keySet());
+
+            transactionsTable.updateAll(walletTransactionsEntry);
+            balance.setValue(walletTransactionsEntry.getBalance());
+            mempoolBalance.setValue(walletTransactionsEntry.getMempoolBalance());
+            balanceChart.update(walletTransactionsEntry);
+            setTransactionCount(walletTransactionsEntry);
+        }
+    }
+
     @Subscribe
     public void walletEntryLabelChanged(WalletEntryLabelsChangedEvent event) {
         if(event.getWallet().equals(walletForm.getWallet())) {
@@ -0,0 +1,170 @@
+package com.sparrowwallet.sparrow.wallet;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sparrowwallet.drongo.wallet.InsufficientFundsException;
+import com.sparrowwallet.drongo.wallet.UtxoSelector;
+import com.sparrowwallet.drongo.wallet.WalletTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Creates a transaction with each UTXO selector concurrently, rather than trying each selector in turn.
+ * The transaction with the least waste of those created by the deadline is returned, or if none have been created by then, the first to be created after it.
+ * Selections still running when a transaction is returned are cancelled, which interrupts them.
+ * Selectors that ignore the interruption run to completion, so selections run on a bounded pool, and those cancelled before they have started are never run.
+ */
+class UtxoSelectionRace<T> {
+    private static final Logger log = LoggerFactory.getLogger(UtxoSelectionRace.class);
+
+    //Enough threads for the selectors of one race to run concurrently, even on machines with few processors
+    private static final int MIN_SELECTION_THREADS = 4;
+    private static final ExecutorService selectionExecutor = Executors.newFixedThreadPool(Math.max(MIN_SELECTION_THREADS, Runtime.getRuntime().availableProcessors()),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("UtxoSelection-%d").build());
+
+    private final List<UtxoSelector> utxoSelectors;
+    private final TransactionCreator<T> transactionCreator;
+    private final ToLongFunction<T> wasteCalculator;
+
+    public UtxoSelectionRace(List<UtxoSelector> utxoSelectors, TransactionCreator<T> transactionCreator, ToLongFunction<T> wasteCalculator) {
+        this.utxoSelectors = utxoSelectors;
+        this.transactionCreator = transactionCreator;
+        this.wasteCalculator = wasteCalculator;
+    }
+
+    public T createTransaction(long deadlineMillis) throws InsufficientFundsException, InterruptedException {
+        CompletionService<T> completionService = new ExecutorCompletionService<>(selectionExecutor);
+        Map<Future<T>, Selection> selections = new LinkedHashMap<>();
+        Selection last = null;
+        for(UtxoSelector utxoSelector : utxoSelectors) {
+            last = new Selection(utxoSelector);
+            //Tasks submitted to a completion service are FutureTasks, which interrupt the running selection when cancelled
+            selections.put(completionService.submit(last), last);
+        }
+
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+            Selection best = null;
+            int remaining = selections.size();
+            while(remaining > 0) {
+                long timeout = deadline - System.nanoTime();
+                Future<T> completed;
+                if(timeout > 0) {
+                    completed = completionService.poll(timeout, TimeUnit.NANOSECONDS);
+                } else if(best == null) {
+                    completed = completionService.take();
+                } else {
+                    break;
+                }
+
+                if(completed != null) {
+                    remaining--;
+                    Selection selection = selections.get(completed);
+                    if(selection.isSelected() && (best == null || selection.waste < best.waste)) {
+                        best = selection;
+                    }
+                }
+            }
+
+            if(best == null) {
+                //All selections failed, so report the failure of the last selector, which is the most general
+                throw getFailure(selections, last);
+            }
+
+            return best.transaction;
+        } finally {
+            for(Map.Entry<Future<T>, Selection> entry : selections.entrySet()) {
+                entry.getKey().cancel(true);
+                entry.getValue().log(entry.getKey());
+            }
+        }
+    }
+
+    private InsufficientFundsException getFailure(Map<Future<T>, Selection> selections, Selection selection) throws InterruptedException {
+        for(Map.Entry<Future<T>, Selection> entry : selections.entrySet()) {
+            if(entry.getValue() == selection) {
+                try {
+                    entry.getKey().get();
+                } catch(ExecutionException e) {
+                    if(e.getCause() instanceof InsufficientFundsException) {
+                        return (InsufficientFundsException)e.getCause();
+                    }
+                    if(e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException)e.getCause();
+                    }
+                    if(e.getCause() instanceof Error) {
+                        throw (Error)e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+
+        throw new IllegalStateException("Selection did not fail");
+    }
+
+    /**
+     * Returns the fee paid above the long term fee rate, plus the cost of change if the transaction has a change output
+     */
+    public static long getWaste(WalletTransaction walletTransaction, double longTermFeeRate, long costOfChange) {
+        long longTermFee = (long)Math.ceil(walletTransaction.getTransaction().getVirtualSize() * longTermFeeRate);
+        return walletTransaction.getFee() - longTermFee + (walletTransaction.getChangeNode() != null ? costOfChange : 0L);
+    }
+
+    private class Selection implements Callable<T> {
+        private final UtxoSelector utxoSelector;
+        private final long startNanos = System.nanoTime();
+        private volatile long elapsedNanos;
+        private volatile T transaction;
+        private volatile long waste;
+
+        public Selection(UtxoSelector utxoSelector) {
+            this.utxoSelector = utxoSelector;
+        }
+
+        @Override
+        public T call() throws InsufficientFundsException {
+            try {
+                BooleanSupplier cancelled = () -> Thread.currentThread().isInterrupted();
+                T created = transactionCreator.createTransaction(utxoSelector, cancelled);
+                if(cancelled.getAsBoolean()) {
+                    throw new CancellationException();
+                }
+
+                waste = wasteCalculator.applyAsLong(created);
+                transaction = created;
+                return created;
+            } finally {
+                elapsedNanos = System.nanoTime() - startNanos;
+            }
+        }
+
+        public boolean isSelected() {
+            return transaction != null;
+        }
+
+        public void log(Future<T> future) {
+            String selector = utxoSelector.getClass().getSimpleName();
+            if(isSelected()) {
+                log.debug(selector + " selected a transaction in " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms with waste " + waste);
+            } else if(future.isCancelled()) {
+                log.debug(selector + " abandoned after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + "ms");
+            } else {
+                log.debug(selector + " found no selection in " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms");
+            }
+        }
+    }
+
+    public interface TransactionCreator<T> {
+        /**
+         * Creates a transaction with the selector. The cancelled supplier becomes true once the result is no longer needed, and should be checked between units of work.
+         */
+        T createTransaction(UtxoSelector utxoSelector, BooleanSupplier cancelled) throws InsufficientFundsException;
+    }
+}
@@ -14,7 +14,11 @@ import com.sparrowwallet.sparrow.event.*;
 import com.sparrowwallet.sparrow.io.Config;
 import com.sparrowwallet.sparrow.net.ElectrumServer;
 import com.sparrowwallet.sparrow.io.Storage;
+import com.sparrowwallet.sparrow.io.StorageException;
+import com.sparrowwallet.sparrow.io.WalletChanges;
+import com.sparrowwallet.sparrow.io.WalletSaveScheduler;
 import com.sparrowwallet.sparrow.net.ServerType;
+import com.sparrowwallet.sparrow.net.WalletHistoryJournal;
 import javafx.application.Platform;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,14 +26,22 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.stream.Collectors;
 
 public class WalletForm {
     private static final Logger log = LoggerFactory.getLogger(WalletForm.class);
 
     private final Storage storage;
+    private final WalletSaveScheduler saveScheduler;
+    private final WalletNodeHistoryAggregator nodeHistoryAggregator = new WalletNodeHistoryAggregator(nodes -> refreshHistory(AppServices.getCurrentBlockHeight(), null, nodes));
     protected Wallet wallet;
     private Wallet savedPastWallet;
 
+    //While transactions deferred when opening the wallet are loading, saves and history refreshes wait until they have all been added
+    private boolean transactionsLoading;
+    private boolean historyRefreshDeferred;
+    private Wallet deferredPastWallet;
+
     private WalletTransactionsEntry walletTransactionsEntry;
     private WalletUtxosEntry walletUtxosEntry;
     private final List<NodeEntry> accountEntries = new ArrayList<>();
@@ -42,6 +54,11 @@ public class WalletForm {
     public WalletForm(Storage storage, Wallet currentWallet, Wallet backupWallet, boolean refreshHistory) {
         this.storage = storage;
         this.wallet = currentWallet;
+        this.saveScheduler = new WalletSaveScheduler(storage, () -> wallet, ElectrumServer.TransactionHistoryService::getWalletSynchronizeLock);
+        this.transactionsLoading = storage.isTransactionsDeferred();
+        if(transactionsLoading) {
+            saveScheduler.holdSaves(() -> completeTransactions(false));
+        }
 
         //Unencrypted wallets load before isConnected is true, waiting for the ConnectionEvent to refresh history - save the backup for this event
         savedPastWallet = backupWallet;
@@ -73,7 +90,12 @@ public class WalletForm {
     }
 
     public void save() throws IOException {
-        storage.saveWallet(wallet);
+        //Saving before the deferred transactions have loaded would leave them out of the wallet file, so read the rest of them now
+        if(transactionsLoading) {
+            completeTransactions(true);
+        }
+
+        saveScheduler.saveNow();
     }
 
     public void saveAndRefresh() throws IOException {
@@ -96,15 +118,28 @@ public class WalletForm {
         refreshHistory(blockHeight, pastWallet, null);
     }
 
-    public void refreshHistory(Integer blockHeight, Wallet pastWallet, WalletNode node) {
-        Wallet previousWallet = wallet.copy();
+    public void refreshHistory(Integer blockHeight, Wallet pastWallet, Set<WalletNode> nodes) {
+        //Refreshing before the deferred transactions have loaded would fetch them all again from the server, so refresh the full history once they have loaded
+        if(transactionsLoading) {
+            deferRefreshHistory(pastWallet);
+            return;
+        }
+
+        Integer previousBlockHeight = wallet.getStoredBlockHeight();
         if(wallet.isValid() && AppServices.isConnected()) {
-            log.debug(node == null ? wallet.getName() + " refreshing full wallet history" : wallet.getName() + " requesting node wallet history for " + node.getDerivationPath());
-            ElectrumServer.TransactionHistoryService historyService = new ElectrumServer.TransactionHistoryService(wallet, getWalletTransactionNodes(node));
+            log.debug(nodes == null ? wallet.getName() + " refreshing full wallet history" : wallet.getName() + " requesting node wallet history for " + nodes.stream().map(WalletNode::getDerivationPath).collect(Collectors.toList()));
+            //The history service journals the nodes it changes, including nodes found to have no history on a full refresh.
+            //A refresh following changes made elsewhere, such as clearing the history, also compares against the wallet from before those changes
+            Wallet previousWallet = (nodes == null ? pastWallet : null);
+            ElectrumServer.TransactionHistoryService historyService = new ElectrumServer.TransactionHistoryService(wallet, getWalletTransactionNodes(nodes));
             historyService.setOnSucceeded(workerStateEvent -> {
                 if(historyService.getValue()) {
                     EventManager.get().post(new WalletHistoryFinishedEvent(wallet));
-                    updateWallet(blockHeight, pastWallet, previousWallet);
+                    WalletHistoryJournal historyJournal = historyService.getHistoryJournal();
+                    if(previousWallet != null) {
+                        historyJournal.recordChanges(previousWallet, wallet);
+                    }
+                    updateWallet(blockHeight, pastWallet, historyJournal.getChangedNodes(), previousBlockHeight);
                 }
             });
             historyService.setOnFailed(workerStateEvent -> {
@@ -117,12 +152,19 @@ public class WalletForm {
                 EventManager.get().post(new WalletHistoryFailedEvent(wallet, workerStateEvent.getSource().getException()));
             });
 
-            EventManager.get().post(new WalletHistoryStartedEvent(wallet, node));
+            EventManager.get().post(new WalletHistoryStartedEvent(wallet, nodes));
             historyService.start();
         }
     }
 
-    private void updateWallet(Integer blockHeight, Wallet pastWallet, Wallet previousWallet) {
+    private void deferRefreshHistory(Wallet pastWallet) {
+        historyRefreshDeferred = true;
+        if(pastWallet != null) {
+            deferredPastWallet = pastWallet;
+        }
+    }
+
+    private void updateWallet(Integer blockHeight, Wallet pastWallet, List<WalletNode> historyChangedNodes, Integer previousBlockHeight) {
         if(blockHeight != null) {
             wallet.setStoredBlockHeight(blockHeight);
         }
@@ -132,7 +174,7 @@ public class WalletForm {
             labelsChanged = copyLabels(pastWallet);
         }
 
-        notifyIfChanged(blockHeight, previousWallet, labelsChanged);
+        notifyIfChanged(blockHeight, historyChangedNodes, previousBlockHeight, labelsChanged);
     }
 
     private boolean copyLabels(Wallet pastWallet) {
@@ -151,61 +193,42 @@ public class WalletForm {
         return changed;
     }
 
-    private void notifyIfChanged(Integer blockHeight, Wallet previousWallet, boolean labelsChanged) {
-        List<WalletNode> historyChangedNodes = new ArrayList<>();
-        historyChangedNodes.addAll(getHistoryChangedNodes(previousWallet.getNode(KeyPurpose.RECEIVE).getChildren(), wallet.getNode(KeyPurpose.RECEIVE).getChildren()));
-        historyChangedNodes.addAll(getHistoryChangedNodes(previousWallet.getNode(KeyPurpose.CHANGE).getChildren(), wallet.getNode(KeyPurpose.CHANGE).getChildren()));
-
+    private void notifyIfChanged(Integer blockHeight, List<WalletNode> historyChangedNodes, Integer previousBlockHeight, boolean labelsChanged) {
         boolean changed = labelsChanged;
         if(!historyChangedNodes.isEmpty()) {
             Platform.runLater(() -> EventManager.get().post(new WalletHistoryChangedEvent(wallet, storage, historyChangedNodes)));
             changed = true;
         }
 
-        if(blockHeight != null && !blockHeight.equals(previousWallet.getStoredBlockHeight())) {
+        if(blockHeight != null && !blockHeight.equals(previousBlockHeight)) {
             Platform.runLater(() -> EventManager.get().post(new WalletBlockHeightChangedEvent(wallet, blockHeight)));
             changed = true;
         }
 
         if(changed) {
-            Platform.runLater(() -> EventManager.get().post(new WalletDataChangedEvent(wallet)));
-        }
-    }
-
-    private List<WalletNode> getHistoryChangedNodes(Set<WalletNode> previousNodes, Set<WalletNode> currentNodes) {
-        List<WalletNode> changedNodes = new ArrayList<>();
-        for(WalletNode currentNode : currentNodes) {
-            Optional<WalletNode> optPreviousNode = previousNodes.stream().filter(node -> node.equals(currentNode)).findFirst();
-            if(optPreviousNode.isPresent()) {
-                WalletNode previousNode = optPreviousNode.get();
-                if(!currentNode.getTransactionOutputs().equals(previousNode.getTransactionOutputs())) {
-                    changedNodes.add(currentNode);
-                }
-            } else {
-                changedNodes.add(currentNode);
-            }
+            //Labels copied from the past wallet may have changed anywhere in the wallet
+            WalletDataChangedEvent dataChangedEvent = labelsChanged ? new WalletDataChangedEvent(wallet) : new WalletDataChangedEvent(wallet, historyChangedNodes);
+            Platform.runLater(() -> EventManager.get().post(dataChangedEvent));
         }
-
-        return changedNodes;
     }
 
     public void addWalletTransactionNodes(Set<WalletNode> transactionNodes) {
         walletTransactionNodes.add(transactionNodes);
     }
 
-    private Set<WalletNode> getWalletTransactionNodes(WalletNode walletNode) {
-        if(walletNode == null) {
+    private Set<WalletNode> getWalletTransactionNodes(Set<WalletNode> walletNodes) {
+        if(walletNodes == null) {
             return null;
         }
 
-        Set<WalletNode> allNodes = new LinkedHashSet<>();
+        Set<WalletNode> allNodes = new LinkedHashSet<>(walletNodes);
         for(Set<WalletNode> nodes : walletTransactionNodes) {
-            if(nodes.contains(walletNode)) {
+            if(!Collections.disjoint(nodes, walletNodes)) {
                 allNodes.addAll(nodes);
             }
         }
 
-        return allNodes.isEmpty() ? Set.of(walletNode) : allNodes;
+        return allNodes;
     }
 
     public NodeEntry getNodeEntry(KeyPurpose keyPurpose) {
@@ -257,16 +280,74 @@ public class WalletForm {
     @Subscribe
     public void walletDataChanged(WalletDataChangedEvent event) {
         if(event.getWallet().equals(wallet)) {
-            backgroundSaveWallet();
+            //Held by the scheduler while transactions are loading
+            saveScheduler.requestSave(getWalletChanges(event));
+        }
+    }
+
+    private static WalletChanges getWalletChanges(WalletDataChangedEvent event) {
+        if(event instanceof WalletEntryLabelsChangedEvent) {
+            Set<WalletNode> nodes = new LinkedHashSet<>();
+            Set<Sha256Hash> txids = new LinkedHashSet<>();
+            for(Entry entry : ((WalletEntryLabelsChangedEvent)event).getEntries()) {
+                if(entry instanceof NodeEntry) {
+                    nodes.add(((NodeEntry)entry).getNode());
+                } else if(entry instanceof TransactionEntry) {
+                    txids.add(((TransactionEntry)entry).getBlockTransaction().getHash());
+                } else if(entry instanceof HashIndexEntry) {
+                    txids.add(((HashIndexEntry)entry).getHashIndex().getHash());
+                } else {
+                    return WalletChanges.all();
+                }
+            }
+
+            return WalletChanges.of(nodes, txids);
+        }
+
+        if(event instanceof WalletUtxoStatusChangedEvent) {
+            return WalletChanges.of(Collections.emptySet(), Set.of(((WalletUtxoStatusChangedEvent)event).getUtxo().getHash()));
+        }
+
+        if(event.getHistoryChangedNodes() != null) {
+            return WalletChanges.of(event.getHistoryChangedNodes(), Collections.emptySet());
         }
+
+        return WalletChanges.all();
     }
 
-    private void backgroundSaveWallet() {
+    @Subscribe
+    public void walletTransactionsLoaded(WalletTransactionsLoadedEvent event) {
+        if(event.getWallet().equals(wallet) && event.isComplete() && transactionsLoading) {
+            transactionsLoaded(true);
+        }
+    }
+
+    /**
+     * Reads the deferred transactions that have not loaded yet, so that the wallet can be saved before the background load has finished
+     */
+    private void completeTransactions(boolean refreshDeferredHistory) {
+        if(!transactionsLoading) {
+            return;
+        }
+
         try {
-            save();
-        } catch (IOException e) {
-            //Background save failed
-            log.error("Background wallet save failed", e);
+            storage.loadDeferredTransactions(wallet);
+        } catch(IOException | StorageException e) {
+            //Any transactions that could not be loaded will be retrieved from the server by the next history refresh
+            log.error("Error loading wallet transactions", e);
+        }
+
+        transactionsLoaded(refreshDeferredHistory);
+    }
+
+    private void transactionsLoaded(boolean refreshDeferredHistory) {
+        transactionsLoading = false;
+        saveScheduler.releaseSaves();
+        if(historyRefreshDeferred && refreshDeferredHistory) {
+            Wallet pastWallet = deferredPastWallet;
+            historyRefreshDeferred = false;
+            deferredPastWallet = null;
+            refreshHistory(AppServices.getCurrentBlockHeight(), pastWallet);
         }
     }
 
@@ -297,23 +378,60 @@ public class WalletForm {
     public void newBlock(NewBlockEvent event) {
         //Check if wallet is valid to avoid saving wallets in initial setup
         if(wallet.isValid()) {
-            updateWallet(event.getHeight(), null, wallet.copy());
+            updateWallet(event.getHeight(), null, Collections.emptyList(), wallet.getStoredBlockHeight());
         }
     }
 
     @Subscribe
     public void connected(ConnectionEvent event) {
-        refreshHistory(event.getBlockHeight(), savedPastWallet);
+        if(savedPastWallet == null && ElectrumServer.isSynchronized(wallet)) {
+            resubscribe(event.getBlockHeight());
+        } else {
+            refreshHistory(event.getBlockHeight(), savedPastWallet);
+        }
         savedPastWallet = null;
     }
 
+    /**
+     * After a reconnection to the same server, the wallet history is still current apart from any nodes that have changed while disconnected.
+     * Resubscribe in the background, refreshing the history of changed nodes as they are found, rather than refreshing the full wallet history.
+     */
+    private void resubscribe(Integer blockHeight) {
+        if(transactionsLoading) {
+            deferRefreshHistory(null);
+            return;
+        }
+
+        Integer previousBlockHeight = wallet.getStoredBlockHeight();
+        if(wallet.isValid() && AppServices.isConnected()) {
+            log.debug(wallet.getName() + " resubscribing after reconnection");
+            ElectrumServer.ResubscriptionService resubscriptionService = new ElectrumServer.ResubscriptionService(wallet, nodes -> nodes.forEach(nodeHistoryAggregator::nodeHistoryChanged));
+            resubscriptionService.setOnSucceeded(workerStateEvent -> {
+                if(resubscriptionService.getValue()) {
+                    //Changed nodes are reported by the history refreshes they are passed to
+                    updateWallet(blockHeight, null, Collections.emptyList(), previousBlockHeight);
+                }
+            });
+            resubscriptionService.setOnFailed(workerStateEvent -> {
+                if(AppServices.isConnected()) {
+                    log.error("Error resubscribing wallet", workerStateEvent.getSource().getException());
+                } else {
+                    log.debug("Disconnected while resubscribing wallet", workerStateEvent.getSource().getException());
+                }
+
+                EventManager.get().post(new WalletHistoryFailedEvent(wallet, workerStateEvent.getSource().getException()));
+            });
+            resubscriptionService.start();
+        }
+    }
+
     @Subscribe
     public void walletNodeHistoryChanged(WalletNodeHistoryChangedEvent event) {
         if(wallet.isValid()) {
             WalletNode walletNode = event.getWalletNode(wallet);
             if(walletNode != null) {
                 log.debug(wallet.getName() + " history event for node " + walletNode + " (" + event.getScriptHash() + ")");
-                refreshHistory(AppServices.getCurrentBlockHeight(), null, walletNode);
+                nodeHistoryAggregator.nodeHistoryChanged(walletNode);
             }
         }
     }
@@ -401,6 +519,8 @@ public class WalletForm {
     public void walletTabsClosed(WalletTabsClosedEvent event) {
         for(WalletTabData tabData : event.getClosedWalletTabData()) {
             if(tabData.getWalletForm() == this) {
+                saveScheduler.close();
+                nodeHistoryAggregator.cancel();
                 AppServices.clearTransactionHistoryCache(wallet);
                 EventManager.get().unregister(this);
             }
@@ -0,0 +1,82 @@
+package com.sparrowwallet.sparrow.wallet;
+
+import com.sparrowwallet.drongo.wallet.WalletNode;
+import javafx.animation.Animation;
+import javafx.animation.PauseTransition;
+import javafx.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Collects the wallet nodes reported by script hash status notifications over a short window, and requests a single history refresh for all of them.
+ * The window starts with the first notification and is not extended by later ones, so a refresh is never delayed by more than the window.
+ * This must only be used from the JavaFX thread, on which subscription notifications are delivered.
+ */
+public class WalletNodeHistoryAggregator {
+    private static final Logger log = LoggerFactory.getLogger(WalletNodeHistoryAggregator.class);
+
+    public static final Duration COALESCE_WINDOW = Duration.millis(250);
+
+    private final Consumer<Set<WalletNode>> refresher;
+    private final PauseTransition window = new PauseTransition(COALESCE_WINDOW);
+    private final Set<WalletNode> pendingNodes = new LinkedHashSet<>();
+
+    //Metrics
+    private long notificationCount;
+    private long refreshCount;
+
+    public WalletNodeHistoryAggregator(Consumer<Set<WalletNode>> refresher) {
+        this.refresher = refresher;
+        window.setOnFinished(event -> flush());
+    }
+
+    public void nodeHistoryChanged(WalletNode walletNode) {
+        notificationCount++;
+        pendingNodes.add(walletNode);
+
+        if(window.getStatus() != Animation.Status.RUNNING) {
+            window.playFromStart();
+        }
+    }
+
+    private void flush() {
+        if(pendingNodes.isEmpty()) {
+            return;
+        }
+
+        Set<WalletNode> nodes = new LinkedHashSet<>(pendingNodes);
+        pendingNodes.clear();
+        refreshCount++;
+
+        log.debug("Refreshing history for " + nodes.size() + " notified nodes, coalescing ratio " + String.format("%.2f", getCoalescingRatio()));
+        refresher.accept(nodes);
+    }
+
+    /**
+     * Discards any pending notifications, for use when the wallet is closed
+     */
+    public void cancel() {
+        window.stop();
+        pendingNodes.clear();
+    }
+
+    public int getPendingCount() {
+        return pendingNodes.size();
+    }
+
+    public long getNotificationCount() {
+        return notificationCount;
+    }
+
+    public long getRefreshCount() {
+        return refreshCount;
+    }
+
+    public double getCoalescingRatio() {
+        return refreshCount == 0 ? 0d : (double)notificationCount / refreshCount;
+    }
+}
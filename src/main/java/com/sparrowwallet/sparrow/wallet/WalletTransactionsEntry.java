@@ -1,6 +1,12 @@
 package com.sparrowwallet.sparrow.wallet;
 
+import com.google.common.collect.Maps;
 import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.protocol.Transaction;
+import com.sparrowwallet.drongo.protocol.TransactionInput;
+import com.sparrowwallet.drongo.protocol.TransactionOutPoint;
+import com.sparrowwallet.drongo.protocol.TransactionOutput;
 import com.sparrowwallet.drongo.wallet.BlockTransaction;
 import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
 import com.sparrowwallet.drongo.wallet.Wallet;
@@ -19,8 +25,33 @@ import java.util.stream.Collectors;
 public class WalletTransactionsEntry extends Entry {
     private static final Logger log = LoggerFactory.getLogger(WalletTransactionsEntry.class);
 
+    //Note transaction entries must be in ascending order. This sorting is ultimately done according to BlockTransactions' comparator
+    private static final Comparator<Entry> TRANSACTION_ORDER = Comparator.comparing(TransactionEntry.class::cast);
+
+    //Indexes of the wallet txos by outpoint, and of the outpoints and transactions referenced by each address node, as at the last update
+    private final Map<TransactionOutPoint, WalletTxo> walletTxos = new HashMap<>();
+    private final Map<WalletNode, Set<TransactionOutPoint>> nodeOutpoints = new HashMap<>();
+    private final Map<WalletNode, Set<Sha256Hash>> nodeTransactions = new HashMap<>();
+    private final Map<Sha256Hash, TransactionEntry> transactionEntries = new HashMap<>();
+
     public WalletTransactionsEntry(Wallet wallet) {
-        super(wallet, wallet.getName(), getWalletTransactions(wallet).stream().map(WalletTransaction::getTransactionEntry).collect(Collectors.toList()));
+        super(wallet, wallet.getName(), new ArrayList<>());
+
+        Set<Sha256Hash> txids = new HashSet<>();
+        for(WalletNode addressNode : getAddressNodes()) {
+            txids.addAll(indexNode(addressNode));
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for(Sha256Hash txid : txids) {
+            TransactionEntry transactionEntry = createTransactionEntry(txid);
+            if(transactionEntry != null) {
+                transactionEntries.put(txid, transactionEntry);
+                entries.add(transactionEntry);
+            }
+        }
+
+        getChildren().setAll(entries);
         calculateBalances();
     }
 
@@ -30,98 +61,255 @@ public class WalletTransactionsEntry extends Entry {
     }
 
     protected void calculateBalances() {
-        long balance = 0L;
         long mempoolBalance = 0L;
 
-        //Note transaction entries must be in ascending order. This sorting is ultimately done according to BlockTransactions' comparator
-        getChildren().sort(Comparator.comparing(TransactionEntry.class::cast));
+        getChildren().sort(TRANSACTION_ORDER);
 
         for(Entry entry : getChildren()) {
-            TransactionEntry transactionEntry = (TransactionEntry)entry;
-            if(transactionEntry.getConfirmations() != 0 || transactionEntry.getValue() < 0 || Config.get().isIncludeMempoolOutputs()) {
-                balance += entry.getValue();
+            if(((TransactionEntry)entry).getConfirmations() == 0) {
+                mempoolBalance += entry.getValue();
             }
+        }
 
-            if(transactionEntry.getConfirmations() == 0) {
-                mempoolBalance += entry.getValue();
+        calculateBalances(0);
+        setMempoolBalance(mempoolBalance);
+    }
+
+    /**
+     * Recalculates the running balances of the transaction entries from the provided position, continuing from the running balance of the entry before it
+     */
+    private void calculateBalances(int fromIndex) {
+        long balance = fromIndex > 0 ? ((TransactionEntry)getChildren().get(fromIndex - 1)).getBalance() : 0L;
+
+        for(int i = fromIndex; i < getChildren().size(); i++) {
+            TransactionEntry transactionEntry = (TransactionEntry)getChildren().get(i);
+            if(transactionEntry.getConfirmations() != 0 || transactionEntry.getValue() < 0 || Config.get().isIncludeMempoolOutputs()) {
+                balance += transactionEntry.getValue();
             }
 
             transactionEntry.setBalance(balance);
         }
 
         setBalance(balance);
-        setMempoolBalance(mempoolBalance);
     }
 
+    /**
+     * Rebuilds all transaction entries and balances, for use when the way balances are calculated has changed
+     */
     public void updateTransactions() {
-        List<Entry> current = getWalletTransactions(getWallet()).stream().map(WalletTransaction::getTransactionEntry).collect(Collectors.toList());
-        List<Entry> previous = new ArrayList<>(getChildren());
+        updateTransactions(getAddressNodes());
+        calculateBalances();
+    }
+
+    /**
+     * Updates the transaction entries that reference the provided address nodes, which are those reported as changed in a WalletHistoryChangedEvent.
+     * Only the entries for transactions these nodes referenced before or reference now are rebuilt, and running balances are recalculated from the earliest changed entry.
+     */
+    public void updateTransactions(Collection<WalletNode> historyChangedNodes) {
+        Set<Sha256Hash> affectedTxids = new HashSet<>();
+        for(WalletNode node : historyChangedNodes) {
+            if(node.getKeyPurpose() == KeyPurpose.RECEIVE || node.getKeyPurpose() == KeyPurpose.CHANGE) {
+                affectedTxids.addAll(unindexNode(node));
+                affectedTxids.addAll(indexNode(node));
+            }
+        }
 
-        List<Entry> entriesAdded = new ArrayList<>(current);
-        entriesAdded.removeAll(previous);
-        getChildren().addAll(entriesAdded);
+        int firstChangedIndex = getChildren().size();
+        long mempoolBalance = getMempoolBalance();
+        List<TransactionEntry> entriesAdded = new ArrayList<>();
+        for(Sha256Hash txid : affectedTxids) {
+            TransactionEntry previousEntry = transactionEntries.remove(txid);
+            if(previousEntry != null) {
+                int index = indexOf(previousEntry);
+                if(index >= 0) {
+                    getChildren().remove(index);
+                    firstChangedIndex = Math.min(firstChangedIndex, index);
+                    if(previousEntry.getConfirmations() == 0) {
+                        mempoolBalance -= previousEntry.getValue();
+                    }
+                }
 
-        List<Entry> entriesRemoved = new ArrayList<>(previous);
-        entriesRemoved.removeAll(current);
-        getChildren().removeAll(entriesRemoved);
+                try {
+                    EventManager.get().unregister(previousEntry);
+                } catch(IllegalArgumentException e) {
+                    //Safe to ignore, entry was not registered for block height changes
+                }
+            }
 
-        calculateBalances();
+            TransactionEntry transactionEntry = createTransactionEntry(txid);
+            if(transactionEntry == null) {
+                continue;
+            }
+
+            if(!transactionEntry.isComplete(Maps.transformValues(walletTxos, WalletTxo::getHashIndex))) {
+                log.warn("Removing and not notifying incomplete entry " + transactionEntry.getBlockTransaction().getHashAsString() + " value " + transactionEntry.getValue());
+                continue;
+            }
+
+            int index = Collections.binarySearch(getChildren(), transactionEntry, TRANSACTION_ORDER);
+            int insertionIndex = index < 0 ? -index - 1 : index;
+            getChildren().add(insertionIndex, transactionEntry);
+            transactionEntries.put(txid, transactionEntry);
+            firstChangedIndex = Math.min(firstChangedIndex, insertionIndex);
+            if(transactionEntry.getConfirmations() == 0) {
+                mempoolBalance += transactionEntry.getValue();
+            }
+
+            if(!transactionEntry.equals(previousEntry)) {
+                entriesAdded.add(transactionEntry);
+            }
+        }
+
+        calculateBalances(firstChangedIndex);
+        setMempoolBalance(mempoolBalance);
 
-        List<Entry> entriesComplete = entriesAdded.stream().filter(txEntry -> ((TransactionEntry)txEntry).isComplete()).collect(Collectors.toList());
-        if(!entriesComplete.isEmpty()) {
-            List<BlockTransaction> blockTransactions = entriesAdded.stream().map(txEntry -> ((TransactionEntry)txEntry).getBlockTransaction()).collect(Collectors.toList());
-            long totalBlockchainValue = entriesAdded.stream().filter(txEntry -> ((TransactionEntry)txEntry).getConfirmations() > 0).mapToLong(Entry::getValue).sum();
-            long totalMempoolValue = entriesAdded.stream().filter(txEntry -> ((TransactionEntry)txEntry).getConfirmations() == 0).mapToLong(Entry::getValue).sum();
+        if(!entriesAdded.isEmpty()) {
+            List<BlockTransaction> blockTransactions = entriesAdded.stream().map(TransactionEntry::getBlockTransaction).collect(Collectors.toList());
+            long totalBlockchainValue = entriesAdded.stream().filter(txEntry -> txEntry.getConfirmations() > 0).mapToLong(Entry::getValue).sum();
+            long totalMempoolValue = entriesAdded.stream().filter(txEntry -> txEntry.getConfirmations() == 0).mapToLong(Entry::getValue).sum();
             EventManager.get().post(new NewWalletTransactionsEvent(getWallet(), blockTransactions, totalBlockchainValue, totalMempoolValue));
         }
+    }
+
+    /**
+     * Adds entries for transactions that have been loaded into the wallet after this entry was created, such as those deferred when the wallet was opened.
+     * Entries for transactions spending the outputs of the loaded transactions are rebuilt, as these can only show their inputs once the funding transaction is present.
+     * No NewWalletTransactionsEvent is posted, as these transactions are already known to the wallet.
+     */
+    public void addTransactions(Collection<Sha256Hash> txids) {
+        Set<Sha256Hash> affectedTxids = new HashSet<>(txids);
+        for(Sha256Hash txid : txids) {
+            BlockTransaction blockTransaction = getWallet().getTransactions().get(txid);
+            if(blockTransaction != null) {
+                for(TransactionOutput txOutput : blockTransaction.getTransaction().getOutputs()) {
+                    WalletTxo walletTxo = walletTxos.get(new TransactionOutPoint(txid, txOutput.getIndex()));
+                    if(walletTxo != null && walletTxo.hashIndex.getSpentBy() != null) {
+                        affectedTxids.add(walletTxo.hashIndex.getSpentBy().getHash());
+                    }
+                }
+            }
+        }
+
+        Set<Entry> entriesRemoved = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Entry> entriesAdded = new ArrayList<>();
+        for(Sha256Hash txid : affectedTxids) {
+            TransactionEntry previousEntry = transactionEntries.remove(txid);
+            if(previousEntry != null) {
+                entriesRemoved.add(previousEntry);
+                try {
+                    EventManager.get().unregister(previousEntry);
+                } catch(IllegalArgumentException e) {
+                    //Safe to ignore, entry was not registered for block height changes
+                }
+            }
 
-        if(entriesAdded.size() > entriesComplete.size()) {
-            entriesAdded.removeAll(entriesComplete);
-            for(Entry entry : entriesAdded) {
-                TransactionEntry txEntry = (TransactionEntry)entry;
-                getChildren().remove(txEntry);
-                log.warn("Removing and not notifying incomplete entry " + ((TransactionEntry)entry).getBlockTransaction().getHashAsString() + " value " + txEntry.getValue());
+            TransactionEntry transactionEntry = createTransactionEntry(txid);
+            if(transactionEntry != null) {
+                transactionEntries.put(txid, transactionEntry);
+                entriesAdded.add(transactionEntry);
             }
         }
+
+        //Merge in a single change to the children, as a batch may add thousands of entries
+        List<Entry> entries = new ArrayList<>(getChildren().size() + entriesAdded.size());
+        for(Entry entry : getChildren()) {
+            if(!entriesRemoved.contains(entry)) {
+                entries.add(entry);
+            }
+        }
+        entries.addAll(entriesAdded);
+        entries.sort(TRANSACTION_ORDER);
+
+        getChildren().setAll(entries);
+        calculateBalances();
     }
 
-    private static Collection<WalletTransaction> getWalletTransactions(Wallet wallet) {
-        Map<BlockTransaction, WalletTransaction> walletTransactionMap = new TreeMap<>();
+    private int indexOf(TransactionEntry transactionEntry) {
+        int index = Collections.binarySearch(getChildren(), transactionEntry, TRANSACTION_ORDER);
+        if(index >= 0 && getChildren().get(index) == transactionEntry) {
+            return index;
+        }
 
-        getWalletTransactions(wallet, walletTransactionMap, wallet.getNode(KeyPurpose.RECEIVE));
-        getWalletTransactions(wallet, walletTransactionMap, wallet.getNode(KeyPurpose.CHANGE));
+        //The ordering of an entry should not change once added, but fall back to a linear search rather than leave a stale entry behind
+        for(int i = 0; i < getChildren().size(); i++) {
+            if(getChildren().get(i) == transactionEntry) {
+                return i;
+            }
+        }
 
-        return new ArrayList<>(walletTransactionMap.values());
+        return -1;
     }
 
-    private static void getWalletTransactions(Wallet wallet, Map<BlockTransaction, WalletTransaction> walletTransactionMap, WalletNode purposeNode) {
-        KeyPurpose keyPurpose = purposeNode.getKeyPurpose();
-        for(WalletNode addressNode : purposeNode.getChildren()) {
-            for(BlockTransactionHashIndex hashIndex : addressNode.getTransactionOutputs()) {
-                BlockTransaction inputTx = wallet.getTransactions().get(hashIndex.getHash());
-                //A null inputTx here means the wallet is still updating - ignore as the WalletHistoryChangedEvent will run this again
-                if(inputTx != null) {
-                    WalletTransaction inputWalletTx = walletTransactionMap.get(inputTx);
-                    if(inputWalletTx == null) {
-                        inputWalletTx = new WalletTransaction(wallet, inputTx);
-                        walletTransactionMap.put(inputTx, inputWalletTx);
-                    }
-                    inputWalletTx.incoming.put(hashIndex, keyPurpose);
-
-                    if(hashIndex.getSpentBy() != null) {
-                        BlockTransaction outputTx = wallet.getTransactions().get(hashIndex.getSpentBy().getHash());
-                        if(outputTx != null) {
-                            WalletTransaction outputWalletTx = walletTransactionMap.get(outputTx);
-                            if(outputWalletTx == null) {
-                                outputWalletTx = new WalletTransaction(wallet, outputTx);
-                                walletTransactionMap.put(outputTx, outputWalletTx);
-                            }
-                            outputWalletTx.outgoing.put(hashIndex.getSpentBy(), keyPurpose);
-                        }
-                    }
-                }
+    private List<WalletNode> getAddressNodes() {
+        List<WalletNode> addressNodes = new ArrayList<>(getWallet().getNode(KeyPurpose.RECEIVE).getChildren());
+        addressNodes.addAll(getWallet().getNode(KeyPurpose.CHANGE).getChildren());
+        return addressNodes;
+    }
+
+    /**
+     * Adds the txos of the address node to the outpoint index, returning the ids of the transactions that fund or spend them
+     */
+    private Set<Sha256Hash> indexNode(WalletNode addressNode) {
+        Set<TransactionOutPoint> outpoints = new HashSet<>();
+        Set<Sha256Hash> txids = new HashSet<>();
+        for(BlockTransactionHashIndex hashIndex : addressNode.getTransactionOutputs()) {
+            TransactionOutPoint outpoint = new TransactionOutPoint(hashIndex.getHash(), hashIndex.getIndex());
+            walletTxos.put(outpoint, new WalletTxo(hashIndex, addressNode.getKeyPurpose()));
+            outpoints.add(outpoint);
+            txids.add(hashIndex.getHash());
+            if(hashIndex.getSpentBy() != null) {
+                txids.add(hashIndex.getSpentBy().getHash());
             }
         }
+
+        nodeOutpoints.put(addressNode, outpoints);
+        nodeTransactions.put(addressNode, txids);
+        return txids;
+    }
+
+    /**
+     * Removes the txos of the address node as at the last update from the outpoint index, returning the ids of the transactions that funded or spent them
+     */
+    private Set<Sha256Hash> unindexNode(WalletNode addressNode) {
+        Set<TransactionOutPoint> outpoints = nodeOutpoints.remove(addressNode);
+        if(outpoints != null) {
+            outpoints.forEach(walletTxos::remove);
+        }
+
+        Set<Sha256Hash> txids = nodeTransactions.remove(addressNode);
+        return txids == null ? Collections.emptySet() : txids;
+    }
+
+    private TransactionEntry createTransactionEntry(Sha256Hash txid) {
+        BlockTransaction blockTransaction = getWallet().getTransactions().get(txid);
+        //A null blockTransaction here means the wallet is still updating - ignore as the WalletHistoryChangedEvent will run this again
+        if(blockTransaction == null) {
+            return null;
+        }
+
+        Map<BlockTransactionHashIndex, KeyPurpose> incoming = new TreeMap<>();
+        Map<BlockTransactionHashIndex, KeyPurpose> outgoing = new TreeMap<>();
+        Transaction transaction = blockTransaction.getTransaction();
+        for(TransactionOutput txOutput : transaction.getOutputs()) {
+            WalletTxo walletTxo = walletTxos.get(new TransactionOutPoint(txid, txOutput.getIndex()));
+            if(walletTxo != null) {
+                incoming.put(walletTxo.hashIndex, walletTxo.keyPurpose);
+            }
+        }
+
+        for(TransactionInput txInput : transaction.getInputs()) {
+            WalletTxo walletTxo = walletTxos.get(txInput.getOutpoint());
+            if(walletTxo != null && walletTxo.hashIndex.getSpentBy() != null && walletTxo.hashIndex.getSpentBy().getHash().equals(txid)
+                    && getWallet().getTransactions().containsKey(walletTxo.hashIndex.getHash())) {
+                outgoing.put(walletTxo.hashIndex.getSpentBy(), walletTxo.keyPurpose);
+            }
+        }
+
+        if(incoming.isEmpty() && outgoing.isEmpty()) {
+            return null;
+        }
+
+        return new TransactionEntry(getWallet(), blockTransaction, incoming, outgoing);
     }
 
     /**
@@ -190,19 +378,17 @@ public class WalletTransactionsEntry extends Entry {
         return mempoolBalance;
     }
 
-    private static class WalletTransaction {
-        private final Wallet wallet;
-        private final BlockTransaction blockTransaction;
-        private final Map<BlockTransactionHashIndex, KeyPurpose> incoming = new TreeMap<>();
-        private final Map<BlockTransactionHashIndex, KeyPurpose> outgoing = new TreeMap<>();
+    private static class WalletTxo {
+        private final BlockTransactionHashIndex hashIndex;
+        private final KeyPurpose keyPurpose;
 
-        public WalletTransaction(Wallet wallet, BlockTransaction blockTransaction) {
-            this.wallet = wallet;
-            this.blockTransaction = blockTransaction;
+        public WalletTxo(BlockTransactionHashIndex hashIndex, KeyPurpose keyPurpose) {
+            this.hashIndex = hashIndex;
+            this.keyPurpose = keyPurpose;
         }
 
-        public TransactionEntry getTransactionEntry() {
-            return new TransactionEntry(wallet, blockTransaction, incoming, outgoing);
+        public BlockTransactionHashIndex getHashIndex() {
+            return hashIndex;
         }
     }
 }
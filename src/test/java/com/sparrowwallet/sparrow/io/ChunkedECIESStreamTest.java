@@ -0,0 +1,60 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.crypto.ECKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ChunkedECIESStreamTest {
+    private static final ECKey KEY = ECKey.fromPrivate(Utils.hexToBytes("885e5a09708a167ea356a252387aa7c4893d138d632e296df8fbf5c12798bd28"));
+    private static final byte[] MAGIC = "BIE1".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void roundTrip() throws IOException {
+        int chunkSize = ChunkedECIESOutputStream.CHUNK_SIZE;
+        for(int length : new int[] {0, 1, chunkSize - 1, chunkSize, chunkSize + 1, chunkSize * 3}) {
+            byte[] plaintext = getPlaintext(length);
+            Assert.assertArrayEquals(plaintext, decrypt(encrypt(plaintext)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedAtChunkBoundary() throws IOException {
+        int chunkSize = ChunkedECIESOutputStream.CHUNK_SIZE;
+        byte[] encrypted = encrypt(getPlaintext(chunkSize * 2));
+        decrypt(Arrays.copyOf(encrypted, encrypted.length - chunkSize - 16));
+    }
+
+    @Test(expected = IOException.class)
+    public void tampered() throws IOException {
+        byte[] encrypted = encrypt(getPlaintext(1000));
+        encrypted[encrypted.length - 1] ^= 1;
+        decrypt(encrypted);
+    }
+
+    private byte[] getPlaintext(int length) {
+        byte[] plaintext = new byte[length];
+        new Random(length).nextBytes(plaintext);
+        return plaintext;
+    }
+
+    private byte[] encrypt(byte[] plaintext) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try(OutputStream outputStream = new ChunkedECIESOutputStream(baos, ECKey.fromPublicOnly(KEY), MAGIC)) {
+            outputStream.write(plaintext);
+        }
+
+        return baos.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] encrypted) throws IOException {
+        try(InputStream inputStream = new ChunkedECIESInputStream(new ByteArrayInputStream(encrypted), KEY, MAGIC)) {
+            return inputStream.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.MnemonicException;
+import com.sparrowwallet.drongo.wallet.Status;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+public class IncrementalPersistenceTest extends IoTest {
+    @Test
+    public void appendAndReplayDeltaLog() throws IOException, MnemonicException, StorageException {
+        Wallet wallet = loadIncrementalTestWallet();
+        File walletFile = createTempWalletFile();
+        IncrementalPersistence persistence = new TestIncrementalPersistence(new ArrayDeque<>());
+        walletFile = persistence.storeWallet(walletFile, wallet);
+        byte[] base = Files.readAllBytes(walletFile.toPath());
+        long emptyLogLength = IncrementalPersistence.getDeltaLogFile(walletFile).length();
+
+        getReceiveNode(wallet, 1).setLabel("first");
+        storeChanges(persistence, walletFile, wallet, getReceiveNode(wallet, 1));
+        wallet.setStoredBlockHeight(700000);
+        storeChanges(persistence, walletFile, wallet);
+
+        //Changes are appended to the log without rewriting the base snapshot
+        Assert.assertArrayEquals(base, Files.readAllBytes(walletFile.toPath()));
+        Assert.assertTrue(IncrementalPersistence.getDeltaLogFile(walletFile).length() > emptyLogLength);
+
+        Wallet loaded = new TestIncrementalPersistence(new ArrayDeque<>()).loadWallet(walletFile);
+        Assert.assertEquals("first", getReceiveNode(loaded, 1).getLabel());
+        Assert.assertEquals(Integer.valueOf(700000), loaded.getStoredBlockHeight());
+        Assert.assertEquals(JsonPersistence.getGson().toJson(wallet), JsonPersistence.getGson().toJson(loaded));
+    }
+
+    @Test
+    public void appendAndReplayEncryptedDeltaLog() throws IOException, MnemonicException, StorageException {
+        Storage storage = new Storage(getFile("sparrow-single-wallet"));
+        Wallet wallet = storage.loadEncryptedWallet("pass").getWallet();
+        wallet.getNode(KeyPurpose.RECEIVE).fillToIndex(5);
+
+        File walletFile = File.createTempFile("sparrow", "tmp");
+        walletFile.deleteOnExit();
+        IncrementalPersistence.getDeltaLogFile(walletFile).deleteOnExit();
+
+        IncrementalPersistence persistence = new TestIncrementalPersistence(new ArrayDeque<>());
+        persistence.setKeyDeriver(storage.getKeyDeriver());
+        walletFile = persistence.storeWallet(walletFile, wallet, storage.getEncryptionPubKey());
+        getReceiveNode(wallet, 2).setLabel("encrypted");
+        Assert.assertTrue(persistence.storeWalletChanges(walletFile, wallet, storage.getEncryptionPubKey(), WalletChanges.of(List.of(getReceiveNode(wallet, 2)), Collections.emptySet())));
+
+        Wallet loaded = new TestIncrementalPersistence(new ArrayDeque<>()).loadWallet(walletFile, "pass").getWallet();
+        Assert.assertEquals("encrypted", getReceiveNode(loaded, 2).getLabel());
+    }
+
+    @Test
+    public void freezeAndReplayDeltaLog() throws IOException, MnemonicException, StorageException {
+        Wallet wallet = loadIncrementalTestWallet();
+        BlockTransactionHashIndex txo = new BlockTransactionHashIndex(Sha256Hash.wrap(String.format("%064x", 1)), 0, null, null, 0, 1000L);
+        getReceiveNode(wallet, 1).setTransactionOutputs(new TreeSet<>(Set.of(txo)));
+        File walletFile = createTempWalletFile();
+        IncrementalPersistence persistence = new TestIncrementalPersistence(new ArrayDeque<>());
+        walletFile = persistence.storeWallet(walletFile, wallet);
+
+        //Freezing a UTXO changes only its status, which must still be written to the log for the node that holds it
+        txo.setStatus(Status.FROZEN);
+        Assert.assertTrue(persistence.storeWalletChanges(walletFile, wallet, null, WalletChanges.of(Collections.emptySet(), Set.of(txo.getHash()))));
+        Assert.assertTrue(IncrementalPersistence.getDeltaLogFile(walletFile).length() > getEmptyDeltaLogLength());
+        Wallet loaded = new TestIncrementalPersistence(new ArrayDeque<>()).loadWallet(walletFile);
+        Assert.assertEquals(Status.FROZEN, getReceiveNode(loaded, 1).getTransactionOutputs().iterator().next().getStatus());
+
+        txo.setStatus(null);
+        Assert.assertTrue(persistence.storeWalletChanges(walletFile, wallet, null, WalletChanges.of(Collections.emptySet(), Set.of(txo.getHash()))));
+        loaded = new TestIncrementalPersistence(new ArrayDeque<>()).loadWallet(walletFile);
+        Assert.assertNull(getReceiveNode(loaded, 1).getTransactionOutputs().iterator().next().getStatus());
+    }
+
+    @Test
+    public void truncatedDeltaLogRecord() throws IOException, MnemonicException, StorageException {
+        File walletFile = createTempWalletFile();
+        createDeltaLogWithTwoRecords(walletFile);
+        File logFile = IncrementalPersistence.getDeltaLogFile(walletFile);
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(logFile, "rw")) {
+            randomAccessFile.setLength(logFile.length() - 3);
+        }
+
+        assertLastRecordIgnored(walletFile);
+    }
+
+    @Test
+    public void corruptDeltaLogRecord() throws IOException, MnemonicException, StorageException {
+        File walletFile = createTempWalletFile();
+        long firstRecordEnd = createDeltaLogWithTwoRecords(walletFile);
+        File logFile = IncrementalPersistence.getDeltaLogFile(walletFile);
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(logFile, "rw")) {
+            //Overwrite the start of the compressed payload of the last record, after its length
+            randomAccessFile.seek(firstRecordEnd + Integer.BYTES);
+            randomAccessFile.write(new byte[8]);
+        }
+
+        assertLastRecordIgnored(walletFile);
+    }
+
+    //Stores the wallet followed by two logged changes, returning the length of the log after the first
+    private long createDeltaLogWithTwoRecords(File walletFile) throws IOException, MnemonicException, StorageException {
+        Wallet wallet = loadIncrementalTestWallet();
+        IncrementalPersistence persistence = new TestIncrementalPersistence(new ArrayDeque<>());
+        persistence.storeWallet(walletFile, wallet);
+
+        getReceiveNode(wallet, 1).setLabel("first");
+        storeChanges(persistence, walletFile, wallet, getReceiveNode(wallet, 1));
+        long firstRecordEnd = IncrementalPersistence.getDeltaLogFile(walletFile).length();
+        getReceiveNode(wallet, 2).setLabel("second");
+        storeChanges(persistence, walletFile, wallet, getReceiveNode(wallet, 2));
+
+        return firstRecordEnd;
+    }
+
+    private void assertLastRecordIgnored(File walletFile) throws IOException {
+        IncrementalPersistence persistence = new TestIncrementalPersistence(new ArrayDeque<>());
+        Wallet loaded = persistence.loadWallet(walletFile);
+        Assert.assertEquals("first", getReceiveNode(loaded, 1).getLabel());
+        Assert.assertNull(getReceiveNode(loaded, 2).getLabel());
+
+        //The damaged log cannot be appended to, so a new snapshot and log must be written
+        Assert.assertFalse(persistence.storeWalletChanges(walletFile, loaded, null, WalletChanges.of(Collections.emptySet(), Collections.emptySet())));
+        persistence.storeWallet(walletFile, loaded);
+        Assert.assertEquals(getEmptyDeltaLogLength(), IncrementalPersistence.getDeltaLogFile(walletFile).length());
+        Assert.assertEquals("first", getReceiveNode(new TestIncrementalPersistence(new ArrayDeque<>()).loadWallet(walletFile), 1).getLabel());
+    }
+
+    @Test
+    public void staleDeltaLog() throws IOException, MnemonicException, StorageException {
+        File walletFile = createTempWalletFile();
+        createDeltaLogWithTwoRecords(walletFile);
+
+        //Replace the base snapshot, as if written by a version without incremental persistence
+        Wallet base = new JsonPersistence().loadWallet(walletFile);
+        getReceiveNode(base, 3).setLabel("replaced");
+        new JsonPersistence().storeWallet(walletFile, base);
+
+        IncrementalPersistence persistence = new TestIncrementalPersistence(new ArrayDeque<>());
+        Wallet loaded = persistence.loadWallet(walletFile);
+        Assert.assertEquals("replaced", getReceiveNode(loaded, 3).getLabel());
+        Assert.assertNull(getReceiveNode(loaded, 1).getLabel());
+        Assert.assertNull(getReceiveNode(loaded, 2).getLabel());
+
+        Assert.assertFalse(persistence.storeWalletChanges(walletFile, loaded, null, WalletChanges.of(Collections.emptySet(), Collections.emptySet())));
+        persistence.storeWallet(walletFile, loaded);
+        Assert.assertEquals(getEmptyDeltaLogLength(), IncrementalPersistence.getDeltaLogFile(walletFile).length());
+    }
+
+    @Test
+    public void settingsChangeWritesSnapshot() throws IOException, MnemonicException, StorageException {
+        Wallet wallet = loadIncrementalTestWallet();
+        File walletFile = createTempWalletFile();
+        IncrementalPersistence persistence = new TestIncrementalPersistence(new ArrayDeque<>());
+        walletFile = persistence.storeWallet(walletFile, wallet);
+        getReceiveNode(wallet, 1).setLabel("first");
+        storeChanges(persistence, walletFile, wallet, getReceiveNode(wallet, 1));
+        byte[] base = Files.readAllBytes(walletFile.toPath());
+
+        wallet.setGapLimit(wallet.getGapLimit() + 5);
+        Assert.assertFalse(persistence.storeWalletChanges(walletFile, wallet, null, WalletChanges.of(Collections.emptySet(), Collections.emptySet())));
+        persistence.storeWallet(walletFile, wallet);
+        Assert.assertFalse(Arrays.equals(base, Files.readAllBytes(walletFile.toPath())));
+        Assert.assertEquals(getEmptyDeltaLogLength(), IncrementalPersistence.getDeltaLogFile(walletFile).length());
+
+        Wallet loaded = new TestIncrementalPersistence(new ArrayDeque<>()).loadWallet(walletFile);
+        Assert.assertEquals(wallet.getGapLimit(), loaded.getGapLimit());
+        Assert.assertEquals("first", getReceiveNode(loaded, 1).getLabel());
+    }
+
+    @Test
+    public void nodeRemovalWritesSnapshot() throws IOException, MnemonicException, StorageException {
+        Wallet wallet = loadIncrementalTestWallet();
+        File walletFile = createTempWalletFile();
+        IncrementalPersistence persistence = new TestIncrementalPersistence(new ArrayDeque<>());
+        walletFile = persistence.storeWallet(walletFile, wallet);
+        getReceiveNode(wallet, 1).setLabel("first");
+        storeChanges(persistence, walletFile, wallet, getReceiveNode(wallet, 1));
+
+        Set<WalletNode> receiveNodes = wallet.getNode(KeyPurpose.RECEIVE).getChildren();
+        WalletNode lastNode = getReceiveNode(wallet, 5);
+        receiveNodes.remove(lastNode);
+        Assert.assertFalse(persistence.storeWalletChanges(walletFile, wallet, null, WalletChanges.of(Collections.emptySet(), Collections.emptySet())));
+        persistence.storeWallet(walletFile, wallet);
+        Assert.assertEquals(getEmptyDeltaLogLength(), IncrementalPersistence.getDeltaLogFile(walletFile).length());
+
+        Wallet loaded = new TestIncrementalPersistence(new ArrayDeque<>()).loadWallet(walletFile);
+        Assert.assertEquals(receiveNodes.size(), loaded.getNode(KeyPurpose.RECEIVE).getChildren().size());
+        Assert.assertEquals("first", getReceiveNode(loaded, 1).getLabel());
+    }
+
+    @Test
+    public void compactionKeepsLaterRecords() throws IOException, MnemonicException, StorageException {
+        Wallet wallet = loadIncrementalTestWallet();
+        File walletFile = createTempWalletFile();
+        Deque<Runnable> compactions = new ArrayDeque<>();
+        IncrementalPersistence persistence = new TestIncrementalPersistence(compactions);
+        walletFile = persistence.storeWallet(walletFile, wallet);
+        byte[] base = Files.readAllBytes(walletFile.toPath());
+
+        //Append records with incompressible labels until the log is large enough to be compacted
+        Random random = new Random(1);
+        for(int i = 0; i < 2000 && compactions.isEmpty(); i++) {
+            byte[] label = new byte[2048];
+            random.nextBytes(label);
+            getReceiveNode(wallet, 1).setLabel(Utils.bytesToHex(label));
+            storeChanges(persistence, walletFile, wallet, getReceiveNode(wallet, 1));
+        }
+        Assert.assertEquals(1, compactions.size());
+        String compactedLabel = getReceiveNode(wallet, 1).getLabel();
+
+        //Records appended before the scheduled compaction runs must survive it
+        getReceiveNode(wallet, 2).setLabel("after compaction scheduled");
+        wallet.setStoredBlockHeight(700001);
+        storeChanges(persistence, walletFile, wallet, getReceiveNode(wallet, 2));
+        long logLength = IncrementalPersistence.getDeltaLogFile(walletFile).length();
+
+        compactions.poll().run();
+        Assert.assertFalse(Arrays.equals(base, Files.readAllBytes(walletFile.toPath())));
+        Assert.assertTrue(IncrementalPersistence.getDeltaLogFile(walletFile).length() > getEmptyDeltaLogLength());
+        Assert.assertTrue(IncrementalPersistence.getDeltaLogFile(walletFile).length() < logLength);
+
+        Wallet loaded = new TestIncrementalPersistence(new ArrayDeque<>()).loadWallet(walletFile);
+        Assert.assertEquals(compactedLabel, getReceiveNode(loaded, 1).getLabel());
+        Assert.assertEquals("after compaction scheduled", getReceiveNode(loaded, 2).getLabel());
+        Assert.assertEquals(Integer.valueOf(700001), loaded.getStoredBlockHeight());
+
+        //The log continues from the compacted snapshot
+        getReceiveNode(wallet, 3).setLabel("after compaction");
+        storeChanges(persistence, walletFile, wallet, getReceiveNode(wallet, 3));
+        loaded = new TestIncrementalPersistence(new ArrayDeque<>()).loadWallet(walletFile);
+        Assert.assertEquals("after compaction", getReceiveNode(loaded, 3).getLabel());
+        Assert.assertEquals(JsonPersistence.getGson().toJson(wallet), JsonPersistence.getGson().toJson(loaded));
+    }
+
+    @Test
+    public void onlyNamedChangesLogged() throws IOException, MnemonicException, StorageException {
+        Wallet wallet = loadIncrementalTestWallet();
+        File walletFile = createTempWalletFile();
+        IncrementalPersistence persistence = new TestIncrementalPersistence(new ArrayDeque<>());
+        walletFile = persistence.storeWallet(walletFile, wallet);
+
+        //Only the named node is examined, while nodes added since the last store are always logged
+        getReceiveNode(wallet, 1).setLabel("named");
+        getReceiveNode(wallet, 2).setLabel("unnamed");
+        wallet.getNode(KeyPurpose.RECEIVE).fillToIndex(8);
+        storeChanges(persistence, walletFile, wallet, getReceiveNode(wallet, 1));
+
+        Wallet loaded = new TestIncrementalPersistence(new ArrayDeque<>()).loadWallet(walletFile);
+        Assert.assertEquals("named", getReceiveNode(loaded, 1).getLabel());
+        Assert.assertNull(getReceiveNode(loaded, 2).getLabel());
+        Assert.assertEquals(wallet.getNode(KeyPurpose.RECEIVE).getChildren().size(), loaded.getNode(KeyPurpose.RECEIVE).getChildren().size());
+
+        //Storing the whole wallet writes a new snapshot including every change
+        persistence.storeWallet(walletFile, wallet);
+        Assert.assertEquals(getEmptyDeltaLogLength(), IncrementalPersistence.getDeltaLogFile(walletFile).length());
+        Assert.assertEquals("unnamed", getReceiveNode(new TestIncrementalPersistence(new ArrayDeque<>()).loadWallet(walletFile), 2).getLabel());
+    }
+
+    private static void storeChanges(IncrementalPersistence persistence, File walletFile, Wallet wallet, WalletNode... changedNodes) throws IOException {
+        Assert.assertTrue(persistence.storeWalletChanges(walletFile, wallet, null, WalletChanges.of(List.of(changedNodes), Collections.emptySet())));
+    }
+
+    private Wallet loadIncrementalTestWallet() throws IOException, MnemonicException, StorageException {
+        Storage storage = new Storage(getFile("sparrow-single-wallet"));
+        Wallet wallet = storage.loadEncryptedWallet("pass").getWallet();
+        wallet.getNode(KeyPurpose.RECEIVE).fillToIndex(5);
+        return wallet;
+    }
+
+    private static File createTempWalletFile() throws IOException {
+        File walletFile = File.createTempFile("sparrow", ".json");
+        walletFile.deleteOnExit();
+        IncrementalPersistence.getDeltaLogFile(walletFile).deleteOnExit();
+        return walletFile;
+    }
+
+    private static WalletNode getReceiveNode(Wallet wallet, int index) {
+        return wallet.getNode(KeyPurpose.RECEIVE).getChildren().stream().filter(node -> node.getIndex() == index).findFirst().orElseThrow();
+    }
+
+    private static long getEmptyDeltaLogLength() {
+        //The log magic followed by the SHA-256 hash of the base snapshot
+        return IncrementalPersistence.DELTA_LOG_MAGIC.length() + 32;
+    }
+
+    private static class TestIncrementalPersistence extends IncrementalPersistence {
+        public TestIncrementalPersistence(Deque<Runnable> compactions) {
+            super(compactions::add);
+        }
+
+        @Override
+        protected boolean isIncremental() {
+            return true;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.sparrowwallet.sparrow.io;
 
+import com.google.gson.Gson;
 import com.sparrowwallet.drongo.KeyPurpose;
 import com.sparrowwallet.drongo.Utils;
 import com.sparrowwallet.drongo.policy.PolicyType;
@@ -11,6 +12,10 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
 
 public class StorageTest extends IoTest {
     @Test
@@ -20,6 +25,21 @@ public class StorageTest extends IoTest {
         Assert.assertTrue(wallet.isValid());
     }
 
+    @Test
+    public void loadWalletDeferringTransactions() throws IOException, MnemonicException, StorageException {
+        Storage storage = new Storage(getFile("sparrow-single-wallet"));
+        Wallet wallet = storage.loadEncryptedWallet("pass").getWallet();
+
+        //A wallet with a short history is read in full, and no transactions are deferred
+        Storage deferredStorage = new Storage(getFile("sparrow-single-wallet"));
+        Wallet deferredWallet = deferredStorage.loadEncryptedWallet("pass", true).getWallet();
+        Assert.assertFalse(deferredStorage.isTransactionsDeferred());
+        Assert.assertEquals(wallet.getTransactions().keySet(), deferredWallet.getTransactions().keySet());
+
+        Gson gson = JsonPersistence.getGson();
+        Assert.assertEquals(gson.toJson(wallet), gson.toJson(deferredWallet));
+    }
+
     @Test
     public void loadSeedWallet() throws IOException, MnemonicException, StorageException {
         Storage storage = new Storage(getFile("sparrow-single-seed-wallet"));
@@ -80,4 +100,96 @@ public class StorageTest extends IoTest {
         wallet = temp2Storage.loadEncryptedWallet("pass").getWallet();
         Assert.assertTrue(wallet.isValid());
     }
+
+    @Test
+    public void saveLegacyWallet() throws IOException, MnemonicException, StorageException {
+        File tempWallet = File.createTempFile("sparrow", "tmp");
+        tempWallet.deleteOnExit();
+        Files.copy(getFile("sparrow-single-wallet").toPath(), tempWallet.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Assert.assertEquals(JsonPersistence.HEADER_MAGIC_1, getHeaderMagic(tempWallet));
+
+        Storage storage = new Storage(tempWallet);
+        Wallet wallet = storage.loadEncryptedWallet("pass").getWallet();
+        storage.saveWallet(wallet);
+        Assert.assertEquals(JsonPersistence.HEADER_MAGIC_1, getHeaderMagic(tempWallet));
+
+        Storage temp2Storage = new Storage(tempWallet);
+        wallet = temp2Storage.loadEncryptedWallet("pass").getWallet();
+        Assert.assertTrue(wallet.isValid());
+
+        File newWallet = File.createTempFile("sparrow", "tmp");
+        newWallet.deleteOnExit();
+        Storage newStorage = new Storage(newWallet);
+        newStorage.setKeyDeriver(temp2Storage.getKeyDeriver());
+        newStorage.setEncryptionPubKey(temp2Storage.getEncryptionPubKey());
+        newStorage.saveWallet(wallet);
+        Assert.assertEquals(JsonPersistence.HEADER_MAGIC_2, getHeaderMagic(newWallet));
+    }
+
+    @Test
+    public void saveMovedLegacyWallet() throws IOException, MnemonicException, StorageException {
+        File tempWallet = File.createTempFile("sparrow", "tmp");
+        tempWallet.deleteOnExit();
+        Files.copy(getFile("sparrow-single-wallet").toPath(), tempWallet.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Storage storage = new Storage(tempWallet);
+        Wallet wallet = storage.loadEncryptedWallet("pass").getWallet();
+
+        //A legacy wallet file that was moved or restored is written in the format it already has, even though it was not loaded from that path
+        File movedWallet = File.createTempFile("sparrow", "tmp");
+        movedWallet.deleteOnExit();
+        Files.copy(tempWallet.toPath(), movedWallet.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Storage movedStorage = new Storage(movedWallet);
+        movedStorage.setKeyDeriver(storage.getKeyDeriver());
+        movedStorage.setEncryptionPubKey(storage.getEncryptionPubKey());
+        movedStorage.saveWallet(wallet);
+        Assert.assertEquals(JsonPersistence.HEADER_MAGIC_1, getHeaderMagic(movedWallet));
+        Assert.assertTrue(new Storage(movedWallet).loadEncryptedWallet("pass").getWallet().isValid());
+    }
+
+    private static String getHeaderMagic(File walletFile) throws IOException {
+        try(InputStream inputStream = new FileInputStream(walletFile)) {
+            byte[] header = Base64.getDecoder().decode(inputStream.readNBytes(JsonPersistence.BINARY_HEADER_LENGTH));
+            return new String(header, 0, JsonPersistence.HEADER_MAGIC_1.length(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void serializeWallet() throws IOException, MnemonicException, StorageException {
+        Storage storage = new Storage(getFile("sparrow-single-wallet"));
+        Wallet wallet = storage.loadEncryptedWallet("pass").getWallet();
+
+        Gson gson = JsonPersistence.getGson();
+        String json = gson.toJson(wallet);
+        Assert.assertFalse(json.contains("\n"));
+
+        Wallet copy = gson.fromJson(json, Wallet.class);
+        Assert.assertTrue(copy.isValid());
+        Assert.assertEquals(json, gson.toJson(copy));
+    }
+
+    @Test
+    public void saveBinaryWallet() throws IOException, MnemonicException, StorageException {
+        Storage storage = new Storage(getFile("sparrow-single-wallet"));
+        Wallet wallet = storage.loadEncryptedWallet("pass").getWallet();
+
+        File tempWallet = File.createTempFile("sparrow", "tmp");
+        tempWallet.deleteOnExit();
+
+        BinaryPersistence binaryPersistence = new BinaryPersistence();
+        binaryPersistence.setKeyDeriver(storage.getKeyDeriver());
+        binaryPersistence.storeWallet(tempWallet, wallet, storage.getEncryptionPubKey());
+
+        JsonPersistence jsonPersistence = new JsonPersistence();
+        Wallet binaryWallet = jsonPersistence.loadWallet(tempWallet, "pass").getWallet();
+        Assert.assertTrue(binaryWallet.isValid());
+
+        Gson gson = JsonPersistence.getGson();
+        Assert.assertEquals(gson.toJson(wallet), gson.toJson(binaryWallet));
+
+        ByteArrayOutputStream binaryPayload = new ByteArrayOutputStream();
+        binaryPersistence.writeWallet(wallet, binaryPayload);
+        ByteArrayOutputStream jsonPayload = new ByteArrayOutputStream();
+        jsonPersistence.writeWallet(wallet, jsonPayload);
+        Assert.assertTrue(binaryPayload.size() < jsonPayload.size());
+    }
 }
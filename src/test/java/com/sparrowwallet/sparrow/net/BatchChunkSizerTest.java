@@ -0,0 +1,108 @@
+package com.sparrowwallet.sparrow.net;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchChunkSizerTest {
+    private static int testCount;
+
+    //Chunk sizers are shared per server and method, so each test uses its own server
+    private static BatchChunkSizer getChunkSizer() {
+        return BatchChunkSizer.get("tcp://test" + (testCount++) + ":50001", "blockchain.scripthash.get_history");
+    }
+
+    @Test
+    public void defaultChunkSize() {
+        Assert.assertEquals(BatchChunkSizer.DEFAULT_CHUNK_SIZE, getChunkSizer().getChunkSize());
+    }
+
+    @Test
+    public void convergesToTimeTarget() {
+        BatchChunkSizer chunkSizer = getChunkSizer();
+        for(int i = 0; i < 50; i++) {
+            int requests = chunkSizer.getChunkSize();
+            //10ms per request with small responses, so 200 requests fit in the 2 second target
+            chunkSizer.recordSuccess(requests, requests * 10L, requests * 100L);
+        }
+
+        Assert.assertTrue(Math.abs(chunkSizer.getChunkSize() - 200) < 4);
+    }
+
+    @Test
+    public void convergesToResponseSizeTarget() {
+        BatchChunkSizer chunkSizer = getChunkSizer();
+        for(int i = 0; i < 50; i++) {
+            int requests = chunkSizer.getChunkSize();
+            //Fast responses of 10KiB per request, so 204 requests fit in the 2MiB target
+            chunkSizer.recordSuccess(requests, 1L, requests * 10240L);
+        }
+
+        int chunkSize = chunkSizer.getChunkSize();
+        Assert.assertTrue(chunkSize <= 204);
+        Assert.assertTrue(chunkSize > 200);
+    }
+
+    @Test
+    public void growthAtMostDoubles() {
+        BatchChunkSizer chunkSizer = getChunkSizer();
+        int requests = chunkSizer.getChunkSize();
+        chunkSizer.recordSuccess(requests, 1L, 1L);
+        Assert.assertEquals(requests * 2, chunkSizer.getChunkSize());
+
+        for(int i = 0; i < 20; i++) {
+            chunkSizer.recordSuccess(chunkSizer.getChunkSize(), 1L, 1L);
+        }
+        Assert.assertEquals(BatchChunkSizer.MAX_CHUNK_SIZE, chunkSizer.getChunkSize());
+    }
+
+    @Test
+    public void shrinksGradually() {
+        BatchChunkSizer chunkSizer = getChunkSizer();
+        int requests = chunkSizer.getChunkSize();
+        //Ten seconds per request, so the ideal size is zero and the size moves a quarter of the way there
+        chunkSizer.recordSuccess(requests, requests * 10000L, requests);
+        Assert.assertEquals(requests * 3 / 4, chunkSizer.getChunkSize());
+
+        for(int i = 0; i < 20; i++) {
+            int previousSize = chunkSizer.getChunkSize();
+            chunkSizer.recordSuccess(previousSize, previousSize * 10000L, 1L);
+            Assert.assertTrue(chunkSizer.getChunkSize() >= previousSize / 2);
+        }
+        Assert.assertEquals(BatchChunkSizer.MIN_CHUNK_SIZE, chunkSizer.getChunkSize());
+    }
+
+    @Test
+    public void ignoresTrailingChunk() {
+        BatchChunkSizer chunkSizer = getChunkSizer();
+        chunkSizer.recordSuccess(BatchChunkSizer.DEFAULT_CHUNK_SIZE / 2 - 1, 1L, 1L);
+        Assert.assertEquals(BatchChunkSizer.DEFAULT_CHUNK_SIZE, chunkSizer.getChunkSize());
+    }
+
+    @Test
+    public void halvesOnFailure() {
+        BatchChunkSizer chunkSizer = getChunkSizer();
+        chunkSizer.recordFailure();
+        Assert.assertEquals(BatchChunkSizer.DEFAULT_CHUNK_SIZE / 2, chunkSizer.getChunkSize());
+        chunkSizer.recordFailure();
+        Assert.assertEquals(BatchChunkSizer.DEFAULT_CHUNK_SIZE / 4, chunkSizer.getChunkSize());
+
+        for(int i = 0; i < 10; i++) {
+            chunkSizer.recordFailure();
+        }
+        Assert.assertEquals(BatchChunkSizer.MIN_CHUNK_SIZE, chunkSizer.getChunkSize());
+    }
+
+    @Test
+    public void recoversAfterFailure() {
+        BatchChunkSizer chunkSizer = getChunkSizer();
+        for(int i = 0; i < 10; i++) {
+            chunkSizer.recordFailure();
+        }
+
+        for(int i = 0; i < 50; i++) {
+            int requests = chunkSizer.getChunkSize();
+            chunkSizer.recordSuccess(requests, requests * 10L, requests * 100L);
+        }
+        Assert.assertTrue(Math.abs(chunkSizer.getChunkSize() - 200) < 4);
+    }
+}
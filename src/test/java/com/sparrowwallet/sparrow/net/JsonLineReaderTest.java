@@ -0,0 +1,160 @@
+package com.sparrowwallet.sparrow.net;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+public class JsonLineReaderTest {
+    @Test
+    public void readLines() throws IOException {
+        JsonLineReader reader = new JsonLineReader(new ByteArrayInputStream("{\"id\":1}\n\n{\"id\":2}\r\n\r\n{\"id\":3}\n".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("{\"id\":1}", reader.readLine().toString());
+        Assert.assertEquals("{\"id\":2}", reader.readLine().toString());
+        Assert.assertEquals("{\"id\":3}", reader.readLine().toString());
+        Assert.assertNull(reader.readLine());
+    }
+
+    @Test
+    public void lineBytes() throws IOException {
+        JsonLineReader reader = new JsonLineReader(new ByteArrayInputStream("{\"id\":1}\n{\"id\":22}\n".getBytes(StandardCharsets.UTF_8)));
+        reader.readLine();
+        JsonLineReader.Line line = reader.readLine();
+        Assert.assertEquals("{\"id\":22}", new String(line.getBytes(), line.getOffset(), line.getLength(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void unterminatedLineAtEnd() throws IOException {
+        JsonLineReader reader = new JsonLineReader(new ByteArrayInputStream("{\"id\":1}\n{\"id\":2}".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("{\"id\":1}", reader.readLine().toString());
+        Assert.assertNull(reader.readLine());
+    }
+
+    @Test
+    public void lineSplitAcrossTimeouts() throws IOException {
+        ScriptedInputStream in = new ScriptedInputStream();
+        in.add("{\"id\":1,\"res");
+        in.addTimeout();
+        in.add("ult\":\"abc\"}\r");
+        in.addTimeout();
+        in.add("\n{\"id\":2");
+        in.addTimeout();
+        in.add("}\n");
+
+        JsonLineReader reader = new JsonLineReader(in);
+        Assert.assertEquals("{\"id\":1,\"result\":\"abc\"}", readRetrying(reader));
+        Assert.assertEquals("{\"id\":2}", readRetrying(reader));
+        Assert.assertNull(readRetrying(reader));
+        Assert.assertEquals(3, in.timeouts);
+    }
+
+    @Test
+    public void multibyteAcrossReads() throws IOException {
+        String line = "{\"id\":1,\"result\":\"\u00e9\u20ac\ud83d\ude00\"}";
+        byte[] bytes = (line + "\n" + line + "\n").getBytes(StandardCharsets.UTF_8);
+
+        //Deliver one byte at a time, with a timeout between each, so that every character is split across reads
+        ScriptedInputStream in = new ScriptedInputStream();
+        for(byte b : bytes) {
+            in.add(new byte[] {b});
+            in.addTimeout();
+        }
+
+        JsonLineReader reader = new JsonLineReader(in);
+        Assert.assertEquals(line, readRetrying(reader));
+        Assert.assertEquals(line, readRetrying(reader));
+        Assert.assertNull(readRetrying(reader));
+    }
+
+    @Test
+    public void multibyteAcrossBufferBoundary() throws IOException {
+        //Lines longer than the initial buffer, with multibyte characters straddling each power of two boundary as the buffer grows or is compacted
+        StringBuilder builder = new StringBuilder("{\"id\":1,\"result\":\"");
+        while(builder.length() < 300 * 1024) {
+            builder.append("a\u00e9\u20ac\ud83d\ude00");
+        }
+        builder.append("\"}");
+        String longLine = builder.toString();
+        String shortLine = "{\"id\":2,\"result\":\"\u20ac\"}";
+
+        byte[] bytes = (shortLine + "\n" + longLine + "\n" + shortLine + "\n" + longLine + "\n" + shortLine + "\n").getBytes(StandardCharsets.UTF_8);
+        ScriptedInputStream in = new ScriptedInputStream();
+        for(int offset = 0; offset < bytes.length; offset += 1000) {
+            in.add(Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + 1000)));
+        }
+
+        JsonLineReader reader = new JsonLineReader(in);
+        Assert.assertEquals(shortLine, reader.readLine().toString());
+        Assert.assertEquals(longLine, reader.readLine().toString());
+        Assert.assertEquals(shortLine, reader.readLine().toString());
+        Assert.assertEquals(longLine, reader.readLine().toString());
+        Assert.assertEquals(shortLine, reader.readLine().toString());
+        Assert.assertNull(reader.readLine());
+    }
+
+    private static String readRetrying(JsonLineReader reader) throws IOException {
+        while(true) {
+            try {
+                JsonLineReader.Line line = reader.readLine();
+                return line == null ? null : line.toString();
+            } catch(SocketTimeoutException e) {
+                //Retry, as the read thread does
+            }
+        }
+    }
+
+    private static class ScriptedInputStream extends InputStream {
+        private static final byte[] TIMEOUT = new byte[0];
+
+        private final Deque<byte[]> chunks = new ArrayDeque<>();
+        private byte[] current;
+        private int position;
+        private int timeouts;
+
+        public void add(String chunk) {
+            add(chunk.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public void add(byte[] chunk) {
+            chunks.add(chunk);
+        }
+
+        public void addTimeout() {
+            chunks.add(TIMEOUT);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(current == null || position == current.length) {
+                current = chunks.poll();
+                position = 0;
+                if(current == null) {
+                    return -1;
+                }
+                if(current == TIMEOUT) {
+                    current = null;
+                    timeouts++;
+                    throw new SocketTimeoutException("Read timed out");
+                }
+            }
+
+            int read = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, read);
+            position += read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.sparrowwallet.sparrow.net;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+public class JsonRpcScannerTest {
+    private static JsonRpcScanner.Header scan(String json) {
+        return JsonRpcScanner.scan(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void response() {
+        JsonRpcScanner.Header header = scan("{\"jsonrpc\":\"2.0\",\"id\":5,\"result\":{\"height\":680000,\"hex\":\"00\"}}");
+        Assert.assertEquals(List.of("5"), header.getIds());
+        Assert.assertFalse(header.isNotification());
+    }
+
+    @Test
+    public void batchResponse() {
+        JsonRpcScanner.Header header = scan("[{\"jsonrpc\":\"2.0\",\"result\":[1,2,3],\"id\":1}, {\"jsonrpc\":\"2.0\",\"id\":\"abc\",\"error\":{\"code\":-32600,\"message\":\"Invalid\"}} ,{\"id\":3,\"result\":null}]");
+        Assert.assertEquals(List.of("1", "abc", "3"), header.getIds());
+        Assert.assertFalse(header.isNotification());
+    }
+
+    @Test
+    public void notification() {
+        JsonRpcScanner.Header header = scan("{\"jsonrpc\":\"2.0\",\"method\":\"blockchain.scripthash.subscribe\",\"params\":[\"8b01df4e368ea28f8dc0423bcf7a4923e3a12d307c875e47a0cfbf90b5c39161\",\"f1c0ba4b7bc8cce2c6b5b1aaab8d2b8fb5b30e2bfa8a2e2df88d3d3cd1e1a2c2\"]}");
+        Assert.assertTrue(header.getIds().isEmpty());
+        Assert.assertTrue(header.isNotification());
+
+        header = scan("{\"jsonrpc\":\"2.0\",\"method\":\"blockchain.headers.subscribe\",\"id\":null,\"params\":[{\"height\":680000}]}");
+        Assert.assertTrue(header.isNotification());
+    }
+
+    @Test
+    public void methodCallWithId() {
+        JsonRpcScanner.Header header = scan("{\"jsonrpc\":\"2.0\",\"method\":\"server.ping\",\"id\":7}");
+        Assert.assertEquals(List.of("7"), header.getIds());
+        Assert.assertFalse(header.isNotification());
+    }
+
+    @Test
+    public void escapedStringId() {
+        JsonRpcScanner.Header header = scan("{\"id\":\"a\\\"]}[{,b\",\"result\":\"x\"}");
+        Assert.assertEquals(List.of("a\"]}[{,b"), header.getIds());
+
+        header = scan("[{\"result\":\"\\\\\",\"id\":\"c\\\\\"},{\"id\":\"\\u0041\\n\",\"result\":1}]");
+        Assert.assertEquals(List.of("c\\", "A\n"), header.getIds());
+    }
+
+    @Test
+    public void nestedIdIgnored() {
+        JsonRpcScanner.Header header = scan("{\"result\":{\"id\":99,\"txs\":[{\"id\":7},{\"tx_hash\":\"id\"}]},\"id\":3}");
+        Assert.assertEquals(List.of("3"), header.getIds());
+
+        header = scan("{\"result\":\"{\\\"id\\\":4}\",\"id\":2}");
+        Assert.assertEquals(List.of("2"), header.getIds());
+
+        header = scan("{\"method\":\"blockchain.headers.subscribe\",\"params\":[{\"id\":1,\"method\":\"x\"}]}");
+        Assert.assertTrue(header.isNotification());
+    }
+
+    @Test
+    public void whitespace() {
+        JsonRpcScanner.Header header = scan(" \r\n{ \"id\" :\t8 , \"result\" : [ ] }\n");
+        Assert.assertEquals(List.of("8"), header.getIds());
+    }
+
+    @Test
+    public void scanRange() {
+        byte[] json = "xx{\"id\":1,\"result\":2}{\"id\":2}".getBytes(StandardCharsets.UTF_8);
+        JsonRpcScanner.Header header = JsonRpcScanner.scan(json, 2, 20);
+        Assert.assertEquals(List.of("1"), header.getIds());
+    }
+
+    @Test
+    public void malformed() {
+        Assert.assertEquals(Collections.emptyList(), scan("").getIds());
+        Assert.assertEquals(Collections.emptyList(), scan("\"id\"").getIds());
+        Assert.assertEquals(Collections.emptyList(), scan("{\"id\":\"unterminated").getIds());
+        Assert.assertFalse(scan("{\"method\":\"x\",\"params\":[").isNotification());
+    }
+}
@@ -0,0 +1,186 @@
+package com.sparrowwallet.sparrow.net;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScriptHashStatusTableTest {
+    private static String hash(int value) {
+        return String.format("%064x", value);
+    }
+
+    @Test
+    public void addStatus() {
+        ScriptHashStatusTable table = new ScriptHashStatusTable(3);
+        Assert.assertFalse(table.containsKey(hash(1)));
+        Assert.assertNull(table.getStatus(hash(1)));
+
+        table.addStatus(hash(1), hash(100));
+        Assert.assertTrue(table.containsKey(hash(1)));
+        Assert.assertEquals(hash(100), table.getStatus(hash(1)));
+        Assert.assertEquals(1, table.size());
+    }
+
+    @Test
+    public void addStatusEvictsOldest() {
+        ScriptHashStatusTable table = new ScriptHashStatusTable(3);
+        for(int i = 100; i < 104; i++) {
+            table.addStatus(hash(1), hash(i));
+        }
+
+        Assert.assertFalse(table.hasStatus(hash(1), hash(100)));
+        Assert.assertTrue(table.hasStatus(hash(1), hash(101)));
+        Assert.assertTrue(table.hasStatus(hash(1), hash(102)));
+        Assert.assertTrue(table.hasStatus(hash(1), hash(103)));
+        Assert.assertEquals(hash(103), table.getStatus(hash(1)));
+    }
+
+    @Test
+    public void addDuplicateStatus() {
+        ScriptHashStatusTable table = new ScriptHashStatusTable(3);
+        table.addStatus(hash(1), hash(100));
+        table.addStatus(hash(1), hash(101));
+        table.addStatus(hash(1), hash(100));
+
+        //A retained status is not added again, so it neither becomes the latest status nor evicts an older one
+        Assert.assertEquals(hash(101), table.getStatus(hash(1)));
+        table.addStatus(hash(1), hash(102));
+        Assert.assertTrue(table.hasStatus(hash(1), hash(100)));
+        Assert.assertEquals(1, table.size());
+    }
+
+    @Test
+    public void addNullStatus() {
+        ScriptHashStatusTable table = new ScriptHashStatusTable(3);
+        table.addStatus(hash(1), null);
+        Assert.assertTrue(table.containsKey(hash(1)));
+        Assert.assertNull(table.getStatus(hash(1)));
+        Assert.assertFalse(table.hasStatus(hash(1), null));
+        Assert.assertFalse(table.hasLatestStatus(hash(1), null));
+
+        table.addStatus(hash(1), hash(100));
+        Assert.assertEquals(hash(100), table.getStatus(hash(1)));
+        table.addStatus(hash(1), null);
+        Assert.assertEquals(hash(100), table.getStatus(hash(1)));
+    }
+
+    @Test
+    public void putNullStatusRemoves() {
+        ScriptHashStatusTable table = new ScriptHashStatusTable(1);
+        table.putStatus(hash(1), hash(100));
+        table.putStatus(hash(2), hash(200));
+        table.putStatus(hash(1), null);
+        Assert.assertFalse(table.containsKey(hash(1)));
+        Assert.assertEquals(1, table.size());
+
+        table.putStatus(hash(1), hash(101));
+        Assert.assertEquals(hash(101), table.getStatus(hash(1)));
+        Assert.assertEquals(hash(200), table.getStatus(hash(2)));
+        Assert.assertEquals(2, table.size());
+    }
+
+    @Test
+    public void putStatusReplacesHistory() {
+        ScriptHashStatusTable table = new ScriptHashStatusTable(3);
+        table.addStatus(hash(1), hash(100));
+        table.addStatus(hash(1), hash(101));
+        table.putStatus(hash(1), hash(102));
+        Assert.assertFalse(table.hasStatus(hash(1), hash(100)));
+        Assert.assertTrue(table.hasLatestStatus(hash(1), hash(102)));
+    }
+
+    @Test
+    public void putStatusIfAbsent() {
+        ScriptHashStatusTable table = new ScriptHashStatusTable(1);
+        table.putStatusIfAbsent(hash(1), null);
+        Assert.assertFalse(table.containsKey(hash(1)));
+
+        table.putStatusIfAbsent(hash(1), hash(100));
+        table.putStatusIfAbsent(hash(1), hash(101));
+        Assert.assertEquals(hash(100), table.getStatus(hash(1)));
+    }
+
+    @Test
+    public void latestStatus() {
+        ScriptHashStatusTable table = new ScriptHashStatusTable(3);
+        table.addStatus(hash(1), hash(100));
+        table.addStatus(hash(1), hash(101));
+
+        Assert.assertTrue(table.hasStatus(hash(1), hash(100)));
+        Assert.assertFalse(table.hasLatestStatus(hash(1), hash(100)));
+        Assert.assertTrue(table.hasStatus(hash(1), hash(101)));
+        Assert.assertTrue(table.hasLatestStatus(hash(1), hash(101)));
+        Assert.assertFalse(table.hasStatus(hash(2), hash(101)));
+        Assert.assertFalse(table.hasLatestStatus(hash(2), hash(101)));
+    }
+
+    @Test
+    public void statusComparisonIgnoresCase() {
+        ScriptHashStatusTable table = new ScriptHashStatusTable(1);
+        String status = "ABCDEF" + hash(100).substring(6);
+        table.putStatus(hash(1), status);
+        Assert.assertTrue(table.hasLatestStatus(hash(1), status.toLowerCase()));
+        Assert.assertEquals(status.toLowerCase(), table.getStatus(hash(1)));
+    }
+
+    @Test
+    public void growAndRebuildWithRemovedEntries() {
+        ScriptHashStatusTable table = new ScriptHashStatusTable(1);
+        //Well past the initial capacity, removing every third entry so that removed slots are present at each rebuild
+        int count = 10000;
+        for(int i = 0; i < count; i++) {
+            table.putStatus(hash(i), hash(i + count));
+            if(i % 3 == 0) {
+                table.remove(hash(i));
+            }
+        }
+
+        int expectedSize = 0;
+        for(int i = 0; i < count; i++) {
+            if(i % 3 == 0) {
+                Assert.assertFalse(table.containsKey(hash(i)));
+            } else {
+                Assert.assertEquals(hash(i + count), table.getStatus(hash(i)));
+                expectedSize++;
+            }
+        }
+        Assert.assertEquals(expectedSize, table.size());
+
+        //Repeatedly removing and re-adding keys without growing fills the table with removed slots, which rebuilds must reclaim
+        for(int round = 0; round < 10; round++) {
+            for(int i = 0; i < count; i += 3) {
+                table.putStatus(hash(i), hash(round));
+                table.remove(hash(i));
+            }
+        }
+        Assert.assertEquals(expectedSize, table.size());
+        Assert.assertEquals(hash(1 + count), table.getStatus(hash(1)));
+    }
+
+    @Test
+    public void clear() {
+        ScriptHashStatusTable table = new ScriptHashStatusTable(1);
+        for(int i = 0; i < 2000; i++) {
+            table.putStatus(hash(i), hash(i));
+        }
+        table.clear();
+        Assert.assertEquals(0, table.size());
+        Assert.assertFalse(table.containsKey(hash(1)));
+        table.putStatus(hash(1), hash(2));
+        Assert.assertEquals(hash(2), table.getStatus(hash(1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidHexLength() {
+        new ScriptHashStatusTable(1).putStatus(hash(1).substring(2), hash(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidHexCharacter() {
+        new ScriptHashStatusTable(1).addStatus(hash(1), "g" + hash(100).substring(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidHistoryLength() {
+        new ScriptHashStatusTable(0);
+    }
+}
@@ -0,0 +1,83 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.MnemonicException;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+import com.sparrowwallet.sparrow.io.IoTest;
+import com.sparrowwallet.sparrow.io.Storage;
+import com.sparrowwallet.sparrow.io.StorageException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+public class WalletHistoryJournalTest extends IoTest {
+    @Test
+    public void historyCleared() throws IOException, MnemonicException, StorageException {
+        Wallet wallet = loadWallet();
+        List<WalletNode> historyNodes = addHistory(wallet);
+        Wallet previousWallet = wallet.copy();
+
+        //Clearing the history happens outside of any refresh, so is only found by comparing against the copy
+        wallet.clearHistory();
+        WalletHistoryJournal historyJournal = new WalletHistoryJournal();
+        historyJournal.recordChanges(previousWallet, wallet);
+        Assert.assertTrue(historyJournal.getChangedNodes().containsAll(historyNodes));
+    }
+
+    @Test
+    public void historyEmptied() throws IOException, MnemonicException, StorageException {
+        Wallet wallet = loadWallet();
+        WalletNode node = addHistory(wallet).get(0);
+        Wallet previousWallet = wallet.copy();
+
+        WalletHistoryJournal historyJournal = new WalletHistoryJournal();
+        historyJournal.recordChanges(previousWallet, wallet);
+        Assert.assertTrue(historyJournal.getChangedNodes().isEmpty());
+
+        node.setTransactionOutputs(new TreeSet<>());
+        historyJournal.recordChanges(previousWallet, wallet);
+        Assert.assertEquals(List.of(node), historyJournal.getChangedNodes());
+    }
+
+    @Test
+    public void overlappingRefreshes() throws IOException, MnemonicException, StorageException {
+        Wallet wallet = loadWallet();
+        List<WalletNode> historyNodes = addHistory(wallet);
+        WalletNode firstNode = historyNodes.get(0);
+        WalletNode secondNode = historyNodes.get(1);
+
+        //Each refresh calculates the history of its node as having no transactions, while the other refresh is still in progress
+        WalletHistoryJournal firstJournal = new WalletHistoryJournal();
+        WalletHistoryJournal secondJournal = new WalletHistoryJournal();
+        new ElectrumServer(firstJournal).calculateNodeHistory(wallet, Map.of(firstNode, Collections.emptySet()));
+        new ElectrumServer(secondJournal).calculateNodeHistory(wallet, Map.of(secondNode, Collections.emptySet()));
+
+        Assert.assertTrue(firstNode.getTransactionOutputs().isEmpty());
+        Assert.assertTrue(secondNode.getTransactionOutputs().isEmpty());
+        Assert.assertEquals(List.of(firstNode), firstJournal.getChangedNodes());
+        Assert.assertEquals(List.of(secondNode), secondJournal.getChangedNodes());
+    }
+
+    private Wallet loadWallet() throws IOException, MnemonicException, StorageException {
+        Storage storage = new Storage(getFile("sparrow-single-wallet"));
+        return storage.loadEncryptedWallet("pass").getWallet();
+    }
+
+    //Adds an output to the first receive and change nodes without history, returning those nodes
+    private List<WalletNode> addHistory(Wallet wallet) {
+        List<WalletNode> historyNodes = new ArrayList<>();
+        for(KeyPurpose keyPurpose : List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE)) {
+            WalletNode node = wallet.getNode(keyPurpose).getChildren().stream().filter(child -> child.getTransactionOutputs().isEmpty()).findFirst().orElseThrow();
+            Sha256Hash hash = Sha256Hash.wrap(String.format("%064x", historyNodes.size() + 1));
+            node.setTransactionOutputs(new TreeSet<>(Set.of(new BlockTransactionHashIndex(hash, 0, null, null, 0, 1000L))));
+            historyNodes.add(node);
+        }
+
+        return historyNodes;
+    }
+}
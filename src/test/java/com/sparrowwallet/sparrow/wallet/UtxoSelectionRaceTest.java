@@ -0,0 +1,108 @@
+package com.sparrowwallet.sparrow.wallet;
+
+import com.sparrowwallet.drongo.wallet.InsufficientFundsException;
+import com.sparrowwallet.drongo.wallet.UtxoSelector;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class UtxoSelectionRaceTest {
+    //Stub selections return their waste as the created transaction, or fail if it is null
+    private final Map<UtxoSelector, StubSelection> stubSelections = new HashMap<>();
+
+    private UtxoSelector addSelector(long delayMillis, Long waste) {
+        StubSelection stubSelection = new StubSelection(delayMillis, waste);
+        UtxoSelector utxoSelector = (targetValue, candidates) -> stubSelection.select();
+        stubSelections.put(utxoSelector, stubSelection);
+        return utxoSelector;
+    }
+
+    private UtxoSelectionRace<Long> createRace(UtxoSelector... utxoSelectors) {
+        return new UtxoSelectionRace<>(List.of(utxoSelectors), (utxoSelector, cancelled) -> stubSelections.get(utxoSelector).create(), Long::longValue);
+    }
+
+    @Test
+    public void leastWaste() throws Exception {
+        UtxoSelectionRace<Long> race = createRace(addSelector(10, 50L), addSelector(100, 20L), addSelector(50, 30L));
+        Assert.assertEquals(20L, (long)race.createTransaction(5000));
+    }
+
+    @Test
+    public void leastWasteByDeadline() throws Exception {
+        UtxoSelector slowSelector = addSelector(10000, 10L);
+        UtxoSelectionRace<Long> race = createRace(addSelector(10, 50L), slowSelector, addSelector(20, 30L));
+
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(30L, (long)race.createTransaction(200));
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+
+        //The selection still running at the deadline is interrupted
+        Assert.assertTrue(stubSelections.get(slowSelector).interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void firstAfterDeadline() throws Exception {
+        UtxoSelector slowSelector = addSelector(10000, 10L);
+        UtxoSelectionRace<Long> race = createRace(addSelector(300, 50L), slowSelector);
+
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(50L, (long)race.createTransaction(50));
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assert.assertTrue(stubSelections.get(slowSelector).interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failedSelectionIgnored() throws Exception {
+        UtxoSelectionRace<Long> race = createRace(addSelector(10, null), addSelector(50, 40L));
+        Assert.assertEquals(40L, (long)race.createTransaction(10));
+    }
+
+    @Test
+    public void allSelectionsFailed() throws Exception {
+        UtxoSelector lastSelector = addSelector(10, null);
+        UtxoSelectionRace<Long> race = createRace(addSelector(50, null), lastSelector);
+
+        try {
+            race.createTransaction(10);
+            Assert.fail("Expected InsufficientFundsException");
+        } catch(InsufficientFundsException e) {
+            Assert.assertSame(stubSelections.get(lastSelector).failure, e);
+        }
+    }
+
+    private static class StubSelection {
+        private final long delayMillis;
+        private final Long waste;
+        private final InsufficientFundsException failure = new InsufficientFundsException("Stub selection failed");
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+
+        public StubSelection(long delayMillis, Long waste) {
+            this.delayMillis = delayMillis;
+            this.waste = waste;
+        }
+
+        public <E> List<E> select() {
+            //The race only passes the selector to the transaction creator, which does not call it
+            return Collections.emptyList();
+        }
+
+        public Long create() throws InsufficientFundsException {
+            try {
+                Thread.sleep(delayMillis);
+            } catch(InterruptedException e) {
+                interrupted.countDown();
+                throw new CancellationException();
+            }
+
+            if(waste == null) {
+                throw failure;
+            }
+
+            return waste;
+        }
+    }
+}